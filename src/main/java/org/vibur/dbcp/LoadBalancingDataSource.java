@@ -0,0 +1,352 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vibur.dbcp.pool.ConnectionCircuitBreaker;
+import org.vibur.dbcp.pool.Hook;
+import org.vibur.dbcp.pool.ViburObjectFactory;
+import org.vibur.objectpool.PoolService;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.vibur.dbcp.ViburConfig.SQLSTATE_WRAPPER_ERROR;
+import static org.vibur.dbcp.ViburDataSource.State.NEW;
+import static org.vibur.dbcp.util.ViburUtils.getPoolName;
+import static org.vibur.objectpool.util.ArgumentValidation.forbidIllegalArgument;
+
+/**
+ * A composite DataSource which distributes the {@code getConnection()} calls between several
+ * {@link ViburDBCPDataSource} members, for example, one per database replica, as selected by
+ * a {@link LoadBalancingPolicy}. The policies can use the signals which the members' pools have, such as
+ * the number of the currently taken connections and the time waited to obtain a connection from the pool.
+ *
+ * <p>A member is ejected, i.e., not selected, for {@link #setEjectionTimeInMs ejectionTimeInMs} after
+ * {@link #setEjectionThreshold ejectionThreshold} consecutive failures to obtain a connection from it (other than
+ * timeouts, which indicate that the member is busy rather than unhealthy), after a server-wide critical SQLState
+ * has been observed on any of its connections, see {@link ViburConfig#serverWideSQLStates serverWideSQLStates},
+ * or while its {@link ConnectionCircuitBreaker} is open. After the ejection time has elapsed the member is
+ * selected again, and is ejected anew on the first failure, or reinstated on the first success. If the call to
+ * obtain a connection from the selected member fails, the next member selected among the remaining healthy members
+ * is tried. If all members are ejected, all of them are tried.
+ *
+ * <p>The members are added via {@link #addMember} before the composite is started, and are started and terminated
+ * together with it.
+ *
+ * @author Simeon Malchev
+ */
+public class LoadBalancingDataSource implements DataSource, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadBalancingDataSource.class);
+
+    private static final double ACQUIRE_NANOS_WEIGHT = 0.2; // the weight of the latest sample in the moving average
+    private static final long ACQUIRE_NANOS_HALF_LIFE = SECONDS.toNanos(1); // the moving average decays over time
+
+    private final LoadBalancingPolicy policy;
+    private final List<Member> members = new CopyOnWriteArrayList<>();
+
+    private int ejectionThreshold = 3;
+    private long ejectionTimeInMs = 30000;
+
+    public LoadBalancingDataSource(LoadBalancingPolicy policy) {
+        this.policy = requireNonNull(policy);
+    }
+
+    public Member addMember(ViburDBCPDataSource dataSource) {
+        return addMember(dataSource, 1);
+    }
+
+    /**
+     * Adds a member to this composite.
+     *
+     * @param dataSource the member DataSource
+     * @param weight the member weight, used by the {@link LoadBalancingPolicy.WeightedRoundRobin} policy
+     * @return the added member
+     */
+    public Member addMember(ViburDBCPDataSource dataSource, int weight) {
+        forbidIllegalArgument(weight < 1);
+        Member member = new Member(requireNonNull(dataSource), weight);
+        members.add(member);
+        return member;
+    }
+
+    public List<Member> getMembers() {
+        return Collections.unmodifiableList(members);
+    }
+
+    /**
+     * Starts all members which are not started yet.
+     *
+     * @throws ViburDBCPException if any of the members cannot be started
+     */
+    public void start() throws ViburDBCPException {
+        forbidIllegalArgument(members.isEmpty());
+        forbidIllegalArgument(ejectionThreshold < 1);
+        forbidIllegalArgument(ejectionTimeInMs < 0);
+        for (Member member : members) {
+            if (member.dataSource.getState() == NEW) {
+                member.dataSource.start();
+            }
+        }
+    }
+
+    /**
+     * Terminates all members.
+     */
+    public void terminate() {
+        for (Member member : members) {
+            member.dataSource.terminate();
+        }
+    }
+
+    @Override
+    public void close() {
+        terminate();
+    }
+
+    public int getEjectionThreshold() {
+        return ejectionThreshold;
+    }
+
+    public void setEjectionThreshold(int ejectionThreshold) {
+        this.ejectionThreshold = ejectionThreshold;
+    }
+
+    public long getEjectionTimeInMs() {
+        return ejectionTimeInMs;
+    }
+
+    public void setEjectionTimeInMs(long ejectionTimeInMs) {
+        this.ejectionTimeInMs = ejectionTimeInMs;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return getConnection(null, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>If the given credentials are {@code null}, the members' default credentials are used.
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        List<Member> candidates = healthyMembers();
+        SQLException failure = null;
+        while (!candidates.isEmpty()) {
+            Member member = policy.select(candidates);
+            try {
+                Connection connection = username == null && password == null ?
+                        member.dataSource.getConnection() : member.dataSource.getConnection(username, password);
+                member.succeeded();
+                return connection;
+            } catch (SQLException e) {
+                member.failed(e);
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.setNextException(e);
+                }
+            }
+            candidates.remove(member);
+        }
+        throw failure;
+    }
+
+    private List<Member> healthyMembers() {
+        long currentNanoTime = System.nanoTime();
+        List<Member> healthy = new ArrayList<>(members.size());
+        for (Member member : members) {
+            if (member.isHealthy(currentNanoTime)) {
+                healthy.add(member);
+            }
+        }
+        if (healthy.isEmpty()) {
+            logger.warn("All {} members are ejected, trying all of them", members.size());
+            healthy.addAll(members);
+        }
+        return healthy;
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        for (Member member : members) {
+            member.dataSource.setLoginTimeout(seconds);
+        }
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return members.isEmpty() ? 0 : members.get(0).dataSource.getLoginTimeout();
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (isWrapperFor(iface)) {
+            return (T) this;
+        }
+        throw new SQLException("Not a wrapper for " + iface, SQLSTATE_WRAPPER_ERROR);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * A member of the {@link LoadBalancingDataSource}, and its current health and load.
+     */
+    public final class Member {
+        private final ViburDBCPDataSource dataSource;
+        private final int weight;
+
+        private final AtomicInteger consecutiveFailures = new AtomicInteger(0);
+        private volatile long ejectedUntilNanoTime = 0;
+        private volatile int lastVersion = -1; // the last seen version of the member's connection factory
+        private volatile long acquireNanos = 0; // the moving average of the time waited to obtain a connection
+        private volatile long acquireSampleNanoTime = System.nanoTime(); // the time of the latest sample
+
+        private Member(ViburDBCPDataSource dataSource, int weight) {
+            this.dataSource = dataSource;
+            this.weight = weight;
+
+            dataSource.getConnHooks().addOnGet(new Hook.GetConnection() {
+                @Override
+                public void on(Connection rawConnection, long takenNanos) {
+                    // a concurrent update can be lost, which is harmless for a moving average
+                    long currentNanoTime = System.nanoTime();
+                    long decayedNanos = decayedAcquireNanos(currentNanoTime);
+                    acquireNanos = decayedNanos + (long) ((takenNanos - decayedNanos) * ACQUIRE_NANOS_WEIGHT);
+                    acquireSampleNanoTime = currentNanoTime;
+                }
+            });
+        }
+
+        public ViburDBCPDataSource getDataSource() {
+            return dataSource;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * Returns the number of the connections currently taken from the member's pool.
+         */
+        public int getOutstanding() {
+            PoolService<?> pool = dataSource.getPool();
+            return pool != null ? pool.taken() : 0;
+        }
+
+        /**
+         * Returns the exponentially weighted moving average of the time waited to obtain a connection from
+         * the member's pool, in nanoseconds. The average halves every second without new samples, so that a member
+         * which is not selected because of a past slowdown is eventually selected again and re-measured.
+         */
+        public long getAcquireNanos() {
+            return decayedAcquireNanos(System.nanoTime());
+        }
+
+        private long decayedAcquireNanos(long currentNanoTime) {
+            long elapsedNanos = currentNanoTime - acquireSampleNanoTime;
+            long nanos = acquireNanos;
+            if (elapsedNanos <= 0 || nanos == 0) {
+                return nanos;
+            }
+            return (long) (nanos * Math.pow(0.5, (double) elapsedNanos / ACQUIRE_NANOS_HALF_LIFE));
+        }
+
+        public int getConsecutiveFailures() {
+            return consecutiveFailures.get();
+        }
+
+        public boolean isEjected() {
+            return !isHealthy(System.nanoTime());
+        }
+
+        private boolean isHealthy(long currentNanoTime) {
+            ConnectionCircuitBreaker circuitBreaker = dataSource.getCircuitBreaker();
+            if (circuitBreaker != null && circuitBreaker.isOpen()) {
+                return false;
+            }
+            ViburObjectFactory connectionFactory = dataSource.getConnectionFactory();
+            if (connectionFactory != null) {
+                int version = connectionFactory.version();
+                int last = lastVersion;
+                if (version != last) {
+                    lastVersion = version;
+                    if (last != -1) { // the version is incremented when a server-wide critical SQLState is observed
+                        eject(currentNanoTime, "a server-wide critical SQLState was observed");
+                        return false;
+                    }
+                }
+            }
+            long ejectedUntil = ejectedUntilNanoTime;
+            return ejectedUntil == 0 || currentNanoTime - ejectedUntil >= 0;
+        }
+
+        private void succeeded() {
+            consecutiveFailures.set(0);
+            ejectedUntilNanoTime = 0;
+        }
+
+        private void failed(SQLException e) {
+            if (e instanceof SQLTimeoutException) {
+                return; // the member is busy rather than unhealthy
+            }
+            if (consecutiveFailures.incrementAndGet() >= ejectionThreshold) {
+                eject(System.nanoTime(), consecutiveFailures.get() + " consecutive failures to obtain a connection");
+            }
+        }
+
+        private void eject(long currentNanoTime, String reason) {
+            ejectedUntilNanoTime = currentNanoTime + Math.max(1, MILLISECONDS.toNanos(ejectionTimeInMs));
+            logger.warn("Ejected pool {} for {} ms after {}", getPoolName(dataSource), ejectionTimeInMs, reason);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp;
+
+import org.vibur.dbcp.LoadBalancingDataSource.Member;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Selects the member of a {@link LoadBalancingDataSource} from which the next connection will be obtained.
+ * The implementations must be thread-safe.
+ *
+ * @author Simeon Malchev
+ */
+public interface LoadBalancingPolicy {
+
+    /**
+     * Selects the member from which the next connection will be obtained.
+     *
+     * @param members the currently healthy members, never empty
+     * @return the selected member, must be one of the given members
+     */
+    Member select(List<Member> members);
+
+    /**
+     * Selects the member with the fewest connections currently taken from its pool.
+     */
+    class LeastOutstanding implements LoadBalancingPolicy {
+        @Override
+        public Member select(List<Member> members) {
+            Member selected = members.get(0);
+            for (int i = 1; i < members.size(); i++) {
+                Member member = members.get(i);
+                if (member.getOutstanding() < selected.getOutstanding()) {
+                    selected = member;
+                }
+            }
+            return selected;
+        }
+    }
+
+    /**
+     * Selects two members at random and takes the one with the lower moving average of the time waited to obtain
+     * a connection from its pool, see {@link Member#getAcquireNanos}, or the one with fewer taken connections if
+     * the averages are within 10% (or 100 microseconds) of each other.
+     */
+    class PowerOfTwoChoices implements LoadBalancingPolicy {
+        private static final long NEAR_TIE_NANOS = 100_000;
+
+        @Override
+        public Member select(List<Member> members) {
+            int size = members.size();
+            if (size == 1) {
+                return members.get(0);
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(size);
+            int second = random.nextInt(size - 1);
+            if (second >= first) {
+                second++;
+            }
+
+            Member a = members.get(first);
+            Member b = members.get(second);
+            long aNanos = a.getAcquireNanos();
+            long bNanos = b.getAcquireNanos();
+            if (Math.abs(aNanos - bNanos) > Math.max(NEAR_TIE_NANOS, Math.max(aNanos, bNanos) / 10)) {
+                return aNanos < bNanos ? a : b;
+            }
+            int aOutstanding = a.getOutstanding();
+            int bOutstanding = b.getOutstanding();
+            if (aOutstanding != bOutstanding) {
+                return aOutstanding < bOutstanding ? a : b;
+            }
+            return aNanos <= bNanos ? a : b;
+        }
+    }
+
+    /**
+     * Distributes the connections between the members in proportion to their weights.
+     */
+    class WeightedRoundRobin implements LoadBalancingPolicy {
+        private final AtomicLong counter = new AtomicLong();
+
+        @Override
+        public Member select(List<Member> members) {
+            long totalWeight = 0;
+            for (Member member : members) {
+                totalWeight += member.getWeight();
+            }
+            long position = (counter.getAndIncrement() & Long.MAX_VALUE) % totalWeight;
+            for (Member member : members) {
+                position -= member.getWeight();
+                if (position < 0) {
+                    return member;
+                }
+            }
+            return members.get(members.size() - 1); // not expected to happen
+        }
+    }
+}
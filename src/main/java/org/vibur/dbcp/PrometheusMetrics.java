@@ -0,0 +1,260 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.vibur.dbcp.pool.LatencyHistogram;
+import org.vibur.dbcp.pool.PoolLatencies;
+import org.vibur.dbcp.pool.PoolMetrics;
+import org.vibur.dbcp.pool.PoolOperations;
+import org.vibur.dbcp.stcache.ClhmStatementCache;
+import org.vibur.dbcp.stcache.StatementCache;
+import org.vibur.objectpool.PoolService;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static java.util.Objects.requireNonNull;
+import static org.vibur.dbcp.ViburDataSource.State.WORKING;
+
+/**
+ * Exposes the gauges and counters of one or more {@link ViburDBCPDataSource}s in the Prometheus text exposition
+ * format, with a {@code pool} label holding the pool name. The metrics can be obtained via {@link #scrape}, or
+ * served over HTTP at the {@code /metrics} path by an embedded {@code com.sun.net.httpserver.HttpServer}, which is
+ * started via {@link #startServer} and must be stopped via {@link #close}.
+ *
+ * <p>The gauges include the number of the taken, idle and created connections, the pool max size, and the
+ * number of the threads waiting for a connection. The counters are the {@link PoolMetrics} of the pool, and the
+ * statement cache hits and misses if the statement caching and the
+ * {@link ViburConfig#statementCacheEnableMetrics statementCacheEnableMetrics} are enabled. If the
+ * {@link ViburConfig#poolEnableLatencyHistograms poolEnableLatencyHistograms} is enabled, the latency histograms
+ * are exposed as summaries with quantiles 0.5, 0.99 and 0.999, and with the sum and count of the recorded latencies.
+ *
+ * @author Simeon Malchev
+ */
+public class PrometheusMetrics implements AutoCloseable {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String PREFIX = "vibur_dbcp_";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final List<ViburDBCPDataSource> dataSources = new CopyOnWriteArrayList<>();
+
+    private HttpServer server = null; // guarded by this
+    private ExecutorService executor = null; // guarded by this
+
+    public PrometheusMetrics(ViburDBCPDataSource... dataSources) {
+        for (ViburDBCPDataSource dataSource : dataSources) {
+            addDataSource(dataSource);
+        }
+    }
+
+    public void addDataSource(ViburDBCPDataSource dataSource) {
+        dataSources.add(requireNonNull(dataSource));
+    }
+
+    /**
+     * Returns the current metrics of all data sources which are in working state, in the Prometheus text
+     * exposition format.
+     */
+    public String scrape() {
+        Map<String, StringBuilder> metrics = new LinkedHashMap<>();
+        for (ViburDBCPDataSource dataSource : dataSources) {
+            PoolService<?> pool = dataSource.getPool();
+            if (dataSource.getState() != WORKING || pool == null) {
+                continue;
+            }
+            String label = "pool=\"" + escape(dataSource.getName()) + '"';
+
+            gauge(metrics, "connections_taken", "The number of connections currently taken from the pool.",
+                    label, pool.taken());
+            gauge(metrics, "connections_idle", "The number of idle connections currently in the pool.",
+                    label, pool.remainingCreated());
+            gauge(metrics, "connections_created", "The number of connections currently created by the pool.",
+                    label, pool.createdTotal());
+            gauge(metrics, "connections_max", "The pool max size.", label, pool.maxSize());
+            PoolOperations poolOperations = dataSource.getPoolOperations();
+            if (poolOperations != null) {
+                gauge(metrics, "waiters", "The approximate number of threads waiting for a connection.",
+                        label, poolOperations.getWaiting());
+            }
+
+            PoolMetrics counters = dataSource.getMetrics();
+            counter(metrics, "connection_timeouts_total", "The number of getConnection() calls which have timed out.",
+                    label, counters.getTimeouts());
+            counter(metrics, "connection_creations_total", "The number of physical connections created.",
+                    label, counters.getCreations());
+            counter(metrics, "connection_creation_failures_total", "The number of failed attempts to create a physical connection.",
+                    label, counters.getCreationFailures());
+            counter(metrics, "connection_destructions_total", "The number of physical connections closed.",
+                    label, counters.getDestructions());
+            counter(metrics, "connection_validations_total", "The number of connection validations.",
+                    label, counters.getValidations());
+            counter(metrics, "connection_validation_failures_total", "The number of failed connection validations.",
+                    label, counters.getValidationFailures());
+            counter(metrics, "critical_sqlstates_total", "The number of connections closed because of a critical SQLState.",
+                    label, counters.getCriticalSQLStates());
+            counter(metrics, "server_wide_sqlstates_total", "The number of server-wide critical SQLStates after which the idle connections were revalidated.",
+                    label, counters.getServerWideSQLStates());
+
+            StatementCache statementCache = dataSource.getStatementCache();
+            if (statementCache instanceof ClhmStatementCache && ((ClhmStatementCache) statementCache).isMetricsEnabled()) {
+                counter(metrics, "statement_cache_hits_total", "The number of statements served from the statement cache.",
+                        label, ((ClhmStatementCache) statementCache).getHits());
+                counter(metrics, "statement_cache_misses_total", "The number of statements not served from the statement cache.",
+                        label, ((ClhmStatementCache) statementCache).getMisses());
+            }
+
+            PoolLatencies latencies = dataSource.getLatencies();
+            if (latencies != null) {
+                summary(metrics, "acquire_seconds", "The time waited to obtain a connection from the pool.",
+                        label, latencies.getAcquire());
+                summary(metrics, "hold_seconds", "The time for which the connections were held by the application.",
+                        label, latencies.getHold());
+                summary(metrics, "create_seconds", "The time taken to create a physical connection.",
+                        label, latencies.getCreate());
+                summary(metrics, "validate_seconds", "The time taken to validate a connection.",
+                        label, latencies.getValidate());
+            }
+        }
+
+        StringBuilder builder = new StringBuilder(4096);
+        for (StringBuilder metric : metrics.values()) {
+            builder.append(metric);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Starts serving the metrics over HTTP at the {@code /metrics} path of the given address.
+     *
+     * @param address the address to bind to; a port of {@code 0} binds to an ephemeral port, see {@link #getPort}
+     * @throws IOException if the server cannot be bound
+     */
+    public synchronized void startServer(InetSocketAddress address) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Already started");
+        }
+
+        server = HttpServer.create(address, 0);
+        server.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    byte[] body = scrape().getBytes(UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, PrometheusMetrics.class.getSimpleName() + " for pools " + poolNames());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Returns the port on which the metrics are served, or {@code -1} if the server is not started.
+     */
+    public synchronized int getPort() {
+        return server != null ? server.getAddress().getPort() : -1;
+    }
+
+    /**
+     * Stops serving the metrics over HTTP, if started.
+     */
+    @Override
+    public synchronized void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+            executor = null;
+        }
+    }
+
+    private String poolNames() {
+        String[] names = new String[dataSources.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = dataSources.get(i).getName();
+        }
+        return Arrays.toString(names);
+    }
+
+    private static void gauge(Map<String, StringBuilder> metrics, String name, String help, String label, long value) {
+        metric(metrics, name, "gauge", help).append(PREFIX).append(name)
+                .append('{').append(label).append("} ").append(value).append('\n');
+    }
+
+    private static void counter(Map<String, StringBuilder> metrics, String name, String help, String label, long value) {
+        metric(metrics, name, "counter", help).append(PREFIX).append(name)
+                .append('{').append(label).append("} ").append(value).append('\n');
+    }
+
+    private static void summary(Map<String, StringBuilder> metrics, String name, String help, String label,
+                                LatencyHistogram histogram) {
+        StringBuilder builder = metric(metrics, name, "summary", help);
+        for (String quantile : new String[] {"0.5", "0.99", "0.999"}) {
+            double seconds = histogram.getValueAtPercentile(Double.parseDouble(quantile) * 100) * 0.000_000_001;
+            builder.append(PREFIX).append(name).append('{').append(label).append(",quantile=\"").append(quantile)
+                    .append("\"} ").append(seconds).append('\n');
+        }
+        builder.append(PREFIX).append(name).append("_sum{").append(label).append("} ")
+                .append(histogram.getTotal() * 0.000_000_001).append('\n');
+        builder.append(PREFIX).append(name).append("_count{").append(label).append("} ")
+                .append(histogram.getCount()).append('\n');
+    }
+
+    private static StringBuilder metric(Map<String, StringBuilder> metrics, String name, String type, String help) {
+        StringBuilder builder = metrics.get(name);
+        if (builder == null) {
+            builder = new StringBuilder(256);
+            builder.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n')
+                    .append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+            metrics.put(name, builder);
+        }
+        return builder;
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -58,6 +58,7 @@ public abstract class ViburConfig {
     public static final String SQLSTATE_INTERRUPTED_ERROR     = "VI004";
     public static final String SQLSTATE_OBJECT_CLOSED_ERROR   = "VI005";
     public static final String SQLSTATE_WRAPPER_ERROR         = "VI006";
+    public static final String SQLSTATE_CIRCUIT_OPEN_ERROR    = "VI007";
 
     static final int STATEMENT_CACHE_MAX_SIZE = 2000;
 
@@ -100,6 +101,32 @@ public abstract class ViburConfig {
      * from the pool JDBC Connection is validated before use, or when {@link #initSQL} is executed (if specified).
      * {@code 0} means no limit. */
     private int validateTimeoutInSeconds = 3;
+    /** If greater than {@code 0}, a connection on which a statement execution or a commit has completed without
+     * an SQLException within the last {@code connectionValidationTrustWindowInMs} will not be validated when taken
+     * from the pool, even if it has stayed in the pool for longer than the {@link #connectionIdleLimitInSeconds}.
+     * A recent successful round trip to the database is a better evidence of the connection health than the time
+     * when the connection was restored to the pool. To have an effect, this should be set to a value greater than
+     * the {@code connectionIdleLimitInSeconds}. {@code 0} disables the trust window. */
+    private long connectionValidationTrustWindowInMs = 0;
+    /** If greater than {@code 0}, the maximum time for which a JDBC Connection can exist, after which it will be
+     * closed and replaced. This should be set lower than any session time limit imposed by the database or by
+     * a proxy in front of it. The lifetime of each connection is randomly shortened by up to 10%, so that the
+     * connections created at the same time are not retired at the same time. Expired connections are retired when
+     * taken from or restored to the pool, and the idle ones also by a background sweeper, and are replaced in the
+     * background. See {@link ConnectionLifetimeSweeper}. */
+    private int connectionMaxLifetimeInSeconds = 0;
+    /** If greater than {@code 0}, the idle connections in the pool will be validated in the background every
+     * {@code connectionKeepAliveIntervalInSeconds}, using the {@link #testConnectionQuery}. Each idle connection
+     * which has not been used or validated during the last interval is validated; the valid connections are stamped
+     * as freshly validated, and the invalid ones are closed and replaced in the background. If this is set to at
+     * most half of the {@link #connectionIdleLimitInSeconds}, the application threads will get only connections
+     * validated in the background, and will not incur the validation round trip on {@code getConnection()}.
+     * See {@link ConnectionKeepAlive}. */
+    private int connectionKeepAliveIntervalInSeconds = 0;
+    /** The maximum number of threads which will validate the idle connections in parallel, when
+     * the {@link #connectionKeepAliveIntervalInSeconds} is enabled. The connections being validated are not
+     * available in the pool, but still count towards the {@link #poolMaxSize}. */
+    private int connectionKeepAliveThreads = 4;
 
     public static final String IS_VALID_QUERY = "isValid";
 
@@ -145,6 +172,39 @@ public abstract class ViburConfig {
     private int poolInitialSize = 5;
     /** The pool max size, i.e. the maximum number of JDBC Connections allocated in this pool. */
     private int poolMaxSize = 50;
+    /** The maximum number of the pool initial connections that will be created concurrently when the pool is
+     * started. If {@code 1}, the initial connections are created one after another. If the creation of any of the
+     * initial connections fails, the start of the pool fails immediately. */
+    private int poolInitialFillThreads = 1;
+    /** If {@code true}, the pool {@code start()} method returns as soon as the first connection is created and
+     * validated, and the rest of the pool initial connections are created in the background as spare connections,
+     * see {@link org.vibur.dbcp.pool.ConnectionProvisioner ConnectionProvisioner}. The pool is fully usable once
+     * {@code start()} returns; a {@code getConnection()} call which finds no idle connection in the pool takes
+     * a spare connection if one is already created, or otherwise creates a new connection as usual. The background
+     * creation of the initial connections is best effort and its failures are only logged; the pool reducer does
+     * not reduce the pool below the {@link #poolInitialSize} regardless. This can significantly shorten the start
+     * time of applications using a large {@link #poolInitialSize}. */
+    private boolean poolWarmUpInBackground = false;
+    /** If greater than {@code 0}, the JDBC Connections will be closed asynchronously by up to this many dedicated
+     * closer threads, rather than by the application thread that triggers their destruction, for example by
+     * restoring a broken connection to the pool. If {@link #useNetworkTimeout} is enabled, the network timeout of
+     * each closed connection is set to {@link #validateTimeoutInSeconds} before closing it; otherwise, a connection
+     * whose closing does not complete within the {@link #validateTimeoutInSeconds} is aborted via
+     * {@link java.sql.Connection#abort}. Thus, the closing of connections to an unresponsive database does not hang
+     * the closer threads. When the pool is terminated, the connections queued for closing are still closed. The
+     * {@link org.vibur.dbcp.pool.Hook.DestroyConnection DestroyConnection} hooks are invoked by the closer threads,
+     * with the time it took to close the connection. If {@code 0}, the connections are closed synchronously.
+     *
+     * <p>Note that a connection queued for closing no longer counts towards the {@link #poolMaxSize}, as the pool
+     * permit of the connection is released when the connection is destroyed, before it is actually closed. Thus,
+     * the number of the physical connections open to the database can temporarily exceed the {@link #poolMaxSize}
+     * by up to the {@link #poolCloserQueueSize} plus the {@code poolCloserThreads}, which should be accounted for
+     * when the database limits the number of connections. */
+    private int poolCloserThreads = 0;
+    /** The maximum number of the connections waiting to be closed by the closer threads, see
+     * {@link #poolCloserThreads}. If this queue is full, the connection is closed synchronously by the thread that
+     * triggered its destruction. The queued connections are not counted towards the {@link #poolMaxSize}. */
+    private int poolCloserQueueSize = 1000;
     /** If {@code true}, guarantees that the threads invoking the pool's {@link org.vibur.objectpool.PoolService#take}
      * methods will be selected to obtain a connection from it in FIFO order, and no thread will be starved out from
      * accessing the pool's underlying resources. */
@@ -153,11 +213,88 @@ public abstract class ViburConfig {
      * timing information about the connection last use, taken time, etc. See also {@link #logTakenConnectionsOnTimeout}
      * and {@link TakenConnection}. */
     private boolean poolEnableConnectionTracking = false;
+    /** Will apply only if {@link #poolEnableConnectionTracking} is enabled. Capturing the stack trace at the moment
+     * when a connection is taken requires a full stack walk, which is costly when done on every
+     * {@code getConnection()} call. If set to a value {@code N > 1}, the stack trace is captured for one in
+     * {@code N} randomly chosen taken connections only. For all taken connections, the taking thread, its name at
+     * the moment of taking, and a cheap fingerprint of the call site which has taken the connection, computed from
+     * the classes on the call stack, are recorded; the connections taken at the same call site are counted together
+     * when the taken connections are logged. The timing information is recorded for all taken connections.
+     * See also {@link TakenConnection#getLocation} and {@link TakenConnection#getCallSiteFingerprint}. */
+    private int poolConnectionTrackingSampleRate = 1;
+    /** If {@code true}, the pool will keep latency histograms of the time waited to obtain a connection from
+     * the pool, of the time for which the connections are held by the application, of the time taken to create
+     * new connections, and of the time taken to validate the connections. Their percentiles are exposed via JMX.
+     * The recording is lock-free and does not allocate. See {@link PoolLatencies}. */
+    private boolean poolEnableLatencyHistograms = false;
+    /** If {@code true} and if running on JDK 11+, the pool will emit Java Flight Recorder events for the connection
+     * acquire (including the time waited and whether a new connection was created as part of it), restore, create,
+     * destroy and validate operations, as well as for the Statement executions and ResultSet retrievals.
+     * The events are emitted via connection and invocation hooks which are registered only if this option is
+     * enabled, and are recorded only while a flight recording which enables them is running. On JDK versions
+     * older than 11, enabling this option logs a warning and has no other effect. See
+     * {@code org.vibur.dbcp.jfr.JfrEvents}. */
+    private boolean poolEnableJfrEvents = false;
+    /** If greater than {@code 0}, the pool will keep in a fixed-size ring buffer of this size (rounded up to the next
+     * power of 2) the most recent pool events: connection take, restore, create, destroy, validation failure,
+     * {@code getConnection()} timeout, and drain of the idle connections after a server-wide critical SQLState.
+     * Each event records its time, thread id and connection id. The recorded events are logged on timeout if
+     * {@link #logFlightRecorderOnTimeout} is enabled, and can be obtained via JMX. The recording is lock-free and
+     * does not allocate. {@code 0} disables the recording. See {@link PoolFlightRecorder}. */
+    private int poolFlightRecorderSize = 0;
+    /** If {@code true}, each thread will first try to reclaim the connection that it has last restored to the pool,
+     * before falling back to the pool's shared {@link #concurrentCollection}. This can significantly reduce the
+     * contention on the shared collection for applications that take and restore a connection many times from the
+     * same thread, for example, as part of processing a single request. See {@link ThreadAffineCollection}. */
+    private boolean poolThreadAffinity = false;
+    /** If greater than {@code 1}, the available connections in the pool will be spread across this many shards
+     * (rounded up to the next power of 2) of a {@link ShardedConcurrentCollection}, which is then used instead of
+     * the {@link #concurrentCollection}. Each thread starts from a home shard and steals from the other shards only
+     * when its home shard is empty. This can reduce the contention on the pool's collection on machines with a large
+     * number of CPU cores; a reasonable value is the number of available processors. */
+    private int poolShards = 0;
+    /** If {@code true}, a connection restored to the pool while there are threads waiting for a connection will be
+     * handed off directly to the longest waiting thread, instead of being returned to the pool where the woken up
+     * thread would have to race with other (newly arriving) threads for it. The waiting threads are served in FIFO
+     * order regardless of the {@link #poolFair} setting, and the time each of them has waited is reported to the
+     * {@link Hook.GetConnection} hooks. This can reduce the tail latency of getting a connection when the pool is
+     * saturated. Enabling this option is also required for the caller priorities of
+     * {@link ViburDataSource#getConnection(int)} to take effect. */
+    private boolean poolHandoff = false;
+    /** When the pool is saturated and {@link #poolHandoff} is enabled, a caller of
+     * {@link ViburDataSource#getConnection(int)} which has waited for longer than this many milliseconds will be
+     * served ahead of all callers that have arrived after it, regardless of their priority. This bounds the
+     * starvation of the low-priority callers. {@code 0} means strict priority order, i.e., no bound. */
+    private long poolPriorityStarvationBoundInMs = 1000;
+    /** If greater than {@code 0}, enables the background provisioning of connections ahead of demand: whenever
+     * the number of idle connections in the pool falls below this headroom, new connections will be created by
+     * a background executor, so that the threads calling {@code getConnection()} almost never wait for a new
+     * physical connection to be established. The pool max size is still respected. See {@link ConnectionProvisioner}. */
+    private int poolProvisioningHeadroom = 0;
+    /** The maximum number of connections that will be created concurrently by the background provisioning
+     * executor, see {@link #poolProvisioningHeadroom}. */
+    private int poolProvisioningThreads = 1;
+    /** A comma separated list of named partitions (bulkheads) in the form {@code name:min:max}, for example,
+     * {@code "oltp:4:10, reporting:0:3, batch:1:4"}, between which the pool capacity will be divided. Each partition
+     * is guaranteed to be able to take at least {@code min} connections from the pool at the same time, and can
+     * never take more than {@code max}; above its minimum, a partition borrows from the pool capacity which is
+     * not reserved by the minimums of the other partitions. The sum of all minimums must not exceed the
+     * {@link #poolMaxSize}. Connections are obtained from a partition via {@link ViburDataSource#getConnection(String)};
+     * the calls to {@code getConnection()} use an implicit default partition with no guaranteed minimum.
+     * {@link ViburDataSource#getConnectionAsync getConnectionAsync} is not supported when partitions are configured.
+     * {@code null} disables the partitioning. See {@link ConnectionPartitions}. */
+    private String poolPartitions = null;
 
     private PoolService<ConnHolder> pool = null;
     private ConcurrentCollection<ConnHolder> concurrentCollection = new ConcurrentLinkedDequeCollection<>();
     private ViburObjectFactory connectionFactory = null;
     private TakenConnectionsFormatter takenConnectionsFormatter = null;
+    private PoolLatencies latencies = null;
+    private SqlStatistics sqlStatistics = null;
+    private PoolFlightRecorder flightRecorder = null;
+    /** The policy defining the delays between the acquire retry attempts; if not set, an instance of
+     * {@link AcquireRetryPolicy.Default} will be used. */
+    private AcquireRetryPolicy acquireRetryPolicy = null;
     private ThreadedPoolReducer poolReducer = null;
 
 
@@ -175,6 +312,10 @@ public abstract class ViburConfig {
     /** How many times the {@code poolReducer} will wake up during the given
      * {@link #reducerTimeIntervalInSeconds} period in order to sample various information from this pool. */
     private int reducerSamples = 15;
+    /** The mean time to wait for a connection which the {@link AdaptivePoolSizer} aims not to exceed; if exceeded
+     * during a {@link #reducerTimeIntervalInSeconds} period, the pool is grown. Has effect only if the
+     * {@link #poolReducerClass} is set to {@code AdaptivePoolSizer}. */
+    private long poolSizerTargetWaitInMs = 10;
 
 
     /** In rare circumstances, the application may need to obtain a non-pooled connection from the pool
@@ -211,30 +352,57 @@ public abstract class ViburConfig {
      *      maxTimeoutInMs = connectionTimeoutInMs + loginTimeoutInSeconds * 1000
      * </pre>
      * During this time the pool can make up to {@link #acquireRetryAttempts} that are separated with
-     * {@link #acquireRetryDelayInMs}, if there are errors while trying to lazily create the new connection. */
+     * delays defined by the {@link #acquireRetryPolicy}, if there are errors while trying to lazily create the new
+     * connection. All attempts are bounded by the same deadline. */
     private long connectionTimeoutInMs = 15_000;
     /** The login timeout that will be set to the call to {@code DriverManager.setLoginTimeout()}
      * or {@code getExternalDataSource().setLoginTimeout()} during the initialization process of the DataSource. */
     private int loginTimeoutInSeconds = 5;
     /** After attempting to lazily create a JDBC Connection as part of the {@code DataSource.getConnection()} flow
-     * and failing with an {@code SQLException}, wait for this long before attempting again. */
+     * and failing with an {@code SQLException}, wait for this long before attempting again. This is the base delay
+     * of the default {@link #acquireRetryPolicy}. */
     private long acquireRetryDelayInMs = 500;
+    /** If greater than the {@link #acquireRetryDelayInMs}, the delays between the consecutive acquire attempts
+     * will grow exponentially with decorrelated random jitter, up to this maximum; otherwise, a fixed delay of
+     * {@code acquireRetryDelayInMs} will be used. See {@link AcquireRetryPolicy.Default}. */
+    private long acquireRetryMaxDelayInMs = 0;
     /** After attempting to lazily create a JDBC Connection as part of the {@code DataSource.getConnection()} flow
      * and failing with an {@code SQLException}, retry maximum these many times before giving up. */
     private int acquireRetryAttempts = 3;
+    /** If greater than {@code 0}, enables a circuit breaker which opens after these many consecutive failures to
+     * create a new JDBC Connection. While the breaker is open, the calls to {@code getConnection()} that need a new
+     * connection fail immediately with SQLState {@link #SQLSTATE_CIRCUIT_OPEN_ERROR}, without further retries.
+     * See {@link ConnectionCircuitBreaker}. */
+    private int circuitBreakerThreshold = 0;
+    /** While the circuit breaker is open, a single background probe will try to create a connection every
+     * these many milliseconds; the breaker is closed on the first successful attempt. */
+    private long circuitBreakerProbeIntervalInMs = 1000;
 
 
     /** Defines the maximum statement cache size. {@code 0} disables it, max values is {@link #STATEMENT_CACHE_MAX_SIZE}.
      * If the statement's cache is not enabled, the client application may safely exclude the dependency
      * on ConcurrentLinkedCacheMap from its pom.xml file. */
     private int statementCacheMaxSize = 0;
+    /** Enables or disables the counting of the statement cache hits and misses, which are exposed via JMX and
+     * {@link PrometheusMetrics}. The counting is disabled by default, as it adds two contended atomic increments
+     * to each statement cache lookup. */
+    private boolean statementCacheEnableMetrics = false;
     private StatementCache statementCache = null;
 
 
     /** The list of critical SQL states as a comma separated values, see http://stackoverflow.com/a/14412929/1682918 .
-     * If an SQL exception that has any of these SQL states occurs then all connections in the pool will be
-     * considered invalid and will be closed. */
+     * If an SQL exception that has any of these SQL states occurs on a connection, the connection will be
+     * considered invalid and will be closed. If the SQL state is also listed in the {@link #serverWideSQLStates},
+     * all other connections in the pool will be revalidated, too. */
     private String criticalSQLStates = "08001,08006,08007,08S01,57P01,57P02,57P03,JZ0C0,JZ0C1";
+    /** The subset of the {@link #criticalSQLStates} which indicate a failure of the database server rather than
+     * of the connection on which they occurred, as a comma separated values. If an SQL exception that has any of
+     * these SQL states occurs, each other connection created before that will be validated using the
+     * {@link #testConnectionQuery} the next time it is taken from the pool, and will be closed if invalid,
+     * regardless of the {@link #connectionIdleLimitInSeconds}. The critical SQL states which are not listed here,
+     * such as the ones indicating a killed session or a broken network connection, invalidate only the connection
+     * on which they occurred. */
+    private String serverWideSQLStates = "08001,57P02,57P03";
 
 
     /** {@code Datasource.getConnection()} method calls taking longer than or equal to this time limit are logged at
@@ -279,6 +447,14 @@ public abstract class ViburConfig {
     /** Will apply only if {@link #logLargeResultSet} is enabled, and if set to {@code true},
      * will log at WARN level the current {@code ResultSet.close()} call stack trace. */
     private boolean logStackTraceForLargeResultSet = false;
+    /** If greater than {@code 0}, the pool will aggregate execution statistics per normalized SQL query, such as
+     * the number of executions, the total, maximum and percentile execution times, the number of retrieved
+     * ResultSet rows and the number of failed executions, for up to this many distinct queries. When the limit is
+     * reached, the least frequently executed queries are evicted. The queries with the highest total execution
+     * time are available via JMX. Each tracked query takes about 2.5 KB of memory for its execution times histogram,
+     * plus the memory for its normalized SQL text; for example, 1000 tracked queries take about 3 MB of memory.
+     * See {@link SqlStatistics}. */
+    private int sqlStatisticsMaxSize = 0;
 
     /** Enables or disables the collection of concrete SQL query parameters for {@link Hook.StatementExecution#on
      * StatementExecution hook} and {@link Hook.ResultSetRetrieval#on ResultSetRetrieval hook}.
@@ -303,6 +479,11 @@ public abstract class ViburConfig {
      * generating a full JVM thread dump, and thus it has to be used for troubleshooting purposes only, as it may
      * generate a VERY large log output. */
     private boolean logAllStackTracesOnTimeout = false;
+    /** Will apply only if {@link #poolFlightRecorderSize} is enabled, and if set to {@code true}, will log the
+     * recorded pool events when a call to {@link javax.sql.DataSource#getConnection() getConnection()} timeouts.
+     * This is much cheaper than the {@link #logTakenConnectionsOnTimeout} as no stack traces are formatted, and
+     * is done at most once per second. */
+    private boolean logFlightRecorderOnTimeout = true;
 
     /** If different than {@code null}, this regex will be matched against the string representation of each
      * stack trace line that needs to be logged according {@link #logStackTraceForLongConnection},
@@ -352,6 +533,8 @@ public abstract class ViburConfig {
      * thread-safe for modifications; the hooks must be registered only once at pool creation/setup time,
      * before the pool is started. */
     private final InvocationHooks invocationHooks = newInvocationHooks();
+    /** The cumulative counters of the pool events, see {@link PoolMetrics}. */
+    private final PoolMetrics metrics = new PoolMetrics();
 
 
     //////////////////////// Getters & Setters ////////////////////////
@@ -436,6 +619,38 @@ public abstract class ViburConfig {
         this.validateTimeoutInSeconds = validateTimeoutInSeconds;
     }
 
+    public long getConnectionValidationTrustWindowInMs() {
+        return connectionValidationTrustWindowInMs;
+    }
+
+    public void setConnectionValidationTrustWindowInMs(long connectionValidationTrustWindowInMs) {
+        this.connectionValidationTrustWindowInMs = connectionValidationTrustWindowInMs;
+    }
+
+    public int getConnectionMaxLifetimeInSeconds() {
+        return connectionMaxLifetimeInSeconds;
+    }
+
+    public void setConnectionMaxLifetimeInSeconds(int connectionMaxLifetimeInSeconds) {
+        this.connectionMaxLifetimeInSeconds = connectionMaxLifetimeInSeconds;
+    }
+
+    public int getConnectionKeepAliveIntervalInSeconds() {
+        return connectionKeepAliveIntervalInSeconds;
+    }
+
+    public void setConnectionKeepAliveIntervalInSeconds(int connectionKeepAliveIntervalInSeconds) {
+        this.connectionKeepAliveIntervalInSeconds = connectionKeepAliveIntervalInSeconds;
+    }
+
+    public int getConnectionKeepAliveThreads() {
+        return connectionKeepAliveThreads;
+    }
+
+    public void setConnectionKeepAliveThreads(int connectionKeepAliveThreads) {
+        this.connectionKeepAliveThreads = connectionKeepAliveThreads;
+    }
+
     public String getTestConnectionQuery() {
         return testConnectionQuery;
     }
@@ -484,6 +699,38 @@ public abstract class ViburConfig {
         this.poolMaxSize = poolMaxSize;
     }
 
+    public int getPoolInitialFillThreads() {
+        return poolInitialFillThreads;
+    }
+
+    public void setPoolInitialFillThreads(int poolInitialFillThreads) {
+        this.poolInitialFillThreads = poolInitialFillThreads;
+    }
+
+    public boolean isPoolWarmUpInBackground() {
+        return poolWarmUpInBackground;
+    }
+
+    public void setPoolWarmUpInBackground(boolean poolWarmUpInBackground) {
+        this.poolWarmUpInBackground = poolWarmUpInBackground;
+    }
+
+    public int getPoolCloserThreads() {
+        return poolCloserThreads;
+    }
+
+    public void setPoolCloserThreads(int poolCloserThreads) {
+        this.poolCloserThreads = poolCloserThreads;
+    }
+
+    public int getPoolCloserQueueSize() {
+        return poolCloserQueueSize;
+    }
+
+    public void setPoolCloserQueueSize(int poolCloserQueueSize) {
+        this.poolCloserQueueSize = poolCloserQueueSize;
+    }
+
     public boolean isPoolFair() {
         return poolFair;
     }
@@ -500,6 +747,94 @@ public abstract class ViburConfig {
         this.poolEnableConnectionTracking = poolEnableConnectionTracking;
     }
 
+    public int getPoolConnectionTrackingSampleRate() {
+        return poolConnectionTrackingSampleRate;
+    }
+
+    public void setPoolConnectionTrackingSampleRate(int poolConnectionTrackingSampleRate) {
+        this.poolConnectionTrackingSampleRate = poolConnectionTrackingSampleRate;
+    }
+
+    public boolean isPoolEnableLatencyHistograms() {
+        return poolEnableLatencyHistograms;
+    }
+
+    public void setPoolEnableLatencyHistograms(boolean poolEnableLatencyHistograms) {
+        this.poolEnableLatencyHistograms = poolEnableLatencyHistograms;
+    }
+
+    public boolean isPoolEnableJfrEvents() {
+        return poolEnableJfrEvents;
+    }
+
+    public void setPoolEnableJfrEvents(boolean poolEnableJfrEvents) {
+        this.poolEnableJfrEvents = poolEnableJfrEvents;
+    }
+
+    public int getPoolFlightRecorderSize() {
+        return poolFlightRecorderSize;
+    }
+
+    public void setPoolFlightRecorderSize(int poolFlightRecorderSize) {
+        this.poolFlightRecorderSize = poolFlightRecorderSize;
+    }
+
+    public boolean isPoolThreadAffinity() {
+        return poolThreadAffinity;
+    }
+
+    public void setPoolThreadAffinity(boolean poolThreadAffinity) {
+        this.poolThreadAffinity = poolThreadAffinity;
+    }
+
+    public int getPoolShards() {
+        return poolShards;
+    }
+
+    public void setPoolShards(int poolShards) {
+        this.poolShards = poolShards;
+    }
+
+    public boolean isPoolHandoff() {
+        return poolHandoff;
+    }
+
+    public void setPoolHandoff(boolean poolHandoff) {
+        this.poolHandoff = poolHandoff;
+    }
+
+    public long getPoolPriorityStarvationBoundInMs() {
+        return poolPriorityStarvationBoundInMs;
+    }
+
+    public void setPoolPriorityStarvationBoundInMs(long poolPriorityStarvationBoundInMs) {
+        this.poolPriorityStarvationBoundInMs = poolPriorityStarvationBoundInMs;
+    }
+
+    public int getPoolProvisioningHeadroom() {
+        return poolProvisioningHeadroom;
+    }
+
+    public void setPoolProvisioningHeadroom(int poolProvisioningHeadroom) {
+        this.poolProvisioningHeadroom = poolProvisioningHeadroom;
+    }
+
+    public int getPoolProvisioningThreads() {
+        return poolProvisioningThreads;
+    }
+
+    public void setPoolProvisioningThreads(int poolProvisioningThreads) {
+        this.poolProvisioningThreads = poolProvisioningThreads;
+    }
+
+    public String getPoolPartitions() {
+        return poolPartitions;
+    }
+
+    public void setPoolPartitions(String poolPartitions) {
+        this.poolPartitions = poolPartitions;
+    }
+
     public PoolService<ConnHolder> getPool() {
         return pool;
     }
@@ -524,6 +859,30 @@ public abstract class ViburConfig {
         this.connectionFactory = connectionFactory;
     }
 
+    public PoolLatencies getLatencies() {
+        return latencies;
+    }
+
+    protected void setLatencies(PoolLatencies latencies) {
+        this.latencies = latencies;
+    }
+
+    public SqlStatistics getSqlStatistics() {
+        return sqlStatistics;
+    }
+
+    protected void setSqlStatistics(SqlStatistics sqlStatistics) {
+        this.sqlStatistics = sqlStatistics;
+    }
+
+    public PoolFlightRecorder getFlightRecorder() {
+        return flightRecorder;
+    }
+
+    protected void setFlightRecorder(PoolFlightRecorder flightRecorder) {
+        this.flightRecorder = flightRecorder;
+    }
+
     public TakenConnectionsFormatter getTakenConnectionsFormatter() {
         return takenConnectionsFormatter;
     }
@@ -532,6 +891,14 @@ public abstract class ViburConfig {
         this.takenConnectionsFormatter = takenConnectionsFormatter;
     }
 
+    public AcquireRetryPolicy getAcquireRetryPolicy() {
+        return acquireRetryPolicy;
+    }
+
+    public void setAcquireRetryPolicy(AcquireRetryPolicy acquireRetryPolicy) {
+        this.acquireRetryPolicy = acquireRetryPolicy;
+    }
+
     protected ThreadedPoolReducer getPoolReducer() {
         return poolReducer;
     }
@@ -564,6 +931,14 @@ public abstract class ViburConfig {
         this.reducerSamples = reducerSamples;
     }
 
+    public long getPoolSizerTargetWaitInMs() {
+        return poolSizerTargetWaitInMs;
+    }
+
+    public void setPoolSizerTargetWaitInMs(long poolSizerTargetWaitInMs) {
+        this.poolSizerTargetWaitInMs = poolSizerTargetWaitInMs;
+    }
+
     public boolean isAllowConnectionAfterTermination() {
         return allowConnectionAfterTermination;
     }
@@ -637,6 +1012,14 @@ public abstract class ViburConfig {
         this.acquireRetryDelayInMs = acquireRetryDelayInMs;
     }
 
+    public long getAcquireRetryMaxDelayInMs() {
+        return acquireRetryMaxDelayInMs;
+    }
+
+    public void setAcquireRetryMaxDelayInMs(long acquireRetryMaxDelayInMs) {
+        this.acquireRetryMaxDelayInMs = acquireRetryMaxDelayInMs;
+    }
+
     public int getAcquireRetryAttempts() {
         return acquireRetryAttempts;
     }
@@ -645,6 +1028,22 @@ public abstract class ViburConfig {
         this.acquireRetryAttempts = acquireRetryAttempts;
     }
 
+    public int getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold;
+    }
+
+    public void setCircuitBreakerThreshold(int circuitBreakerThreshold) {
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+    }
+
+    public long getCircuitBreakerProbeIntervalInMs() {
+        return circuitBreakerProbeIntervalInMs;
+    }
+
+    public void setCircuitBreakerProbeIntervalInMs(long circuitBreakerProbeIntervalInMs) {
+        this.circuitBreakerProbeIntervalInMs = circuitBreakerProbeIntervalInMs;
+    }
+
     public int getStatementCacheMaxSize() {
         return statementCacheMaxSize;
     }
@@ -653,6 +1052,14 @@ public abstract class ViburConfig {
         this.statementCacheMaxSize = statementCacheMaxSize;
     }
 
+    public boolean isStatementCacheEnableMetrics() {
+        return statementCacheEnableMetrics;
+    }
+
+    public void setStatementCacheEnableMetrics(boolean statementCacheEnableMetrics) {
+        this.statementCacheEnableMetrics = statementCacheEnableMetrics;
+    }
+
     public StatementCache getStatementCache() {
         return statementCache;
     }
@@ -669,6 +1076,14 @@ public abstract class ViburConfig {
         this.criticalSQLStates = criticalSQLStates;
     }
 
+    public String getServerWideSQLStates() {
+        return serverWideSQLStates;
+    }
+
+    public void setServerWideSQLStates(String serverWideSQLStates) {
+        this.serverWideSQLStates = serverWideSQLStates;
+    }
+
     public long getLogConnectionLongerThanMs() {
         return logConnectionLongerThanMs;
     }
@@ -717,6 +1132,14 @@ public abstract class ViburConfig {
         this.logStackTraceForLargeResultSet = logStackTraceForLargeResultSet;
     }
 
+    public int getSqlStatisticsMaxSize() {
+        return sqlStatisticsMaxSize;
+    }
+
+    public void setSqlStatisticsMaxSize(int sqlStatisticsMaxSize) {
+        this.sqlStatisticsMaxSize = sqlStatisticsMaxSize;
+    }
+
     public boolean isIncludeQueryParameters() {
         return includeQueryParameters;
     }
@@ -741,6 +1164,14 @@ public abstract class ViburConfig {
         this.logAllStackTracesOnTimeout = logAllStackTracesOnTimeout;
     }
 
+    public boolean isLogFlightRecorderOnTimeout() {
+        return logFlightRecorderOnTimeout;
+    }
+
+    public void setLogFlightRecorderOnTimeout(boolean logFlightRecorderOnTimeout) {
+        this.logFlightRecorderOnTimeout = logFlightRecorderOnTimeout;
+    }
+
     public Pattern getLogLineRegex() {
         return logLineRegex;
     }
@@ -813,6 +1244,10 @@ public abstract class ViburConfig {
         return invocationHooks;
     }
 
+    public PoolMetrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public String toString() {
         return super.toString() +
@@ -22,6 +22,7 @@ import org.vibur.dbcp.pool.*;
 import org.vibur.dbcp.stcache.ClhmStatementCache;
 import org.vibur.objectpool.ConcurrentPool;
 import org.vibur.objectpool.PoolService;
+import org.vibur.objectpool.util.ConcurrentCollection;
 import org.vibur.objectpool.util.ThreadedPoolReducer;
 
 import java.io.IOException;
@@ -35,6 +36,7 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static java.lang.Boolean.parseBoolean;
@@ -72,9 +74,15 @@ public class ViburDBCPDataSource extends ViburConfig implements ViburDataSource
 
     private static final Logger logger = LoggerFactory.getLogger(ViburDBCPDataSource.class);
 
+    private static final String JFR_EVENTS_CLASS = "org.vibur.dbcp.jfr.JfrEvents";
+
     private final AtomicReference<State> state = new AtomicReference<>(NEW);
 
     private PoolOperations poolOperations;
+    private ConnectionProvisioner connectionProvisioner = null;
+    private ConnectionCircuitBreaker circuitBreaker = null;
+    private ConnectionLifetimeSweeper lifetimeSweeper = null;
+    private ConnectionKeepAlive keepAlive = null;
 
     /**
      * Default constructor for programmatic configuration via the {@code ViburConfig}
@@ -249,24 +257,98 @@ public class ViburDBCPDataSource extends ViburConfig implements ViburDataSource
         }
 
         initDefaultHooks();
+        if (isPoolEnableLatencyHistograms() && getLatencies() == null) {
+            setLatencies(new PoolLatencies(this));
+        }
+        if (getSqlStatisticsMaxSize() > 0 && getSqlStatistics() == null) {
+            setSqlStatistics(new SqlStatistics(this));
+        }
+        if (getPoolFlightRecorderSize() > 0 && getFlightRecorder() == null) {
+            setFlightRecorder(new PoolFlightRecorder(this));
+        }
+        if (isPoolEnableJfrEvents()) {
+            initJfrEvents();
+        }
+        if (getAcquireRetryPolicy() == null) {
+            setAcquireRetryPolicy(new AcquireRetryPolicy.Default(this));
+        }
 
         ViburObjectFactory connectionFactory = getConnectionFactory();
         if (connectionFactory == null) {
             setConnectionFactory(connectionFactory = new ConnectionFactory(this));
         }
+        if (getPool() == null && getCircuitBreakerThreshold() > 0) {
+            connectionFactory = circuitBreaker = new ConnectionCircuitBreaker(this, connectionFactory);
+        }
+        if (getPool() == null && (getPoolProvisioningHeadroom() > 0 || getPoolInitialFillThreads() > 1
+                || isPoolWarmUpInBackground() || isAdaptivePoolSizing() || getConnectionMaxLifetimeInSeconds() > 0
+                || getConnectionKeepAliveIntervalInSeconds() > 0)) {
+            connectionProvisioner = new ConnectionProvisioner(this, connectionFactory);
+        }
+
+        boolean warmUpInBackground = connectionProvisioner != null && isPoolWarmUpInBackground();
+        if (warmUpInBackground) {
+            connectionProvisioner.provisionFirst(); // the pool is started with this validated connection only
+        }
+
+        startPool(connectionFactory, warmUpInBackground);
+
+        if (warmUpInBackground) { // the rest of the initial connections are created as spare connections
+            for (int i = 1; i < getPoolInitialSize(); i++) {
+                connectionProvisioner.provisionSpare();
+            }
+        }
+    }
+
+    private void startPool(ViburObjectFactory connectionFactory, boolean warmUpInBackground) throws ViburDBCPException {
         PoolService<ConnHolder> pool = getPool();
+        InspectableCollection inspectableCollection = null;
         if (pool == null) {
             if (isPoolEnableConnectionTracking() && getTakenConnectionsFormatter() == null) {
                 setTakenConnectionsFormatter(new TakenConnectionsFormatter.Default(this));
             }
 
-            pool = new ConcurrentPool<>(getConcurrentCollection(), connectionFactory,
-                    getPoolInitialSize(), getPoolMaxSize(), isPoolFair(),
+            ConcurrentCollection<ConnHolder> concurrentCollection = getPoolShards() > 1 ?
+                    new ShardedConcurrentCollection<ConnHolder>(getPoolShards()) : getConcurrentCollection();
+            if (isPoolThreadAffinity()) {
+                concurrentCollection = new ThreadAffineCollection(concurrentCollection);
+            }
+            if (getConnectionMaxLifetimeInSeconds() > 0 || getConnectionKeepAliveIntervalInSeconds() > 0) {
+                concurrentCollection = inspectableCollection = new InspectableCollection(this, concurrentCollection);
+            }
+            int initialSize = getPoolInitialSize();
+            if (connectionProvisioner != null) {
+                connectionFactory = connectionProvisioner;
+                if (warmUpInBackground) {
+                    initialSize = Math.min(1, initialSize);
+                }
+                else if (getPoolInitialFillThreads() > 1) {
+                    connectionProvisioner.provisionInitial(getPoolInitialSize() - connectionProvisioner.spares(),
+                            getPoolInitialFillThreads());
+                }
+            }
+            pool = new ConcurrentPool<>(concurrentCollection, connectionFactory,
+                    initialSize, getPoolMaxSize(), isPoolFair(),
                     isPoolEnableConnectionTracking() ? new ViburListener(this) : null);
             setPool(pool);
+            if (connectionProvisioner != null) {
+                connectionProvisioner.start(pool, inspectableCollection);
+            }
         }
         poolOperations = new PoolOperations(this, connectionFactory, pool);
 
+        if (inspectableCollection != null) {
+            inspectableCollection.start(pool, poolOperations);
+            if (getConnectionMaxLifetimeInSeconds() > 0) {
+                lifetimeSweeper = new ConnectionLifetimeSweeper(this, pool, inspectableCollection, connectionProvisioner);
+                lifetimeSweeper.start();
+            }
+            if (getConnectionKeepAliveIntervalInSeconds() > 0) {
+                keepAlive = new ConnectionKeepAlive(this, pool, inspectableCollection, connectionProvisioner);
+                keepAlive.start();
+            }
+        }
+
         initPoolReducer();
         initStatementCache();
 
@@ -285,6 +367,24 @@ public class ViburDBCPDataSource extends ViburConfig implements ViburDataSource
         if (getPool() != null) {
             getPool().terminate();
         }
+        if (poolOperations != null) {
+            poolOperations.terminate();
+        }
+        if (connectionProvisioner != null) {
+            connectionProvisioner.terminate();
+        }
+        if (circuitBreaker != null) {
+            circuitBreaker.terminate();
+        }
+        if (lifetimeSweeper != null) {
+            lifetimeSweeper.terminate();
+        }
+        if (keepAlive != null) {
+            keepAlive.terminate();
+        }
+        if (getConnectionFactory() instanceof ConnectionFactory) { // waits for the closing of the destroyed connections
+            ((ConnectionFactory) getConnectionFactory()).terminate();
+        }
         TakenConnection[] takenConnections = getTakenConnections();
 
         if (getPoolReducer() != null) {
@@ -319,16 +419,35 @@ public class ViburDBCPDataSource extends ViburConfig implements ViburDataSource
     private void validateConfig() {
         forbidIllegalArgument(getExternalDataSource() == null && getJdbcUrl() == null);
         forbidIllegalArgument(getAcquireRetryDelayInMs() < 0);
+        forbidIllegalArgument(getAcquireRetryMaxDelayInMs() < 0);
         forbidIllegalArgument(getAcquireRetryAttempts() < 0);
+        forbidIllegalArgument(getCircuitBreakerThreshold() < 0);
+        forbidIllegalArgument(getCircuitBreakerThreshold() > 0 && getCircuitBreakerProbeIntervalInMs() <= 0);
         forbidIllegalArgument(getConnectionTimeoutInMs() < 0);
+        forbidIllegalArgument(getPoolShards() < 0);
+        forbidIllegalArgument(getPoolConnectionTrackingSampleRate() < 1);
+        forbidIllegalArgument(getPoolPriorityStarvationBoundInMs() < 0);
+        forbidIllegalArgument(getPoolProvisioningHeadroom() < 0);
+        forbidIllegalArgument(getPoolProvisioningThreads() <= 0);
+        forbidIllegalArgument(getPoolInitialFillThreads() <= 0);
+        forbidIllegalArgument(getPoolCloserThreads() < 0);
+        forbidIllegalArgument(getPoolCloserQueueSize() <= 0);
         forbidIllegalArgument(getLoginTimeoutInSeconds() < 0);
         forbidIllegalArgument(getStatementCacheMaxSize() < 0 && getStatementCache() == null);
+        forbidIllegalArgument(getSqlStatisticsMaxSize() < 0);
+        forbidIllegalArgument(getPoolFlightRecorderSize() < 0);
         forbidIllegalArgument(getReducerTimeIntervalInSeconds() > 0 && getPoolReducerClass() == null && getPoolReducer() == null);
         forbidIllegalArgument(getReducerSamples() <= 0);
+        forbidIllegalArgument(getPoolSizerTargetWaitInMs() < 0);
         forbidIllegalArgument(getConnectionIdleLimitInSeconds() >= 0 && getTestConnectionQuery() == null);
         forbidIllegalArgument(getValidateTimeoutInSeconds() < 0);
+        forbidIllegalArgument(getConnectionValidationTrustWindowInMs() < 0);
+        forbidIllegalArgument(getConnectionMaxLifetimeInSeconds() < 0);
+        forbidIllegalArgument(getConnectionKeepAliveIntervalInSeconds() < 0);
+        forbidIllegalArgument(getConnectionKeepAliveThreads() < 1);
         forbidIllegalArgument(isUseNetworkTimeout() && getNetworkTimeoutExecutor() == null);
         requireNonNull(getCriticalSQLStates());
+        requireNonNull(getServerWideSQLStates());
 
         if (getPassword() == null) {
             logger.warn("JDBC password is not specified.");
@@ -405,6 +524,14 @@ public class ViburDBCPDataSource extends ViburConfig implements ViburDataSource
         getInvocationHooks().addOnResultSetRetrieval(new DefaultHook.ResultSetSize(this));
     }
 
+    private void initJfrEvents() {
+        try { // loaded via reflection as the JFR events are compiled and can be loaded only on JDK 11+
+            Class.forName(JFR_EVENTS_CLASS).getConstructor(ViburConfig.class).newInstance(this);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            logger.warn("Couldn't enable the JFR events for pool {}", getName(), e);
+        }
+    }
+
     private void initPoolReducer() throws ViburDBCPException {
         ThreadedPoolReducer poolReducer = getPoolReducer();
         if (getReducerTimeIntervalInSeconds() > 0 && poolReducer == null) {
@@ -412,6 +539,9 @@ public class ViburDBCPDataSource extends ViburConfig implements ViburDataSource
                 poolReducer = (ThreadedPoolReducer) Class.forName(getPoolReducerClass())
                         .getConstructor(ViburConfig.class).newInstance(this);
                 setPoolReducer(poolReducer);
+                if (poolReducer instanceof AdaptivePoolSizer) {
+                    ((AdaptivePoolSizer) poolReducer).setProvisioner(connectionProvisioner);
+                }
                 poolReducer.start();
             } catch (ReflectiveOperationException | ClassCastException e) {
                 throw new ViburDBCPException(e);
@@ -419,19 +549,45 @@ public class ViburDBCPDataSource extends ViburConfig implements ViburDataSource
         }
     }
 
+    private boolean isAdaptivePoolSizing() {
+        if (getPoolReducer() != null) {
+            return getPoolReducer() instanceof AdaptivePoolSizer;
+        }
+        try {
+            return getReducerTimeIntervalInSeconds() > 0
+                    && AdaptivePoolSizer.class.isAssignableFrom(Class.forName(getPoolReducerClass()));
+        } catch (ClassNotFoundException e) {
+            return false; // will be reported by initPoolReducer()
+        }
+    }
+
     private void initStatementCache() {
         int statementCacheMaxSize = getStatementCacheMaxSize();
         if (statementCacheMaxSize > 0 && getStatementCache() == null) {
-            setStatementCache(new ClhmStatementCache(statementCacheMaxSize));
+            setStatementCache(new ClhmStatementCache(statementCacheMaxSize, isStatementCacheEnableMetrics()));
         }
     }
 
     @Override
     public Connection getConnection() throws SQLException {
+        return getConnection(NORM_PRIORITY);
+    }
+
+    @Override
+    public Connection getConnection(int priority) throws SQLException {
+        return getConnection(priority, null);
+    }
+
+    @Override
+    public Connection getConnection(String partition) throws SQLException {
+        return getConnection(NORM_PRIORITY, requireNonNull(partition));
+    }
+
+    private Connection getConnection(int priority, String partition) throws SQLException {
         State state = validatePoolState(isAllowConnectionAfterTermination());
         if (state == WORKING) {
             try {
-                return poolOperations.getProxyConnection(getConnectionTimeoutInMs());
+                return poolOperations.getProxyConnection(getConnectionTimeoutInMs(), priority, partition);
             } catch (SQLException e) {
                 if (!SQLSTATE_POOL_CLOSED_ERROR.equals(e.getSQLState()) || !isAllowConnectionAfterTermination()) {
                     throw e;
@@ -457,6 +613,32 @@ public class ViburDBCPDataSource extends ViburConfig implements ViburDataSource
         return getNonPooledConnection(username, password);
     }
 
+    @Override
+    public Future<Connection> getConnectionAsync(ConnectionCallback callback) throws SQLException {
+        validatePoolState(false);
+        if (poolOperations.getPartitions() != null) {
+            throw new SQLFeatureNotSupportedException(format(
+                    "Pool %s, getConnectionAsync() is not supported when poolPartitions are configured", getName()));
+        }
+        return poolOperations.getProxyConnectionAsync(callback);
+    }
+
+    PoolOperations getPoolOperations() {
+        return poolOperations;
+    }
+
+    ConnectionProvisioner getConnectionProvisioner() {
+        return connectionProvisioner;
+    }
+
+    ConnectionCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    ConnectionKeepAlive getKeepAlive() {
+        return keepAlive;
+    }
+
     @Override
     public Connection getNonPooledConnection() throws SQLException {
         return getNonPooledConnection(getUsername(), getPassword());
@@ -22,6 +22,7 @@ import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLTimeoutException;
+import java.util.concurrent.Future;
 
 /**
  * Defines the {@link ViburDBCPDataSource} lifecycle operations and states. Also, defines specific to Vibur
@@ -32,6 +33,9 @@ import java.sql.SQLTimeoutException;
  */
 public interface ViburDataSource extends DataSource, AutoCloseable {
 
+    /** The priority with which {@link #getConnection()} and {@link #getConnectionAsync} obtain connections. */
+    int NORM_PRIORITY = 0;
+
     /**
      * The possible states in which the DataSource can be. The transition of the states is NEW-&gt;WORKING-&gt;TERMINATED.
      */
@@ -56,6 +60,30 @@ public interface ViburDataSource extends DataSource, AutoCloseable {
         }
     }
 
+    /**
+     * A callback through which the result of {@link #getConnectionAsync} is delivered. The callback methods are
+     * invoked in the context of the thread that completes the request, which can be the thread that restores
+     * a connection to the pool, the pool's timeout timer thread, or the thread that has called
+     * {@code getConnectionAsync}. Their execution should take as short time as possible and must not block.
+     */
+    interface ConnectionCallback {
+        /**
+         * Invoked when a pooled connection is obtained for the request.
+         *
+         * @param connection the obtained proxy Connection; the application is responsible for closing it
+         */
+        void onConnection(Connection connection);
+
+        /**
+         * Invoked when the request fails, for example, when the
+         * {@link ViburConfig#connectionTimeoutInMs connectionTimeoutInMs} has been exceeded, when the pool is
+         * terminated, or when the creation of a new connection fails. Not invoked if the request is cancelled.
+         *
+         * @param exception the SQLException describing the failure
+         */
+        void onFailure(SQLException exception);
+    }
+
     /**
      * Starts this DataSource. In order to be used, the implementing DataSource has to be
      * first created via calling one of the available constructors, configured, and then started
@@ -108,6 +136,60 @@ public interface ViburDataSource extends DataSource, AutoCloseable {
     @Override
     Connection getConnection(String username, String password) throws SQLException;
 
+    /**
+     * Obtains a pooled JDBC Connection on behalf of a caller with the given priority. When the pool is exhausted,
+     * the callers with higher priority, for example, user-facing requests, are served ahead of the callers with
+     * lower priority, for example, batch or reporting jobs, and the callers with the same priority are served in
+     * FIFO order. A caller which has waited for longer than the
+     * {@link ViburConfig#poolPriorityStarvationBoundInMs poolPriorityStarvationBoundInMs} is served ahead of all
+     * callers that have arrived after it, regardless of their priority.
+     *
+     * <p>The priority takes effect only when {@link ViburConfig#poolHandoff poolHandoff} is enabled, i.e., when
+     * all waiting callers are queued by Vibur itself; otherwise, this method is equivalent to
+     * {@link #getConnection()}.
+     *
+     * @param priority the caller priority, a higher value means a higher priority; {@link #NORM_PRIORITY} is the
+     *                 priority of {@link #getConnection()}
+     * @throws SQLTimeoutException when the timeout value specified by the
+     * {@link ViburConfig#connectionTimeoutInMs connectionTimeoutInMs} has been exceeded
+     */
+    Connection getConnection(int priority) throws SQLException;
+
+    /**
+     * Obtains a pooled JDBC Connection from the given partition, see
+     * {@link ViburConfig#poolPartitions poolPartitions}. If the partition has reached its maximum, or if the
+     * partition is above its guaranteed minimum and the rest of the pool capacity is reserved by the other
+     * partitions, this method waits until a connection taken from the same or another partition is restored.
+     *
+     * @param partition the partition name
+     * @throws SQLTimeoutException when the timeout value specified by the
+     * {@link ViburConfig#connectionTimeoutInMs connectionTimeoutInMs} has been exceeded
+     * @throws IllegalArgumentException if there is no partition with the given name
+     */
+    Connection getConnection(String partition) throws SQLException;
+
+    /**
+     * Asynchronously obtains a pooled JDBC Connection. If there is an available connection in the pool, the
+     * request is completed immediately; otherwise, the request is queued and completed when a connection is
+     * restored to the pool, or is failed when the {@link ViburConfig#connectionTimeoutInMs connectionTimeoutInMs}
+     * is exceeded. The calling thread never waits for a connection to become available in the pool.
+     *
+     * <p>Note that if the pool needs to grow, the new connection is created in the context of the thread that
+     * completes the request, and that no {@link ViburConfig#acquireRetryAttempts acquireRetryAttempts} are made if
+     * the creation fails. The requests are completed in FIFO order amongst themselves; however, they are not
+     * ordered with respect to the threads waiting in {@link #getConnection()}, unless
+     * {@link ViburConfig#poolHandoff poolHandoff} is enabled.
+     *
+     * @param callback an optional callback through which the result will be delivered; can be {@code null}
+     * @return a {@code Future} representing the pending request; its {@code get} methods throw an
+     *      {@code ExecutionException} wrapping the {@code SQLException} if the request fails, and
+     *      cancelling it before it is completed withdraws the request from the pool
+     * @throws SQLException if this DataSource is not in a working state
+     * @throws java.sql.SQLFeatureNotSupportedException if {@link ViburConfig#poolPartitions poolPartitions} are
+     *      configured, as the requests are not accounted to any partition
+     */
+    Future<Connection> getConnectionAsync(ConnectionCallback callback) throws SQLException;
+
     ///////////////////////////////////////////////////////////////////////////////////////////////
 
     /**
@@ -18,6 +18,17 @@ package org.vibur.dbcp;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.vibur.dbcp.pool.AdaptivePoolSizer;
+import org.vibur.dbcp.pool.ConnectionCircuitBreaker;
+import org.vibur.dbcp.pool.ConnectionKeepAlive;
+import org.vibur.dbcp.pool.ConnectionPartitions;
+import org.vibur.dbcp.pool.PoolFlightRecorder;
+import org.vibur.dbcp.pool.PoolLatencies;
+import org.vibur.dbcp.pool.PoolOperations;
+import org.vibur.dbcp.pool.SqlStatistics;
+import org.vibur.dbcp.stcache.ClhmStatementCache;
+import org.vibur.dbcp.stcache.StatementCache;
+import org.vibur.objectpool.util.ThreadedPoolReducer;
 
 import javax.management.JMException;
 import javax.management.MBeanServer;
@@ -97,6 +108,43 @@ public final class ViburMonitoring implements ViburMonitoringMBean {
         dataSource.setValidateTimeoutInSeconds(validateTimeoutInSeconds);
     }
 
+    @Override
+    public long getConnectionValidationTrustWindowInMs() {
+        return dataSource.getConnectionValidationTrustWindowInMs();
+    }
+
+    @Override
+    public void setConnectionValidationTrustWindowInMs(long connectionValidationTrustWindowInMs) {
+        dataSource.setConnectionValidationTrustWindowInMs(connectionValidationTrustWindowInMs);
+    }
+
+    @Override
+    public int getConnectionMaxLifetimeInSeconds() {
+        return dataSource.getConnectionMaxLifetimeInSeconds();
+    }
+
+    @Override
+    public int getConnectionKeepAliveIntervalInSeconds() {
+        return dataSource.getConnectionKeepAliveIntervalInSeconds();
+    }
+
+    @Override
+    public int getConnectionKeepAliveThreads() {
+        return dataSource.getConnectionKeepAliveThreads();
+    }
+
+    @Override
+    public long getKeepAliveValidations() {
+        ConnectionKeepAlive keepAlive = dataSource.getKeepAlive();
+        return keepAlive != null ? keepAlive.getValidations() : 0;
+    }
+
+    @Override
+    public long getKeepAliveEvictions() {
+        ConnectionKeepAlive keepAlive = dataSource.getKeepAlive();
+        return keepAlive != null ? keepAlive.getEvictions() : 0;
+    }
+
     @Override
     public String getTestConnectionQuery() {
         return dataSource.getTestConnectionQuery();
@@ -132,6 +180,26 @@ public final class ViburMonitoring implements ViburMonitoringMBean {
         return dataSource.getPoolMaxSize();
     }
 
+    @Override
+    public int getPoolInitialFillThreads() {
+        return dataSource.getPoolInitialFillThreads();
+    }
+
+    @Override
+    public boolean isPoolWarmUpInBackground() {
+        return dataSource.isPoolWarmUpInBackground();
+    }
+
+    @Override
+    public int getPoolCloserThreads() {
+        return dataSource.getPoolCloserThreads();
+    }
+
+    @Override
+    public int getPoolCloserQueueSize() {
+        return dataSource.getPoolCloserQueueSize();
+    }
+
     @Override
     public int getPoolTaken() {
         return dataSource.getPool().taken();
@@ -152,6 +220,73 @@ public final class ViburMonitoring implements ViburMonitoringMBean {
         return dataSource.isPoolEnableConnectionTracking();
     }
 
+    @Override
+    public int getPoolConnectionTrackingSampleRate() {
+        return dataSource.getPoolConnectionTrackingSampleRate();
+    }
+
+    @Override
+    public boolean isPoolEnableLatencyHistograms() {
+        return dataSource.isPoolEnableLatencyHistograms();
+    }
+
+    @Override
+    public boolean isPoolEnableJfrEvents() {
+        return dataSource.isPoolEnableJfrEvents();
+    }
+
+    @Override
+    public int getPoolFlightRecorderSize() {
+        return dataSource.getPoolFlightRecorderSize();
+    }
+
+    @Override
+    public boolean isPoolThreadAffinity() {
+        return dataSource.isPoolThreadAffinity();
+    }
+
+    @Override
+    public int getPoolShards() {
+        return dataSource.getPoolShards();
+    }
+
+    @Override
+    public boolean isPoolHandoff() {
+        return dataSource.isPoolHandoff();
+    }
+
+    @Override
+    public long getPoolPriorityStarvationBoundInMs() {
+        return dataSource.getPoolPriorityStarvationBoundInMs();
+    }
+
+    @Override
+    public void setPoolPriorityStarvationBoundInMs(long poolPriorityStarvationBoundInMs) {
+        dataSource.setPoolPriorityStarvationBoundInMs(poolPriorityStarvationBoundInMs);
+    }
+
+    @Override
+    public int getPoolProvisioningHeadroom() {
+        return dataSource.getPoolProvisioningHeadroom();
+    }
+
+    @Override
+    public int getPoolProvisioningThreads() {
+        return dataSource.getPoolProvisioningThreads();
+    }
+
+    @Override
+    public String getPoolPartitions() {
+        return dataSource.getPoolPartitions();
+    }
+
+    @Override
+    public String getPoolPartitionsUsage() {
+        PoolOperations poolOperations = dataSource.getPoolOperations();
+        ConnectionPartitions partitions = poolOperations != null ? poolOperations.getPartitions() : null;
+        return partitions != null ? partitions.usage() : null;
+    }
+
     @Override
     public int getReducerTimeIntervalInSeconds() {
         return dataSource.getReducerTimeIntervalInSeconds();
@@ -162,6 +297,28 @@ public final class ViburMonitoring implements ViburMonitoringMBean {
         return dataSource.getReducerSamples();
     }
 
+    @Override
+    public long getPoolSizerTargetWaitInMs() {
+        return dataSource.getPoolSizerTargetWaitInMs();
+    }
+
+    @Override
+    public void setPoolSizerTargetWaitInMs(long poolSizerTargetWaitInMs) {
+        dataSource.setPoolSizerTargetWaitInMs(poolSizerTargetWaitInMs);
+    }
+
+    @Override
+    public int getPoolSizerTarget() {
+        ThreadedPoolReducer poolReducer = dataSource.getPoolReducer();
+        return poolReducer instanceof AdaptivePoolSizer ? ((AdaptivePoolSizer) poolReducer).getTarget() : -1;
+    }
+
+    @Override
+    public String getPoolSizerLastDecision() {
+        ThreadedPoolReducer poolReducer = dataSource.getPoolReducer();
+        return poolReducer instanceof AdaptivePoolSizer ? ((AdaptivePoolSizer) poolReducer).getLastDecision() : null;
+    }
+
     @Override
     public boolean isAllowConnectionAfterTermination() {
         return dataSource.isAllowConnectionAfterTermination();
@@ -202,6 +359,16 @@ public final class ViburMonitoring implements ViburMonitoringMBean {
         dataSource.setAcquireRetryDelayInMs(acquireRetryDelayInMs);
     }
 
+    @Override
+    public long getAcquireRetryMaxDelayInMs() {
+        return dataSource.getAcquireRetryMaxDelayInMs();
+    }
+
+    @Override
+    public void setAcquireRetryMaxDelayInMs(long acquireRetryMaxDelayInMs) {
+        dataSource.setAcquireRetryMaxDelayInMs(acquireRetryMaxDelayInMs);
+    }
+
     @Override
     public int getAcquireRetryAttempts() {
         return dataSource.getAcquireRetryAttempts();
@@ -212,6 +379,216 @@ public final class ViburMonitoring implements ViburMonitoringMBean {
         dataSource.setAcquireRetryAttempts(acquireRetryAttempts);
     }
 
+    @Override
+    public int getCircuitBreakerThreshold() {
+        return dataSource.getCircuitBreakerThreshold();
+    }
+
+    @Override
+    public long getCircuitBreakerProbeIntervalInMs() {
+        return dataSource.getCircuitBreakerProbeIntervalInMs();
+    }
+
+    @Override
+    public void setCircuitBreakerProbeIntervalInMs(long circuitBreakerProbeIntervalInMs) {
+        dataSource.setCircuitBreakerProbeIntervalInMs(circuitBreakerProbeIntervalInMs);
+    }
+
+    @Override
+    public String getCircuitBreakerState() {
+        ConnectionCircuitBreaker circuitBreaker = dataSource.getCircuitBreaker();
+        if (circuitBreaker == null) {
+            return "DISABLED";
+        }
+        return circuitBreaker.isOpen() ? "OPEN" : "CLOSED";
+    }
+
+    @Override
+    public int getCircuitBreakerConsecutiveFailures() {
+        ConnectionCircuitBreaker circuitBreaker = dataSource.getCircuitBreaker();
+        return circuitBreaker != null ? circuitBreaker.getConsecutiveFailures() : 0;
+    }
+
+    @Override
+    public long getCircuitBreakerFailures() {
+        ConnectionCircuitBreaker circuitBreaker = dataSource.getCircuitBreaker();
+        return circuitBreaker != null ? circuitBreaker.getFailures() : 0;
+    }
+
+    @Override
+    public long getCircuitBreakerTrips() {
+        ConnectionCircuitBreaker circuitBreaker = dataSource.getCircuitBreaker();
+        return circuitBreaker != null ? circuitBreaker.getTrips() : 0;
+    }
+
+    @Override
+    public long getCircuitBreakerRejections() {
+        ConnectionCircuitBreaker circuitBreaker = dataSource.getCircuitBreaker();
+        return circuitBreaker != null ? circuitBreaker.getRejections() : 0;
+    }
+
+    @Override
+    public int getPoolWaiting() {
+        PoolOperations poolOperations = dataSource.getPoolOperations();
+        return poolOperations != null ? poolOperations.getWaiting() : 0;
+    }
+
+    @Override
+    public long getConnectionTimeouts() {
+        return dataSource.getMetrics().getTimeouts();
+    }
+
+    @Override
+    public long getConnectionCreations() {
+        return dataSource.getMetrics().getCreations();
+    }
+
+    @Override
+    public long getConnectionCreationFailures() {
+        return dataSource.getMetrics().getCreationFailures();
+    }
+
+    @Override
+    public long getConnectionDestructions() {
+        return dataSource.getMetrics().getDestructions();
+    }
+
+    @Override
+    public long getConnectionValidations() {
+        return dataSource.getMetrics().getValidations();
+    }
+
+    @Override
+    public long getConnectionValidationFailures() {
+        return dataSource.getMetrics().getValidationFailures();
+    }
+
+    @Override
+    public long getCriticalSQLStates() {
+        return dataSource.getMetrics().getCriticalSQLStates();
+    }
+
+    @Override
+    public long getServerWideSQLStates() {
+        return dataSource.getMetrics().getServerWideSQLStates();
+    }
+
+    @Override
+    public long getStatementCacheHits() {
+        StatementCache statementCache = dataSource.getStatementCache();
+        return statementCache instanceof ClhmStatementCache ? ((ClhmStatementCache) statementCache).getHits() : 0;
+    }
+
+    @Override
+    public long getStatementCacheMisses() {
+        StatementCache statementCache = dataSource.getStatementCache();
+        return statementCache instanceof ClhmStatementCache ? ((ClhmStatementCache) statementCache).getMisses() : 0;
+    }
+
+    @Override
+    public double getAcquireTimeP50InMs() {
+        PoolLatencies latencies = dataSource.getLatencies();
+        return latencies != null ? latencies.getAcquire().getValueAtPercentile(50) * 0.000_001 : 0;
+    }
+
+    @Override
+    public double getAcquireTimeP99InMs() {
+        PoolLatencies latencies = dataSource.getLatencies();
+        return latencies != null ? latencies.getAcquire().getValueAtPercentile(99) * 0.000_001 : 0;
+    }
+
+    @Override
+    public double getAcquireTimeP999InMs() {
+        PoolLatencies latencies = dataSource.getLatencies();
+        return latencies != null ? latencies.getAcquire().getValueAtPercentile(99.9) * 0.000_001 : 0;
+    }
+
+    @Override
+    public double getAcquireTimeMaxInMs() {
+        PoolLatencies latencies = dataSource.getLatencies();
+        return latencies != null ? latencies.getAcquire().getMax() * 0.000_001 : 0;
+    }
+
+    @Override
+    public double getHoldTimeP50InMs() {
+        PoolLatencies latencies = dataSource.getLatencies();
+        return latencies != null ? latencies.getHold().getValueAtPercentile(50) * 0.000_001 : 0;
+    }
+
+    @Override
+    public double getHoldTimeP99InMs() {
+        PoolLatencies latencies = dataSource.getLatencies();
+        return latencies != null ? latencies.getHold().getValueAtPercentile(99) * 0.000_001 : 0;
+    }
+
+    @Override
+    public double getHoldTimeP999InMs() {
+        PoolLatencies latencies = dataSource.getLatencies();
+        return latencies != null ? latencies.getHold().getValueAtPercentile(99.9) * 0.000_001 : 0;
+    }
+
+    @Override
+    public double getHoldTimeMaxInMs() {
+        PoolLatencies latencies = dataSource.getLatencies();
+        return latencies != null ? latencies.getHold().getMax() * 0.000_001 : 0;
+    }
+
+    @Override
+    public double getCreateTimeP50InMs() {
+        PoolLatencies latencies = dataSource.getLatencies();
+        return latencies != null ? latencies.getCreate().getValueAtPercentile(50) * 0.000_001 : 0;
+    }
+
+    @Override
+    public double getCreateTimeP99InMs() {
+        PoolLatencies latencies = dataSource.getLatencies();
+        return latencies != null ? latencies.getCreate().getValueAtPercentile(99) * 0.000_001 : 0;
+    }
+
+    @Override
+    public double getCreateTimeP999InMs() {
+        PoolLatencies latencies = dataSource.getLatencies();
+        return latencies != null ? latencies.getCreate().getValueAtPercentile(99.9) * 0.000_001 : 0;
+    }
+
+    @Override
+    public double getCreateTimeMaxInMs() {
+        PoolLatencies latencies = dataSource.getLatencies();
+        return latencies != null ? latencies.getCreate().getMax() * 0.000_001 : 0;
+    }
+
+    @Override
+    public double getValidateTimeP50InMs() {
+        PoolLatencies latencies = dataSource.getLatencies();
+        return latencies != null ? latencies.getValidate().getValueAtPercentile(50) * 0.000_001 : 0;
+    }
+
+    @Override
+    public double getValidateTimeP99InMs() {
+        PoolLatencies latencies = dataSource.getLatencies();
+        return latencies != null ? latencies.getValidate().getValueAtPercentile(99) * 0.000_001 : 0;
+    }
+
+    @Override
+    public double getValidateTimeP999InMs() {
+        PoolLatencies latencies = dataSource.getLatencies();
+        return latencies != null ? latencies.getValidate().getValueAtPercentile(99.9) * 0.000_001 : 0;
+    }
+
+    @Override
+    public double getValidateTimeMaxInMs() {
+        PoolLatencies latencies = dataSource.getLatencies();
+        return latencies != null ? latencies.getValidate().getMax() * 0.000_001 : 0;
+    }
+
+    @Override
+    public void resetLatencyHistograms() {
+        PoolLatencies latencies = dataSource.getLatencies();
+        if (latencies != null) {
+            latencies.reset();
+        }
+    }
+
     @Override
     public int getStatementCacheMaxSize() {
         return dataSource.getStatementCacheMaxSize();
@@ -277,6 +654,37 @@ public final class ViburMonitoring implements ViburMonitoringMBean {
         dataSource.setLogStackTraceForLargeResultSet(logStackTraceForLargeResultSet);
     }
 
+    @Override
+    public int getSqlStatisticsMaxSize() {
+        return dataSource.getSqlStatisticsMaxSize();
+    }
+
+    @Override
+    public int getSqlStatisticsSize() {
+        SqlStatistics sqlStatistics = dataSource.getSqlStatistics();
+        return sqlStatistics != null ? sqlStatistics.size() : 0;
+    }
+
+    @Override
+    public long getSqlStatisticsEvictions() {
+        SqlStatistics sqlStatistics = dataSource.getSqlStatistics();
+        return sqlStatistics != null ? sqlStatistics.getEvictions() : 0;
+    }
+
+    @Override
+    public String getTopSqlStatistics(int count) {
+        SqlStatistics sqlStatistics = dataSource.getSqlStatistics();
+        return sqlStatistics != null ? sqlStatistics.formatTop(count) : "sqlStatisticsMaxSize is disabled";
+    }
+
+    @Override
+    public void resetSqlStatistics() {
+        SqlStatistics sqlStatistics = dataSource.getSqlStatistics();
+        if (sqlStatistics != null) {
+            sqlStatistics.reset();
+        }
+    }
+
     @Override
     public boolean isIncludeQueryParameters() {
         return dataSource.isIncludeQueryParameters();
@@ -297,6 +705,11 @@ public final class ViburMonitoring implements ViburMonitoringMBean {
         return dataSource.isLogAllStackTracesOnTimeout();
     }
 
+    @Override
+    public boolean isLogFlightRecorderOnTimeout() {
+        return dataSource.isLogFlightRecorderOnTimeout();
+    }
+
     @Override
     public boolean isResetDefaultsAfterUse() {
         return dataSource.isResetDefaultsAfterUse();
@@ -331,4 +744,10 @@ public final class ViburMonitoring implements ViburMonitoringMBean {
     public String showTakenConnections() {
         return dataSource.getTakenConnectionsStackTraces();
     }
+
+    @Override
+    public String showFlightRecorder() {
+        PoolFlightRecorder flightRecorder = dataSource.getFlightRecorder();
+        return flightRecorder != null ? flightRecorder.dump() : "poolFlightRecorderSize is disabled";
+    }
 }
@@ -40,6 +40,20 @@ public interface ViburMonitoringMBean {
 
     void setValidateTimeoutInSeconds(int validateTimeoutInSeconds);
 
+    long getConnectionValidationTrustWindowInMs();
+
+    void setConnectionValidationTrustWindowInMs(long connectionValidationTrustWindowInMs);
+
+    int getConnectionMaxLifetimeInSeconds();
+
+    int getConnectionKeepAliveIntervalInSeconds();
+
+    int getConnectionKeepAliveThreads();
+
+    long getKeepAliveValidations();
+
+    long getKeepAliveEvictions();
+
     String getTestConnectionQuery();
 
     void setTestConnectionQuery(String testConnectionQuery);
@@ -57,6 +71,14 @@ public interface ViburMonitoringMBean {
 
     int getPoolMaxSize();
 
+    int getPoolInitialFillThreads();
+
+    boolean isPoolWarmUpInBackground();
+
+    int getPoolCloserThreads();
+
+    int getPoolCloserQueueSize();
+
     int getPoolTaken();
 
     int getPoolRemainingCreated();
@@ -65,10 +87,56 @@ public interface ViburMonitoringMBean {
 
     boolean isPoolEnableConnectionTracking();
 
+    int getPoolConnectionTrackingSampleRate();
+
+    boolean isPoolEnableLatencyHistograms();
+
+    boolean isPoolEnableJfrEvents();
+
+    int getPoolFlightRecorderSize();
+
+    boolean isPoolThreadAffinity();
+
+    int getPoolShards();
+
+    boolean isPoolHandoff();
+
+    long getPoolPriorityStarvationBoundInMs();
+
+    void setPoolPriorityStarvationBoundInMs(long poolPriorityStarvationBoundInMs);
+
+    int getPoolProvisioningHeadroom();
+
+    int getPoolProvisioningThreads();
+
+    String getPoolPartitions();
+
+    /**
+     * Returns the current usage of the pool partitions, see {@link org.vibur.dbcp.pool.ConnectionPartitions#usage()}, or {@code null}
+     * if no partitions are configured.
+     */
+    String getPoolPartitionsUsage();
+
     int getReducerTimeIntervalInSeconds();
 
     int getReducerSamples();
 
+    long getPoolSizerTargetWaitInMs();
+
+    void setPoolSizerTargetWaitInMs(long poolSizerTargetWaitInMs);
+
+    /**
+     * Returns the pool size targeted by the last decision of the
+     * {@link org.vibur.dbcp.pool.AdaptivePoolSizer AdaptivePoolSizer}, or {@code -1} if it is not used.
+     */
+    int getPoolSizerTarget();
+
+    /**
+     * Returns a description of the last decision of the {@link org.vibur.dbcp.pool.AdaptivePoolSizer AdaptivePoolSizer}
+     * and of the measurements on which it was based, or {@code null} if it is not used.
+     */
+    String getPoolSizerLastDecision();
+
     boolean isAllowConnectionAfterTermination();
 
     boolean isAllowUnwrapping();
@@ -88,10 +156,98 @@ public interface ViburMonitoringMBean {
 
     void setAcquireRetryDelayInMs(long acquireRetryDelayInMs);
 
+    long getAcquireRetryMaxDelayInMs();
+
+    void setAcquireRetryMaxDelayInMs(long acquireRetryMaxDelayInMs);
+
     int getAcquireRetryAttempts();
 
     void setAcquireRetryAttempts(int acquireRetryAttempts);
 
+    int getCircuitBreakerThreshold();
+
+    long getCircuitBreakerProbeIntervalInMs();
+
+    void setCircuitBreakerProbeIntervalInMs(long circuitBreakerProbeIntervalInMs);
+
+    /**
+     * Returns the state of the connection creation circuit breaker: {@code DISABLED}, {@code CLOSED} or {@code OPEN}.
+     */
+    String getCircuitBreakerState();
+
+    int getCircuitBreakerConsecutiveFailures();
+
+    long getCircuitBreakerFailures();
+
+    long getCircuitBreakerTrips();
+
+    long getCircuitBreakerRejections();
+
+
+    //////////// Pool event counters, since the pool was started ////////////
+
+    /**
+     * Returns the approximate number of the threads currently waiting for a connection.
+     */
+    int getPoolWaiting();
+
+    long getConnectionTimeouts();
+
+    long getConnectionCreations();
+
+    long getConnectionCreationFailures();
+
+    long getConnectionDestructions();
+
+    long getConnectionValidations();
+
+    long getConnectionValidationFailures();
+
+    long getCriticalSQLStates();
+
+    long getServerWideSQLStates();
+
+    long getStatementCacheHits();
+
+    long getStatementCacheMisses();
+
+
+    //////////// Latency histograms, in milliseconds, all are 0 if poolEnableLatencyHistograms is disabled ////////////
+
+    double getAcquireTimeP50InMs();
+
+    double getAcquireTimeP99InMs();
+
+    double getAcquireTimeP999InMs();
+
+    double getAcquireTimeMaxInMs();
+
+    double getHoldTimeP50InMs();
+
+    double getHoldTimeP99InMs();
+
+    double getHoldTimeP999InMs();
+
+    double getHoldTimeMaxInMs();
+
+    double getCreateTimeP50InMs();
+
+    double getCreateTimeP99InMs();
+
+    double getCreateTimeP999InMs();
+
+    double getCreateTimeMaxInMs();
+
+    double getValidateTimeP50InMs();
+
+    double getValidateTimeP99InMs();
+
+    double getValidateTimeP999InMs();
+
+    double getValidateTimeMaxInMs();
+
+    void resetLatencyHistograms();
+
 
     //////////// JDBC Statement caching ////////////
 
@@ -124,6 +280,20 @@ public interface ViburMonitoringMBean {
 
     void setLogStackTraceForLargeResultSet(boolean logStackTraceForLargeResultSet);
 
+    int getSqlStatisticsMaxSize();
+
+    int getSqlStatisticsSize();
+
+    long getSqlStatisticsEvictions();
+
+    /**
+     * Returns the statistics of up to {@code count} normalized SQL queries with the highest total execution time,
+     * one query per line, or an explanatory message if {@code sqlStatisticsMaxSize} is disabled.
+     */
+    String getTopSqlStatistics(int count);
+
+    void resetSqlStatistics();
+
     boolean isIncludeQueryParameters();
 
     void setIncludeQueryParameters(boolean includeQueryParameters);
@@ -132,6 +302,8 @@ public interface ViburMonitoringMBean {
 
     boolean isLogAllStackTracesOnTimeout();
 
+    boolean isLogFlightRecorderOnTimeout();
+
     //////////// JDBC Connection default states ////////////
 
     boolean isResetDefaultsAfterUse();
@@ -150,4 +322,10 @@ public interface ViburMonitoringMBean {
     //////////// Taken JDBC Connections information ////////////
 
     String showTakenConnections();
+
+    /**
+     * Returns the recent pool events recorded by the flight recorder, one event per line, or an explanatory
+     * message if {@code poolFlightRecorderSize} is disabled.
+     */
+    String showFlightRecorder();
 }
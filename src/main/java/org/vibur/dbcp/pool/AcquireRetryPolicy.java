@@ -0,0 +1,74 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.vibur.dbcp.ViburConfig;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Defines the delays between the consecutive attempts to lazily create a JDBC Connection as part of the
+ * {@code getConnection()} flow, when the previous attempt has failed. The total time of all attempts made as
+ * part of one {@code getConnection()} call is always bounded by a single deadline, derived from the
+ * {@link ViburConfig#connectionTimeoutInMs connectionTimeoutInMs}, and the maximum number of attempts is
+ * bounded by the {@link ViburConfig#acquireRetryAttempts acquireRetryAttempts}.
+ *
+ * @author Simeon Malchev
+ */
+public interface AcquireRetryPolicy {
+
+    /**
+     * Returns the delay to wait before the next attempt.
+     *
+     * @param retry the number of the retry which is about to be made, starting from {@code 1}
+     * @param previousDelayNanos the delay which was returned for the previous retry, {@code 0} for the first one
+     * @return the delay in nanoseconds, must not be negative
+     */
+    long nextDelayNanos(int retry, long previousDelayNanos);
+
+
+    /**
+     * Exponential backoff with decorrelated jitter, where each delay is a random value between the
+     * {@link ViburConfig#acquireRetryDelayInMs acquireRetryDelayInMs} and three times the previous delay,
+     * capped at the {@link ViburConfig#acquireRetryMaxDelayInMs acquireRetryMaxDelayInMs}. The randomization
+     * prevents a large number of threads which have failed at the same time from retrying in synchronized waves
+     * against a recovering database. If the max delay is not greater than the base delay, a fixed delay of
+     * {@code acquireRetryDelayInMs} is used.
+     */
+    class Default implements AcquireRetryPolicy {
+
+        private final ViburConfig config;
+
+        public Default(ViburConfig config) {
+            this.config = config;
+        }
+
+        @Override
+        public long nextDelayNanos(int retry, long previousDelayNanos) {
+            long baseNanos = MILLISECONDS.toNanos(config.getAcquireRetryDelayInMs());
+            long capNanos = MILLISECONDS.toNanos(config.getAcquireRetryMaxDelayInMs());
+            if (capNanos <= baseNanos) {
+                return baseNanos;
+            }
+
+            long upperNanos = Math.min(capNanos, Math.max(baseNanos, previousDelayNanos) * 3);
+            return upperNanos > baseNanos ? ThreadLocalRandom.current().nextLong(baseNanos, upperNanos + 1) : baseNanos;
+        }
+    }
+}
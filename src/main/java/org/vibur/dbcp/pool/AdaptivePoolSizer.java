@@ -0,0 +1,264 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vibur.dbcp.ViburConfig;
+import org.vibur.objectpool.BasePool;
+import org.vibur.objectpool.util.ThreadedPoolReducer;
+
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.vibur.dbcp.util.ViburUtils.getPoolName;
+
+/**
+ * An adaptive pool sizing controller which can be used instead of the default {@link PoolReducer}, by setting the
+ * {@link ViburConfig#poolReducerClass poolReducerClass} to the name of this class. Unlike the {@code PoolReducer}
+ * which only shrinks the pool, this controller both grows and shrinks it, following the measured load.
+ *
+ * <p>The controller samples the number of taken connections {@link ViburConfig#reducerSamples reducerSamples}
+ * times during each {@link ViburConfig#reducerTimeIntervalInSeconds reducerTimeIntervalInSeconds}, and measures via
+ * connection hooks the rate of the {@code getConnection()} calls, the time for which the connections are held,
+ * the time waited to obtain them, and the time taken to create new connections. At the end of each interval it
+ * calculates a target pool size as follows:
+ * <ul>
+ *     <li>the demand is the average number of connections in use, as given by Little's law, i.e., the arrival rate
+ *     multiplied by the mean hold time, or by the sampled number of taken connections if it is higher;
+ *     <li>the target is the demand plus 20% headroom, plus the number of arrivals expected during the creation
+ *     of one new connection, so that a new connection can be created before the idle connections are exhausted;
+ *     <li>if the mean wait time has exceeded the {@link ViburConfig#poolSizerTargetWaitInMs poolSizerTargetWaitInMs},
+ *     the target is at least 25% above the current pool size;
+ *     <li>the target is bounded by the pool initial size (or the sampled peak of the taken connections, if higher)
+ *     and the pool max size.
+ * </ul>
+ * If the target is above the current pool size, the pool grows immediately: the missing connections are created
+ * in the background via the {@link ConnectionProvisioner}. If the target is below 90% of the current pool size for
+ * 3 consecutive intervals, the pool is shrunk to the target by destroying idle connections. The last decision is
+ * exposed via JMX.
+ *
+ * @author Simeon Malchev
+ */
+public class AdaptivePoolSizer implements ThreadedPoolReducer {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptivePoolSizer.class);
+
+    private static final double HEADROOM_FRACTION = 0.2;
+    private static final double GROW_FRACTION = 0.25;
+    private static final double SHRINK_THRESHOLD = 0.9;
+    private static final int SHRINK_INTERVALS = 3;
+
+    public enum Decision { HOLD, GROW, SHRINK }
+
+    private final ViburConfig config;
+    private final BasePool pool;
+    private final long sampleNanos;
+    private final int samples;
+    private final Thread sizerThread;
+
+    private volatile ConnectionProvisioner provisioner = null;
+    private volatile boolean terminated = false;
+
+    // the measurements since the last decision, updated via the connection hooks
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong holds = new AtomicLong();
+    private final AtomicLong holdNanos = new AtomicLong();
+    private final AtomicLong creations = new AtomicLong();
+    private final AtomicLong createNanos = new AtomicLong();
+
+    // accessed only by the sizer thread
+    private long takenSum = 0;
+    private int takenPeak = 0;
+    private int sampled = 0;
+    private int shrinkIntervals = 0;
+    private double meanCreateNanos = 0;
+
+    private volatile int target = -1;
+    private volatile String lastDecision = null;
+
+    public AdaptivePoolSizer(ViburConfig config) {
+        this.config = config;
+        this.pool = config.getPool();
+        this.samples = config.getReducerSamples();
+        this.sampleNanos = SECONDS.toNanos(config.getReducerTimeIntervalInSeconds()) / samples;
+        this.sizerThread = new Thread(new Sizer(), getClass().getSimpleName() + " for pool " + config.getName());
+        this.sizerThread.setDaemon(true);
+
+        config.getConnHooks().addOnGet(new Hook.GetConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                acquisitions.incrementAndGet();
+                waitNanos.addAndGet(takenNanos);
+            }
+        });
+        config.getConnHooks().addOnClose(new Hook.CloseConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                holds.incrementAndGet();
+                holdNanos.addAndGet(takenNanos);
+            }
+        });
+        config.getConnHooks().addOnInit(new Hook.InitConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                if (rawConnection != null) {
+                    creations.incrementAndGet();
+                    createNanos.addAndGet(takenNanos);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets the provisioner through which the pool will grow ahead of demand. If not set, the pool grows only
+     * lazily, as part of the {@code getConnection()} calls.
+     */
+    public void setProvisioner(ConnectionProvisioner provisioner) {
+        this.provisioner = provisioner;
+    }
+
+    @Override
+    public void start() {
+        sizerThread.start();
+    }
+
+    @Override
+    public Thread.State getState() {
+        return sizerThread.getState();
+    }
+
+    @Override
+    public void terminate() {
+        terminated = true;
+        sizerThread.interrupt();
+    }
+
+    /**
+     * Returns the pool size targeted by the last decision, or {@code -1} if no decision has been made yet.
+     */
+    public int getTarget() {
+        return target;
+    }
+
+    /**
+     * Returns a description of the last decision and of the measurements on which it was based, or {@code null}
+     * if no decision has been made yet.
+     */
+    public String getLastDecision() {
+        return lastDecision;
+    }
+
+    private void samplePool() {
+        int taken = pool.taken();
+        takenSum += taken;
+        takenPeak = Math.max(takenPeak, taken);
+        if (++sampled < samples) {
+            return;
+        }
+
+        resize();
+        takenSum = 0;
+        takenPeak = 0;
+        sampled = 0;
+    }
+
+    private void resize() {
+        long intervalNanos = sampleNanos * samples;
+        long acquired = acquisitions.getAndSet(0);
+        long waited = waitNanos.getAndSet(0);
+        long held = holds.getAndSet(0);
+        long heldNanos = holdNanos.getAndSet(0);
+        long created = creations.getAndSet(0);
+        long createdNanos = createNanos.getAndSet(0);
+
+        double arrivalRate = acquired / (double) intervalNanos; // per nanosecond
+        double meanHoldNanos = held > 0 ? heldNanos / (double) held : 0;
+        double meanWaitNanos = acquired > 0 ? waited / (double) acquired : 0;
+        if (created > 0) {
+            meanCreateNanos = createdNanos / (double) created; // otherwise, keeps the last known creation time
+        }
+
+        double demand = Math.max(arrivalRate * meanHoldNanos, takenSum / (double) sampled);
+        int size = pool.createdTotal() + spares();
+        int newTarget = (int) Math.ceil(demand * (1 + HEADROOM_FRACTION) + arrivalRate * meanCreateNanos);
+        if (meanWaitNanos > MILLISECONDS.toNanos(config.getPoolSizerTargetWaitInMs())) {
+            newTarget = Math.max(newTarget, size + Math.max(1, (int) (size * GROW_FRACTION)));
+        }
+        newTarget = Math.min(Math.max(newTarget, Math.max(config.getPoolInitialSize(), takenPeak)), pool.maxSize());
+
+        Decision decision = Decision.HOLD;
+        if (newTarget > size) {
+            decision = Decision.GROW;
+            shrinkIntervals = 0;
+        }
+        else if (newTarget < size * SHRINK_THRESHOLD) {
+            if (++shrinkIntervals >= SHRINK_INTERVALS) {
+                decision = Decision.SHRINK;
+                shrinkIntervals = 0;
+            }
+        }
+        else {
+            shrinkIntervals = 0;
+        }
+
+        target = newTarget;
+        lastDecision = format("%s target=%d size=%d demand=%.2f arrivalRate=%.1f/s meanHoldMs=%.3f meanWaitMs=%.3f meanCreateMs=%.3f",
+                decision, newTarget, size, demand, arrivalRate * SECONDS.toNanos(1), meanHoldNanos * 0.000_001,
+                meanWaitNanos * 0.000_001, meanCreateNanos * 0.000_001);
+        if (decision != Decision.HOLD) {
+            logger.debug("Pool {}, {}", getPoolName(config), lastDecision);
+        }
+
+        ConnectionProvisioner provisioner = this.provisioner;
+        if (provisioner != null) { // keeps up to (target - taken) idle connections ahead of demand
+            provisioner.setHeadroom(Math.max(config.getPoolProvisioningHeadroom(), newTarget - pool.taken()));
+            if (decision == Decision.GROW) {
+                provisioner.provision();
+            }
+        }
+        if (decision == Decision.SHRINK) {
+            pool.reduceCreatedTo(newTarget, false);
+        }
+    }
+
+    private int spares() {
+        ConnectionProvisioner provisioner = this.provisioner;
+        return provisioner != null ? provisioner.spares() : 0;
+    }
+
+    private final class Sizer implements Runnable {
+        @Override
+        public void run() {
+            while (!terminated) {
+                try {
+                    NANOSECONDS.sleep(sampleNanos);
+                    samplePool();
+                } catch (InterruptedException ignored) {
+                    // continues and checks the terminated flag
+                } catch (RuntimeException e) { // including ViburDBCPException, continues with the next sample
+                    logger.warn("While trying to resize pool {}", getPoolName(config), e);
+                }
+            }
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package org.vibur.dbcp.pool;
 
 import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * The stateful versioned object which is held in the object pool. It is just a thin wrapper around the raw
@@ -29,9 +30,19 @@ import java.sql.Connection;
 public class ConnHolder extends TakenConnection {
 
     private final Connection rawConnection; // the underlying raw JDBC Connection
-    private final int version; // the version of the ConnectionFactory at the moment of this ConnHolder object creation
+    private int version; // the version of the ConnectionFactory at the moment of creation or of the last revalidation
 
-    private long restoredNanoTime; // != 0 only when connection validation is enabled via getConnectionIdleLimitInSeconds() >= 0
+    private long restoredNanoTime; // the time when restored to the pool or last validated by the ConnectionKeepAlive
+
+    private long expiryNanoTime = 0; // != 0 only when connectionMaxLifetimeInSeconds is enabled
+
+    private long lastRoundTripNanoTime = 0; // != 0 only when connectionValidationTrustWindowInMs is enabled
+
+    private ConnectionPartitions.Partition partition = null; // != null only while taken, when poolPartitions are configured
+
+    // these 2 fields are used only when poolThreadAffinity is enabled, see ThreadAffineCollection
+    private final AtomicBoolean available = new AtomicBoolean(false);
+    private final AtomicBoolean enqueued = new AtomicBoolean(false);
 
     ConnHolder(Connection rawConnection, int version, long currentNanoTime) {
         assert rawConnection != null;
@@ -45,6 +56,8 @@ public class ConnHolder extends TakenConnection {
         this.rawConnection = connHolder.rawConnection;
         this.version = connHolder.version;
         this.restoredNanoTime = connHolder.restoredNanoTime;
+        this.expiryNanoTime = connHolder.expiryNanoTime;
+        this.lastRoundTripNanoTime = connHolder.lastRoundTripNanoTime;
     }
 
     public Connection rawConnection() {
@@ -55,6 +68,10 @@ public class ConnHolder extends TakenConnection {
         return version;
     }
 
+    void setVersion(int version) {
+        this.version = version;
+    }
+
     long getRestoredNanoTime() {
         return restoredNanoTime;
     }
@@ -63,6 +80,45 @@ public class ConnHolder extends TakenConnection {
         this.restoredNanoTime = restoredNanoTime;
     }
 
+    void setExpiryNanoTime(long expiryNanoTime) {
+        this.expiryNanoTime = expiryNanoTime;
+    }
+
+    /**
+     * Returns {@code true} if this connection has exceeded its maximum lifetime at the given time.
+     */
+    boolean isExpired(long currentNanoTime) {
+        return expiryNanoTime != 0 && currentNanoTime - expiryNanoTime >= 0;
+    }
+
+    /**
+     * Returns {@code true} if a successful round trip to the database has been completed on this connection within
+     * the given trust window before the given time.
+     */
+    boolean isTrusted(long currentNanoTime, long trustWindowNanos) {
+        return lastRoundTripNanoTime != 0 && currentNanoTime - lastRoundTripNanoTime < trustWindowNanos;
+    }
+
+    public void setLastRoundTripNanoTime(long lastRoundTripNanoTime) {
+        this.lastRoundTripNanoTime = lastRoundTripNanoTime;
+    }
+
+    ConnectionPartitions.Partition getPartition() {
+        return partition;
+    }
+
+    void setPartition(ConnectionPartitions.Partition partition) {
+        this.partition = partition;
+    }
+
+    AtomicBoolean available() {
+        return available;
+    }
+
+    AtomicBoolean enqueued() {
+        return enqueued;
+    }
+
     @Override
     public void setLastAccessNanoTime(long lastAccessNanoTime) {
         super.setLastAccessNanoTime(lastAccessNanoTime);
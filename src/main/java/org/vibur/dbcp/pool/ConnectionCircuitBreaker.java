@@ -0,0 +1,228 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vibur.dbcp.ViburConfig;
+import org.vibur.dbcp.ViburDBCPException;
+
+import java.sql.SQLException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.vibur.dbcp.ViburConfig.SQLSTATE_CIRCUIT_OPEN_ERROR;
+import static org.vibur.dbcp.util.ViburUtils.getPoolName;
+
+/**
+ * A decorator of the pool's {@link ViburObjectFactory} which stops the attempts to create new connections after
+ * {@link ViburConfig#circuitBreakerThreshold circuitBreakerThreshold} consecutive creation failures. While the
+ * breaker is open, the calls to {@link #create()} fail immediately with an SQLException with SQLState
+ * {@link ViburConfig#SQLSTATE_CIRCUIT_OPEN_ERROR SQLSTATE_CIRCUIT_OPEN_ERROR}, which is not retried by the
+ * {@code getConnection()} flow, and the threads calling {@code getConnection()} do not pile up on a database which
+ * is down. The already created idle connections in the pool can still be taken.
+ *
+ * <p>While the breaker is open, a single background probe tries to create a connection every
+ * {@link ViburConfig#circuitBreakerProbeIntervalInMs circuitBreakerProbeIntervalInMs}; the breaker is closed
+ * as soon as the probe succeeds.
+ *
+ * @author Simeon Malchev
+ */
+public class ConnectionCircuitBreaker implements ViburObjectFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionCircuitBreaker.class);
+
+    private final ViburConfig config;
+    private final ViburObjectFactory factory;
+    private final int threshold;
+    private final ScheduledThreadPoolExecutor prober;
+
+    private final AtomicBoolean open = new AtomicBoolean(false);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger(0);
+    private final AtomicLong failures = new AtomicLong(0);
+    private final AtomicLong trips = new AtomicLong(0);
+    private final AtomicLong rejections = new AtomicLong(0);
+
+    private volatile boolean terminated = false;
+
+    /**
+     * Instantiates the circuit breaker.
+     *
+     * @param config the ViburConfig from which will initialize
+     * @param factory the decorated connection factory
+     */
+    public ConnectionCircuitBreaker(final ViburConfig config, ViburObjectFactory factory) {
+        this.config = config;
+        this.factory = requireNonNull(factory);
+        this.threshold = config.getCircuitBreakerThreshold();
+        this.prober = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, ConnectionCircuitBreaker.class.getSimpleName() + " for pool " + config.getName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void terminate() {
+        terminated = true;
+        prober.shutdownNow();
+    }
+
+    /**
+     * Returns {@code true} if the breaker is currently open, i.e., the creation of new connections is rejected.
+     */
+    public boolean isOpen() {
+        return open.get();
+    }
+
+    /**
+     * Returns the number of the consecutive connection creation failures observed so far; reset to {@code 0}
+     * on the first successful creation.
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    /**
+     * Returns the total number of the connection creation failures, including the failed probes.
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Returns how many times the breaker has been opened.
+     */
+    public long getTrips() {
+        return trips.get();
+    }
+
+    /**
+     * Returns how many connection creations have been rejected because the breaker was open.
+     */
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    @Override
+    public ConnHolder create() throws ViburDBCPException {
+        if (open.get()) {
+            rejections.incrementAndGet();
+            throw new ViburDBCPException(new SQLException(format(
+                    "Pool %s, circuit breaker is open after %d consecutive connection creation failures.",
+                    getPoolName(config), consecutiveFailures.get()), SQLSTATE_CIRCUIT_OPEN_ERROR));
+        }
+
+        try {
+            ConnHolder connHolder = factory.create();
+            consecutiveFailures.set(0);
+            return connHolder;
+        } catch (ViburDBCPException e) {
+            failures.incrementAndGet();
+            if (consecutiveFailures.incrementAndGet() >= threshold) {
+                trip();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public ConnHolder create(Connector connector) throws ViburDBCPException {
+        return factory.create(connector); // the non-pooled connections are not subject to the breaker
+    }
+
+    @Override
+    public boolean readyToTake(ConnHolder connHolder) {
+        return factory.readyToTake(connHolder);
+    }
+
+    @Override
+    public boolean readyToRestore(ConnHolder connHolder) {
+        return factory.readyToRestore(connHolder);
+    }
+
+    @Override
+    public void destroy(ConnHolder connHolder) {
+        factory.destroy(connHolder);
+    }
+
+    @Override
+    public int version() {
+        return factory.version();
+    }
+
+    @Override
+    public boolean compareAndSetVersion(int expect, int update) {
+        return factory.compareAndSetVersion(expect, update);
+    }
+
+    private void trip() {
+        if (terminated || !open.compareAndSet(false, true)) {
+            return;
+        }
+        trips.incrementAndGet();
+        logger.warn("Pool {}, opened the circuit breaker after {} consecutive connection creation failures",
+                getPoolName(config), consecutiveFailures.get());
+        scheduleProbe();
+    }
+
+    private void scheduleProbe() {
+        try {
+            prober.schedule(new Probe(), config.getCircuitBreakerProbeIntervalInMs(), MILLISECONDS);
+        } catch (RejectedExecutionException ignored) { // the breaker was terminated
+        }
+    }
+
+    private final class Probe implements Runnable {
+        @Override
+        public void run() {
+            if (terminated) {
+                return;
+            }
+            boolean succeeded = false;
+            try {
+                factory.destroy(factory.create());
+                succeeded = true;
+            } catch (ViburDBCPException e) {
+                failures.incrementAndGet();
+                consecutiveFailures.incrementAndGet();
+                logger.debug("Pool {}, circuit breaker probe failed", getPoolName(config), e);
+                return;
+            } catch (RuntimeException e) { // e.g., thrown by a hook, the circuit remains open
+                logger.warn("Pool {}, circuit breaker probe threw", getPoolName(config), e);
+                return;
+            } finally {
+                if (!succeeded) {
+                    scheduleProbe();
+                }
+            }
+
+            consecutiveFailures.set(0);
+            open.set(false);
+            logger.info("Pool {}, closed the circuit breaker", getPoolName(config));
+        }
+    }
+}
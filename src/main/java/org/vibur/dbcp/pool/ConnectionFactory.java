@@ -25,10 +25,21 @@ import org.vibur.dbcp.pool.HookHolder.ConnHooksAccessor;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.vibur.dbcp.util.JdbcUtils.*;
 
 /**
@@ -37,7 +48,9 @@ import static org.vibur.dbcp.util.JdbcUtils.*;
  *
  * <p>This {@code ConnectionFactory} is a versioned factory which creates versioned JDBC Connection
  * wrappers {@code ConnHolder(s)}. The version of each {@link ConnHolder} created by the factory is the same
- * as the version of the factory at the moment of the object creation.
+ * as the version of the factory at the moment of the object creation. The version of the factory is incremented
+ * when a server-wide critical SQL exception occurs, and the {@code ConnHolder(s)} with an older version are
+ * revalidated when taken from the pool.
  *
  * @see Hook
  * @see DefaultHook
@@ -49,9 +62,20 @@ public class ConnectionFactory implements ViburObjectFactory {
 
     private static final Logger logger = LoggerFactory.getLogger(ConnectionFactory.class);
 
+    private static final double MAX_LIFETIME_JITTER_FRACTION = 0.1;
+
+    private static final Executor SYNCHRONOUS_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
     private final ViburConfig config;
     private final ConnHooksAccessor connHooksAccessor;
     private final AtomicInteger version = new AtomicInteger(1);
+    private final ThreadPoolExecutor closer; // != null only when poolCloserThreads is enabled
+    private final ScheduledThreadPoolExecutor closeWatchdog; // != null only when closer != null and !useNetworkTimeout
 
     /**
      * Instantiates this object factory.
@@ -62,9 +86,74 @@ public class ConnectionFactory implements ViburObjectFactory {
     public ConnectionFactory(ViburConfig config) throws ViburDBCPException {
         this.config = config;
         this.connHooksAccessor = (ConnHooksAccessor) config.getConnHooks();
+        this.closer = config.getPoolCloserThreads() > 0 ? newCloser(config) : null;
+        this.closeWatchdog = closer != null && !config.isUseNetworkTimeout() ? newCloseWatchdog(config) : null;
         initLoginTimeout(config);
     }
 
+    private static ThreadPoolExecutor newCloser(final ViburConfig config) {
+        int threads = config.getPoolCloserThreads();
+        ThreadPoolExecutor closer = new ThreadPoolExecutor(threads, threads, 60, SECONDS,
+                new ArrayBlockingQueue<Runnable>(config.getPoolCloserQueueSize()), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Connection closer for pool " + config.getName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                r.run(); // closes synchronously when the queue is full, or when the closer is terminated
+            }
+        });
+        closer.allowCoreThreadTimeOut(true);
+        return closer;
+    }
+
+    private static ScheduledThreadPoolExecutor newCloseWatchdog(final ViburConfig config) {
+        ScheduledThreadPoolExecutor closeWatchdog = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Connection close watchdog for pool " + config.getName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        closeWatchdog.setRemoveOnCancelPolicy(true);
+        closeWatchdog.setKeepAliveTime(60, SECONDS);
+        closeWatchdog.allowCoreThreadTimeOut(true);
+        return closeWatchdog;
+    }
+
+    /**
+     * Terminates the closer threads, if enabled, see {@link ViburConfig#poolCloserThreads poolCloserThreads}.
+     * The connections which are already queued for closing are still closed, and this method waits for that for up
+     * to {@link ViburConfig#validateTimeoutInSeconds validateTimeoutInSeconds} plus one second. The connections
+     * destroyed after the termination are closed synchronously.
+     */
+    public void terminate() {
+        if (closer == null) {
+            return;
+        }
+
+        closer.shutdown();
+        try {
+            if (!closer.awaitTermination(config.getValidateTimeoutInSeconds() + 1, SECONDS)) {
+                logger.warn("Closer threads of pool {} did not complete within the timeout, {} connections remain queued",
+                        config.getName(), closer.getQueue().size());
+                closer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closer.shutdownNow();
+        } finally {
+            if (closeWatchdog != null) {
+                closeWatchdog.shutdownNow();
+            }
+        }
+    }
+
     @Override
     public ConnHolder create() throws ViburDBCPException {
         return create(config.getConnector());
@@ -104,25 +193,39 @@ public class ConnectionFactory implements ViburObjectFactory {
         }
 
         if (sqlException != null) {
+            config.getMetrics().recordCreationFailure();
             throw new ViburDBCPException(sqlException);
         }
 
+        config.getMetrics().recordCreation();
         logger.debug("Created rawConnection {}", rawConnection);
-        return prepareTracking(new ConnHolder(rawConnection, version(),
-                config.getConnectionIdleLimitInSeconds() >= 0 ? currentNanoTime : 0));
+        ConnHolder connHolder = new ConnHolder(rawConnection, version(),
+                config.getConnectionIdleLimitInSeconds() >= 0 ? currentNanoTime : 0);
+        long maxLifetimeNanos = SECONDS.toNanos(config.getConnectionMaxLifetimeInSeconds());
+        if (maxLifetimeNanos > 0) { // the random jitter staggers the retirement of the connections created together
+            long jitterNanos = (long) (maxLifetimeNanos * MAX_LIFETIME_JITTER_FRACTION * ThreadLocalRandom.current().nextDouble());
+            connHolder.setExpiryNanoTime(System.nanoTime() + maxLifetimeNanos - jitterNanos);
+        }
+        return prepareTracking(connHolder);
     }
 
     @Override
     public boolean readyToTake(ConnHolder connHolder) {
-        if (connHolder.version() != version()) {
+        long currentNanoTime = System.nanoTime();
+        if (connHolder.isExpired(currentNanoTime)) {
+            logger.debug("Retiring rawConnection {} which exceeded its max lifetime", connHolder.rawConnection());
+            return false;
+        }
+        if (!revalidate(connHolder)) {
             return false;
         }
 
         int idleLimit = config.getConnectionIdleLimitInSeconds();
         if (idleLimit >= 0) {
-            long idleNanos = System.nanoTime() - connHolder.getRestoredNanoTime();
+            long idleNanos = currentNanoTime - connHolder.getRestoredNanoTime();
             if (NANOSECONDS.toSeconds(idleNanos) >= idleLimit
-                    && !validateOrInitialize(connHolder.rawConnection(), config.getTestConnectionQuery(), config)) {
+                    && !connHolder.isTrusted(currentNanoTime, MILLISECONDS.toNanos(config.getConnectionValidationTrustWindowInMs()))
+                    && !validate(connHolder.rawConnection(), config)) {
                 logger.debug("Couldn't validate rawConnection {}", connHolder.rawConnection());
                 return false;
             }
@@ -135,7 +238,8 @@ public class ConnectionFactory implements ViburObjectFactory {
     @Override
     public boolean readyToRestore(ConnHolder connHolder) {
         Hook.CloseConnection[] onClose = connHooksAccessor.onClose();
-        long currentNanoTime = onClose.length > 0 || config.getConnectionIdleLimitInSeconds() >= 0 ? System.nanoTime() : 0;
+        boolean stampRestored = config.getConnectionIdleLimitInSeconds() >= 0 || config.getConnectionKeepAliveIntervalInSeconds() > 0;
+        long currentNanoTime = onClose.length > 0 || stampRestored ? System.nanoTime() : 0;
 
         long startNanoTime = connHolder.getTakenNanoTime();
         clearTracking(connHolder); // we don't want to keep the tracking objects references
@@ -153,17 +257,40 @@ public class ConnectionFactory implements ViburObjectFactory {
             }
         }
 
-        if (config.getConnectionIdleLimitInSeconds() >= 0) {
+        if (stampRestored) {
             connHolder.setRestoredNanoTime(currentNanoTime);
         }
+        if (connHolder.isExpired(System.nanoTime())) {
+            logger.debug("Retiring rawConnection {} which exceeded its max lifetime", connHolder.rawConnection());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Validates the given connection if it was created or last validated before the last server-wide critical SQL
+     * exception, i.e., if its version is older than the version of this factory.
+     *
+     * @return {@code true} if the connection is valid or did not need to be validated, {@code false} otherwise
+     */
+    boolean revalidate(ConnHolder connHolder) {
+        int version = version();
+        if (connHolder.version() == version) {
+            return true;
+        }
+        if (!validate(connHolder.rawConnection(), config)) {
+            logger.debug("Couldn't revalidate rawConnection {} after a server-wide critical SQL exception",
+                    connHolder.rawConnection());
+            return false;
+        }
+        connHolder.setVersion(version);
         return true;
     }
 
     private ConnHolder prepareTracking(ConnHolder connHolder) {
         if (config.isPoolEnableConnectionTracking()) {
             connHolder.setTakenNanoTime(System.nanoTime());
-            connHolder.setThread(Thread.currentThread());
-            connHolder.setLocation(new Throwable());
+            connHolder.trackTaking(config.getPoolConnectionTrackingSampleRate());
         }
         else if (connHooksAccessor.onGet().length > 0 || connHooksAccessor.onClose().length > 0) {
             connHolder.setTakenNanoTime(System.nanoTime());
@@ -174,16 +301,26 @@ public class ConnectionFactory implements ViburObjectFactory {
 
     private void clearTracking(ConnHolder connHolder) {
         if (config.isPoolEnableConnectionTracking()) {
-            connHolder.setTakenNanoTime(0);
-            connHolder.setLastAccessNanoTime(0);
-            connHolder.setProxyConnection(null);
-            connHolder.setThread(null);
-            connHolder.setLocation(null);
+            connHolder.clearTracking();
         }
     }
 
     @Override
-    public void destroy(ConnHolder connHolder) {
+    public void destroy(final ConnHolder connHolder) {
+        if (closer == null) {
+            doDestroy(connHolder);
+            return;
+        }
+
+        closer.execute(new Runnable() {
+            @Override
+            public void run() {
+                doDestroy(connHolder);
+            }
+        });
+    }
+
+    private void doDestroy(ConnHolder connHolder) {
         Connection rawConnection = connHolder.rawConnection();
         logger.debug("Destroying rawConnection {}", rawConnection);
         closeStatements(rawConnection);
@@ -191,13 +328,63 @@ public class ConnectionFactory implements ViburObjectFactory {
         Hook.DestroyConnection[] onDestroy = connHooksAccessor.onDestroy();
         long startTime = onDestroy.length == 0 ? 0 : System.nanoTime();
 
+        ScheduledFuture<?> abort = null;
+        if (closer != null) {
+            if (config.isUseNetworkTimeout()) {
+                setCloseTimeout(rawConnection);
+            }
+            else {
+                abort = scheduleAbort(rawConnection);
+            }
+        }
         quietClose(rawConnection);
+        if (abort != null) {
+            abort.cancel(false);
+        }
+        config.getMetrics().recordDestruction();
         long takenNanos = onDestroy.length == 0 ? 0 : System.nanoTime() - startTime;
         for (Hook.DestroyConnection hook : onDestroy) {
             hook.on(rawConnection, takenNanos);
         }
     }
 
+    private void setCloseTimeout(Connection rawConnection) {
+        try {
+            rawConnection.setNetworkTimeout(config.getNetworkTimeoutExecutor(),
+                    (int) SECONDS.toMillis(config.getValidateTimeoutInSeconds()));
+        } catch (SQLException e) {
+            logger.debug("Couldn't set the close timeout of rawConnection {}", rawConnection, e);
+        }
+    }
+
+    /**
+     * Schedules the abort of the given connection if its closing does not complete within the
+     * {@link ViburConfig#validateTimeoutInSeconds validateTimeoutInSeconds}, so that the closing of connections to
+     * an unresponsive database does not hang the closer threads even when {@code setNetworkTimeout} is not used.
+     */
+    private ScheduledFuture<?> scheduleAbort(final Connection rawConnection) {
+        final int timeoutSeconds = config.getValidateTimeoutInSeconds();
+        if (timeoutSeconds <= 0) {
+            return null;
+        }
+        try {
+            return closeWatchdog.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    logger.debug("Aborting rawConnection {} whose closing did not complete within {} seconds",
+                            rawConnection, timeoutSeconds);
+                    try {
+                        rawConnection.abort(SYNCHRONOUS_EXECUTOR);
+                    } catch (SQLException | RuntimeException | AbstractMethodError e) {
+                        logger.debug("Couldn't abort rawConnection {}", rawConnection, e);
+                    }
+                }
+            }, timeoutSeconds, SECONDS);
+        } catch (RejectedExecutionException e) { // the factory was terminated
+            return null;
+        }
+    }
+
     private void closeStatements(Connection rawConnection) {
         if (config.getStatementCache() != null) {
             config.getStatementCache().removeAll(rawConnection);
@@ -0,0 +1,285 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vibur.dbcp.ViburConfig;
+import org.vibur.objectpool.BasePool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.vibur.dbcp.util.JdbcUtils.validate;
+import static org.vibur.dbcp.util.ViburUtils.getPoolName;
+
+/**
+ * Periodically validates the idle connections in the pool, so that the validation of the connections which have
+ * stayed idle for longer than {@link ViburConfig#connectionIdleLimitInSeconds connectionIdleLimitInSeconds} is
+ * done in the background rather than by the application threads calling {@code getConnection()}. Every
+ * {@link ViburConfig#connectionKeepAliveIntervalInSeconds connectionKeepAliveIntervalInSeconds}, each idle
+ * connection which has not been used or validated during the last interval is validated using the
+ * {@link ViburConfig#testConnectionQuery testConnectionQuery}. A valid connection is stamped as freshly validated
+ * and returned to the pool, and an invalid one is closed and replaced in the background via the
+ * {@link ConnectionProvisioner}. The periodic validation also keeps the idle connections alive, if they would be
+ * otherwise closed by the database or by a firewall in front of it.
+ *
+ * <p>Each pass takes the idle connections out of the pool one at a time, returns the ones which were used or
+ * validated recently right away, in their original order, and collects the stale ones in batches of
+ * {@link ViburConfig#connectionKeepAliveThreads connectionKeepAliveThreads} connections, which are validated in
+ * parallel. Each valid connection is returned to the pool as soon as its validation completes, and the connections
+ * which have failed the validation are evicted at the end of their batch, after which the pool's waiters, if any,
+ * are served. Thus, only a few idle connections are out of the pool at any time. The whole pass is bounded by one
+ * deadline of {@link ViburConfig#validateTimeoutInSeconds validateTimeoutInSeconds} (or of the keep-alive interval,
+ * if the former is {@code 0}); the connections whose validation has not completed by the deadline are evicted, and
+ * the pass stops, leaving the not yet inspected connections for the next pass. Thus, after a network failure
+ * the broken idle connections are evicted within one validation timeout, rather than one after another.
+ *
+ * <p>The idle connections are taken and returned via {@link InspectableCollection#takeIdle} and
+ * {@link InspectableCollection#restoreIdle}. While a connection is validated it is not available in the pool, and
+ * it still counts towards the pool max size, so the pool cannot grow past its max size by creating new connections
+ * on demand in the meantime.
+ *
+ * @author Simeon Malchev
+ */
+public class ConnectionKeepAlive {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionKeepAlive.class);
+
+    private final ViburConfig config;
+    private final BasePool pool;
+    private final InspectableCollection inspectableCollection;
+    private final ConnectionProvisioner provisioner;
+    private final ScheduledThreadPoolExecutor executor;
+    private final ThreadPoolExecutor validator;
+
+    private final AtomicLong validations = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+
+    /**
+     * Instantiates the keep-alive.
+     *
+     * @param config the ViburConfig from which will initialize
+     * @param pool the pool
+     * @param inspectableCollection the pool's collection, through which the idle connections will be taken for
+     *                              validation
+     * @param provisioner the pool's provisioner, through which the evicted connections will be replaced
+     */
+    public ConnectionKeepAlive(final ViburConfig config, BasePool pool,
+                               InspectableCollection inspectableCollection, ConnectionProvisioner provisioner) {
+        this.config = config;
+        this.pool = requireNonNull(pool);
+        this.inspectableCollection = requireNonNull(inspectableCollection);
+        this.provisioner = requireNonNull(provisioner);
+        ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, ConnectionKeepAlive.class.getSimpleName() + " for pool " + config.getName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        this.executor = new ScheduledThreadPoolExecutor(1, threadFactory);
+        int threads = config.getConnectionKeepAliveThreads();
+        this.validator = new ThreadPoolExecutor(threads, threads, 60, SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory);
+        this.validator.allowCoreThreadTimeOut(true);
+    }
+
+    public void start() {
+        long intervalSeconds = config.getConnectionKeepAliveIntervalInSeconds();
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    validateIdle();
+                } catch (RuntimeException e) {
+                    logger.warn("While validating the idle connections of pool {}", getPoolName(config), e);
+                }
+            }
+        }, intervalSeconds, intervalSeconds, SECONDS);
+    }
+
+    public void terminate() {
+        executor.shutdownNow();
+        validator.shutdownNow();
+    }
+
+    /**
+     * Returns the total number of the idle connections validated in the background.
+     */
+    public long getValidations() {
+        return validations.get();
+    }
+
+    /**
+     * Returns the total number of the idle connections closed because they failed the background validation.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Validates the currently idle connections which have not been used or validated during the last
+     * keep-alive interval.
+     *
+     * @return the number of the evicted connections
+     */
+    int validateIdle() {
+        int intervalSeconds = config.getConnectionKeepAliveIntervalInSeconds();
+        long staleNanoTime = System.nanoTime() - SECONDS.toNanos(intervalSeconds);
+        int deadlineSeconds = config.getValidateTimeoutInSeconds() > 0 ? config.getValidateTimeoutInSeconds() : intervalSeconds;
+        long deadlineNanoTime = System.nanoTime() + SECONDS.toNanos(deadlineSeconds);
+        int batchSize = config.getConnectionKeepAliveThreads();
+
+        int remaining = pool.remainingCreated(); // each idle connection is inspected at most once
+        List<ConnHolder> stale = new ArrayList<>(batchSize);
+        int evicted = 0;
+        boolean exhausted = false;
+        while (remaining > 0 && !exhausted && !pool.isTerminated() && deadlineNanoTime - System.nanoTime() > 0) {
+            for (; stale.size() < batchSize && remaining > 0; remaining--) {
+                ConnHolder connHolder = inspectableCollection.takeIdle();
+                if (connHolder == null) {
+                    exhausted = true;
+                    break;
+                }
+                if (connHolder.getRestoredNanoTime() - staleNanoTime > 0) { // used or validated recently
+                    inspectableCollection.restoreIdle(connHolder); // taken from the tail and restored to the head
+                }
+                else {
+                    stale.add(connHolder);
+                }
+            }
+            if (!stale.isEmpty()) {
+                evicted += evict(validateBatch(stale, deadlineNanoTime, deadlineSeconds));
+                stale.clear();
+            }
+            inspectableCollection.serveWaiters();
+        }
+
+        if (evicted > 0) {
+            evictions.addAndGet(evicted);
+            logger.debug("Pool {}, evicted {} idle connections which failed validation", getPoolName(config), evicted);
+        }
+        return evicted;
+    }
+
+    /**
+     * Validates the given batch of stale connections in parallel, and waits for the validations to complete, but not
+     * after the given deadline.
+     *
+     * @return the connections which have failed the validation, or whose validation has not completed by the deadline
+     */
+    private Queue<ConnHolder> validateBatch(List<ConnHolder> stale, long deadlineNanoTime, int deadlineSeconds) {
+        Queue<ConnHolder> broken = new ConcurrentLinkedQueue<>();
+        CountDownLatch completed = new CountDownLatch(stale.size());
+        List<Validation> pending = new ArrayList<>(stale.size());
+        for (ConnHolder connHolder : stale) {
+            Validation validation = new Validation(connHolder, broken, completed);
+            pending.add(validation);
+            try {
+                validator.execute(validation);
+            } catch (RejectedExecutionException ignored) { // the keep-alive was terminated
+                validation.run();
+            }
+        }
+
+        try {
+            completed.await(deadlineNanoTime - System.nanoTime(), NANOSECONDS);
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt(); // the keep-alive was terminated, evicts what is not validated yet
+        }
+        for (Validation validation : pending) {
+            if (validation.abandon()) { // the validation has not completed by the deadline
+                logger.debug("Couldn't validate idle rawConnection {} within {} seconds",
+                        validation.connHolder.rawConnection(), deadlineSeconds);
+                broken.offer(validation.connHolder);
+            }
+        }
+        return broken;
+    }
+
+    private int evict(Queue<ConnHolder> broken) {
+        int evicted = 0;
+        for (ConnHolder connHolder : broken) {
+            inspectableCollection.retireIdle(connHolder);
+            evicted++;
+        }
+        for (int i = 0; i < evicted; i++) {
+            provisioner.provisionSpare();
+        }
+        return evicted;
+    }
+
+    private void restoreValidated(ConnHolder connHolder) {
+        connHolder.setRestoredNanoTime(System.nanoTime());
+        inspectableCollection.restoreIdle(connHolder);
+    }
+
+    private final class Validation implements Runnable {
+        private final ConnHolder connHolder;
+        private final Queue<ConnHolder> broken;
+        private final CountDownLatch completed;
+        private final AtomicBoolean claimed = new AtomicBoolean(false); // the result is claimed either by run() or by abandon()
+
+        private Validation(ConnHolder connHolder, Queue<ConnHolder> broken, CountDownLatch completed) {
+            this.connHolder = connHolder;
+            this.broken = broken;
+            this.completed = completed;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (claimed.get()) {
+                    return; // abandoned before started
+                }
+                validations.incrementAndGet();
+                boolean valid = validate(connHolder.rawConnection(), config);
+                if (!claimed.compareAndSet(false, true)) {
+                    return; // abandoned while in progress, the connection is evicted
+                }
+                if (valid) {
+                    restoreValidated(connHolder);
+                }
+                else {
+                    logger.debug("Couldn't validate idle rawConnection {}", connHolder.rawConnection());
+                    broken.offer(connHolder);
+                }
+            } finally {
+                completed.countDown();
+            }
+        }
+
+        private boolean abandon() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vibur.dbcp.ViburConfig;
+import org.vibur.objectpool.BasePool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.vibur.dbcp.util.ViburUtils.getPoolName;
+
+/**
+ * Periodically retires the idle connections in the pool which have exceeded their maximum lifetime, see
+ * {@link ViburConfig#connectionMaxLifetimeInSeconds connectionMaxLifetimeInSeconds}. The taken connections are
+ * retired when restored to the pool, and the idle connections which have expired between two sweeps are retired
+ * when taken. Each connection retired by the sweeper is replaced in the background via the
+ * {@link ConnectionProvisioner}, and because the lifetime of each connection is randomly shortened by up to 10%
+ * when the connection is created, the connections created at the same time are retired and replaced at different
+ * times.
+ *
+ * <p>The sweeper takes the idle connections out of the pool via {@link InspectableCollection#takeIdle}, which never
+ * creates a new connection and does not let the pool grow past its max size while the connections are out. The
+ * idle connections are inspected in small batches, so that only a few of them are out of the pool at any time.
+ * The expired connections are closed right away, and the connections which have not expired are returned to the
+ * pool, in their original order, right after the inspection of their batch, after which the pool's waiters,
+ * if any, are served.
+ *
+ * @author Simeon Malchev
+ */
+public class ConnectionLifetimeSweeper {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionLifetimeSweeper.class);
+
+    private static final long MAX_SWEEP_INTERVAL_SECONDS = 30;
+    private static final int BATCH_SIZE = 16;
+
+    private final ViburConfig config;
+    private final BasePool pool;
+    private final InspectableCollection inspectableCollection;
+    private final ConnectionProvisioner provisioner;
+    private final ScheduledThreadPoolExecutor executor;
+
+    /**
+     * Instantiates the sweeper.
+     *
+     * @param config the ViburConfig from which will initialize
+     * @param pool the pool
+     * @param inspectableCollection the pool's collection, through which the idle connections will be inspected
+     * @param provisioner the pool's provisioner, through which the retired connections will be replaced
+     */
+    public ConnectionLifetimeSweeper(final ViburConfig config, BasePool pool,
+                                     InspectableCollection inspectableCollection, ConnectionProvisioner provisioner) {
+        this.config = config;
+        this.pool = requireNonNull(pool);
+        this.inspectableCollection = requireNonNull(inspectableCollection);
+        this.provisioner = requireNonNull(provisioner);
+        this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, ConnectionLifetimeSweeper.class.getSimpleName() + " for pool " + config.getName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void start() {
+        long intervalSeconds = Math.max(1, Math.min(MAX_SWEEP_INTERVAL_SECONDS, config.getConnectionMaxLifetimeInSeconds() / 20));
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sweep();
+                } catch (RuntimeException e) {
+                    logger.warn("While sweeping pool {}", getPoolName(config), e);
+                }
+            }
+        }, intervalSeconds, intervalSeconds, SECONDS);
+    }
+
+    public void terminate() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Retires the currently idle connections which have exceeded their maximum lifetime.
+     *
+     * @return the number of the retired connections
+     */
+    int sweep() {
+        long currentNanoTime = System.nanoTime();
+        int remaining = pool.remainingCreated(); // each idle connection is inspected at most once
+        List<ConnHolder> alive = new ArrayList<>(BATCH_SIZE);
+        int retired = 0;
+        boolean exhausted = false;
+        while (remaining > 0 && !exhausted && !pool.isTerminated()) {
+            try {
+                for (int i = Math.min(BATCH_SIZE, remaining); i > 0; i--, remaining--) {
+                    ConnHolder connHolder = inspectableCollection.takeIdle();
+                    if (connHolder == null) {
+                        exhausted = true;
+                        break;
+                    }
+                    if (connHolder.isExpired(currentNanoTime)) {
+                        inspectableCollection.retireIdle(connHolder);
+                        retired++;
+                    }
+                    else {
+                        alive.add(connHolder);
+                    }
+                }
+            } finally {
+                for (ConnHolder connHolder : alive) { // the idle connections are taken from the tail and restored to the head
+                    inspectableCollection.restoreIdle(connHolder);
+                }
+                alive.clear();
+            }
+            inspectableCollection.serveWaiters();
+        }
+
+        if (retired > 0) {
+            logger.debug("Pool {}, retired {} connections which exceeded their max lifetime", getPoolName(config), retired);
+            for (int i = 0; i < retired; i++) {
+                provisioner.provisionSpare();
+            }
+        }
+        return retired;
+    }
+}
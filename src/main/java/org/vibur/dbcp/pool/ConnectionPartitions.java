@@ -0,0 +1,243 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.vibur.dbcp.ViburConfig;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+import static java.lang.String.format;
+
+/**
+ * Divides the capacity of the pool between named partitions (bulkheads), as configured via
+ * {@link ViburConfig#poolPartitions poolPartitions}. Each partition has a guaranteed minimum and a maximum number
+ * of connections which it can take from the pool at the same time. The guaranteed minimums of all partitions are
+ * reserved, and a partition can take more connections than its minimum only by borrowing from the capacity of
+ * the pool which is not reserved at the moment, i.e., from the idle capacity of the other partitions beyond their
+ * minimums. The calls to {@code getConnection()} without a partition use an implicit default partition with
+ * a minimum of {@code 0} and a maximum of {@code poolMaxSize}.
+ *
+ * <p>This class is only the admission control in front of the pool; the connections themselves are shared by all
+ * partitions. A connection slot is acquired and released without locking, via a counter of the taken slots per
+ * partition and a counter of the reserved capacity of the pool. Only the threads which have to wait for a slot
+ * take a lock, and each of them waits on the condition of its own partition; a release signals one waiter of its
+ * own partition, and if the release has freed capacity which is not reserved, also one waiter of each other
+ * partition which has waiters.
+ *
+ * <p>The asynchronous {@code getConnectionAsync} is not supported when partitions are configured, as its requests
+ * are completed by the threads which restore connections to the pool, which cannot wait for a partition slot.
+ *
+ * @author Simeon Malchev
+ */
+public class ConnectionPartitions {
+
+    static final String DEFAULT_PARTITION = "";
+
+    private static final Pattern whitespaces = Pattern.compile("\\s");
+
+    private final int maxSize;
+    private final Map<String, Partition> partitions = new LinkedHashMap<>();
+
+    private final AtomicInteger reserved = new AtomicInteger(0); // the sum of max(taken, min) over all partitions
+    private final AtomicInteger waiting = new AtomicInteger(0); // the number of the threads waiting for a slot
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Instantiates the partitions from a comma separated list of {@code name:min:max} definitions.
+     *
+     * @param definitions the partitions definitions
+     * @param maxSize the pool max size
+     * @throws IllegalArgumentException if the definitions are malformed, or if the sum of the partition minimums
+     *      exceeds the pool max size
+     */
+    public ConnectionPartitions(String definitions, int maxSize) {
+        this.maxSize = maxSize;
+        int minimums = 0;
+        for (String definition : whitespaces.matcher(definitions).replaceAll("").split(",")) {
+            String[] parts = definition.split(":");
+            if (parts.length != 3 || parts[0].isEmpty()) {
+                throw new IllegalArgumentException("Malformed partition definition: " + definition);
+            }
+            Partition partition = new Partition(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+            if (partition.min < 0 || partition.min > partition.max || partition.max > maxSize
+                    || partitions.put(partition.name, partition) != null) {
+                throw new IllegalArgumentException("Illegal partition definition: " + definition);
+            }
+            minimums += partition.min;
+        }
+        if (minimums > maxSize) {
+            throw new IllegalArgumentException(format("The partitions minimums sum of %d exceeds the pool max size of %d",
+                    minimums, maxSize));
+        }
+        reserved.set(minimums);
+        partitions.put(DEFAULT_PARTITION, new Partition(DEFAULT_PARTITION, 0, maxSize));
+    }
+
+    /**
+     * Returns the partition with the given name, or {@code null} if there is no such partition.
+     */
+    Partition get(String name) {
+        return partitions.get(name);
+    }
+
+    /**
+     * Acquires one connection slot for the given partition, waiting up to the given timeout if the partition has
+     * reached its maximum, or if there is no unreserved capacity in the pool.
+     *
+     * @param partition the partition
+     * @param timeoutNanos the maximum time to wait, if {@code 0} waits indefinitely
+     * @return {@code true} if the slot was acquired, {@code false} if the timeout has expired
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     */
+    boolean acquire(Partition partition, long timeoutNanos) throws InterruptedException {
+        if (partition.tryAcquire()) {
+            return true;
+        }
+
+        lock.lockInterruptibly();
+        waiting.incrementAndGet(); // before the retry, so that a concurrent release cannot miss this thread
+        partition.waiting++;
+        try {
+            while (!partition.tryAcquire()) {
+                if (timeoutNanos == 0) {
+                    partition.released.await();
+                } else if ((timeoutNanos = partition.released.awaitNanos(timeoutNanos)) <= 0) {
+                    return partition.tryAcquire(); // does not waste a signal received right before the timeout
+                }
+            }
+            return true;
+        } finally {
+            partition.waiting--;
+            waiting.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    void release(Partition partition) {
+        boolean unreserved = partition.release();
+        if (waiting.get() == 0) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            if (partition.waiting > 0) {
+                partition.released.signal();
+            }
+            if (unreserved) { // the other partitions can borrow the freed capacity
+                for (Partition other : partitions.values()) {
+                    if (other != partition && other.waiting > 0) {
+                        other.released.signal();
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the current usage of the partitions in the form {@code name=taken/min..max}, comma separated;
+     * the default partition is listed as {@code (default)}.
+     */
+    public String usage() {
+        StringBuilder builder = new StringBuilder();
+        for (Partition partition : partitions.values()) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(partition.name.isEmpty() ? "(default)" : partition.name).append('=')
+                    .append(partition.taken.get()).append('/').append(partition.min).append("..").append(partition.max);
+        }
+        return builder.toString();
+    }
+
+    final class Partition {
+        private final String name;
+        private final int min;
+        private final int max;
+        private final AtomicInteger taken = new AtomicInteger(0);
+
+        private final Condition released = lock.newCondition();
+        private int waiting = 0; // guarded by the lock
+
+        private Partition(String name, int min, int max) {
+            this.name = name;
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * Takes a slot without waiting. A slot above the partition minimum is reserved from the unreserved capacity
+         * of the pool before it is taken, so that the reserved capacity is never underestimated.
+         */
+        private boolean tryAcquire() {
+            for (;;) {
+                int t = taken.get();
+                if (t >= max) {
+                    return false;
+                }
+                if (t < min) { // already reserved by the partition minimum
+                    if (taken.compareAndSet(t, t + 1)) {
+                        return true;
+                    }
+                    continue;
+                }
+                if (!reserve()) {
+                    return false;
+                }
+                if (taken.compareAndSet(t, t + 1)) {
+                    return true;
+                }
+                reserved.decrementAndGet(); // and tries again
+            }
+        }
+
+        private boolean reserve() {
+            for (;;) {
+                int r = reserved.get();
+                if (r >= maxSize) {
+                    return false;
+                }
+                if (reserved.compareAndSet(r, r + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Releases a slot, and returns {@code true} if the slot was above the partition minimum, i.e., if the
+         * released slot has freed capacity of the pool which is not reserved.
+         */
+        private boolean release() {
+            if (taken.decrementAndGet() >= min) {
+                reserved.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        String name() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,414 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vibur.dbcp.ViburConfig;
+import org.vibur.dbcp.ViburDBCPException;
+import org.vibur.objectpool.BasePool;
+import org.vibur.objectpool.PoolService;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.vibur.dbcp.ViburConfig.SQLSTATE_CONN_INIT_ERROR;
+import static org.vibur.dbcp.ViburConfig.SQLSTATE_TIMEOUT_ERROR;
+import static org.vibur.dbcp.util.JdbcUtils.validate;
+import static org.vibur.dbcp.util.ViburUtils.getPoolName;
+
+/**
+ * A decorator of the pool's {@link ViburObjectFactory} which creates connections in the background, ahead of
+ * demand. Every time a connection is taken from the pool, the provisioner checks whether the number of idle
+ * connections in the pool plus the number of already provisioned (spare) connections has fallen below the
+ * configured {@link ViburConfig#poolProvisioningHeadroom poolProvisioningHeadroom}, and if so, creates more
+ * spare connections via a small executor of up to
+ * {@link ViburConfig#poolProvisioningThreads poolProvisioningThreads} threads.
+ *
+ * <p>When the pool needs to grow, it calls the {@link #create()} method of this factory, which hands out a spare
+ * connection if there is one, and otherwise creates the connection inline in the calling thread as usual. This way
+ * the pool's own accounting of the created and taken connections is not affected, and the borrowing thread
+ * almost never pays the cost of establishing a new physical connection. The sum of the connections created by the
+ * pool and the spare connections never exceeds the pool max size at the moment when a spare is added.
+ *
+ * <p>The provisioner is also used for the parallel creation of the pool initial connections, see
+ * {@link #provisionInitial}, and when the pool is warmed up in the background, for the creation of the first
+ * connection, see {@link #provisionFirst}, and of the rest of the initial connections, see {@link #provisionSpare}.
+ *
+ * @author Simeon Malchev
+ */
+public class ConnectionProvisioner implements ViburObjectFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionProvisioner.class);
+
+    private final ViburConfig config;
+    private final ViburObjectFactory factory;
+    private final String poolName;
+    private volatile int headroom;
+    private final int threads;
+    private final ThreadPoolExecutor executor;
+
+    private final Queue<ConnHolder> spares = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger sparesCount = new AtomicInteger(0);
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+
+    private volatile PoolService<ConnHolder> pool = null;
+    private volatile InspectableCollection inspectableCollection = null;
+    private volatile boolean terminated = false;
+
+    /**
+     * Instantiates the provisioner.
+     *
+     * @param config the ViburConfig from which will initialize
+     * @param factory the decorated connection factory
+     */
+    public ConnectionProvisioner(final ViburConfig config, ViburObjectFactory factory) {
+        this.config = config;
+        this.factory = requireNonNull(factory);
+        this.poolName = config.getName();
+        this.headroom = config.getPoolProvisioningHeadroom();
+        this.threads = config.getPoolProvisioningThreads();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, ConnectionProvisioner.class.getSimpleName() + " for pool " + config.getName());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Creates one spare connection in the calling thread and validates it via the
+     * {@link ViburConfig#testConnectionQuery testConnectionQuery}. This spare connection is then picked up by the
+     * pool's initial fill, which is limited to one connection when the pool is warmed up in the background.
+     *
+     * @throws ViburDBCPException if cannot create or validate the connection
+     */
+    public void provisionFirst() throws ViburDBCPException {
+        ConnHolder connHolder = factory.create();
+        if (!validate(connHolder.rawConnection(), config)) {
+            factory.destroy(connHolder);
+            throw new ViburDBCPException(new SQLException(format("Pool %s, couldn't validate the first connection.",
+                    getPoolName(config)), SQLSTATE_CONN_INIT_ERROR));
+        }
+        sparesCount.incrementAndGet();
+        spares.offer(connHolder);
+    }
+
+    /**
+     * Creates the given number of spare connections concurrently, using up to {@code parallelism} threads, and
+     * returns when all of them are created. These spare connections are then picked up by the pool's initial
+     * fill. If the creation of any connection fails, the creation of the remaining connections is cancelled,
+     * the already created connections are destroyed, and the failure is rethrown.
+     *
+     * @param count the number of connections to create
+     * @param parallelism the maximum number of connections to be created concurrently
+     * @throws ViburDBCPException if cannot create any of the connections
+     */
+    public void provisionInitial(int count, int parallelism) throws ViburDBCPException {
+        if (count <= 0) {
+            return;
+        }
+
+        ExecutorService initExecutor = Executors.newFixedThreadPool(Math.min(count, parallelism), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Initial fill for pool " + poolName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        CompletionService<Void> completionService = new ExecutorCompletionService<>(initExecutor);
+        List<Future<Void>> futures = new ArrayList<>(count);
+        final AtomicBoolean failed = new AtomicBoolean(false); // also used as a lock, see below
+        boolean success = false;
+        try {
+            for (int i = 0; i < count; i++) {
+                futures.add(completionService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws ViburDBCPException {
+                        ConnHolder connHolder = factory.create();
+                        synchronized (failed) {
+                            if (!failed.get()) {
+                                sparesCount.incrementAndGet();
+                                spares.offer(connHolder);
+                                return null;
+                            }
+                        }
+                        factory.destroy(connHolder); // another creation has failed in the meantime
+                        return null;
+                    }
+                }));
+            }
+
+            for (int i = 0; i < count; i++) {
+                completionService.take().get();
+            }
+            success = true;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ViburDBCPException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof ViburDBCPException ? (ViburDBCPException) cause : new ViburDBCPException(cause);
+        } finally {
+            if (!success) { // fails fast, i.e., does not wait for the remaining in-progress creations
+                synchronized (failed) {
+                    failed.set(true);
+                }
+                for (Future<Void> future : futures) {
+                    future.cancel(false);
+                }
+                ConnHolder spare;
+                while ((spare = pollSpare()) != null) {
+                    factory.destroy(spare);
+                }
+            }
+            initExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Starts the background provisioning for the given pool. Must be called once, after the pool is created.
+     *
+     * @param pool the pool that uses this factory
+     * @param inspectableCollection the pool's collection if its idle connections are inspected, can be {@code null}
+     */
+    public void start(PoolService<ConnHolder> pool, InspectableCollection inspectableCollection) {
+        this.inspectableCollection = inspectableCollection;
+        this.pool = requireNonNull(pool);
+    }
+
+    public void terminate() {
+        terminated = true;
+        executor.shutdownNow();
+        ConnHolder spare;
+        while ((spare = pollSpare()) != null) {
+            factory.destroy(spare);
+        }
+    }
+
+    /**
+     * Sets the number of idle connections, including the spare connections, below which the provisioner will
+     * create new spare connections; see also {@link AdaptivePoolSizer}.
+     */
+    public void setHeadroom(int headroom) {
+        this.headroom = headroom;
+    }
+
+    /**
+     * Starts the creation of spare connections if the number of idle connections has fallen below the headroom.
+     */
+    public void provision() {
+        provisionIfNeeded();
+    }
+
+    /**
+     * Creates one spare connection in the background regardless of the headroom, for example, to replace
+     * a connection retired by the {@link ConnectionLifetimeSweeper}. The pool max size is still respected.
+     */
+    public void provisionSpare() {
+        if (pool == null || terminated) {
+            return;
+        }
+        inFlight.incrementAndGet();
+        try {
+            executor.execute(new Provision());
+        } catch (RejectedExecutionException e) { // the provisioner was terminated
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of the currently available spare connections, i.e., the connections that are created in
+     * the background but are not yet handed out to the pool.
+     */
+    public int spares() {
+        return sparesCount.get();
+    }
+
+    @Override
+    public ConnHolder create() throws ViburDBCPException {
+        InspectableCollection inspectableCollection = this.inspectableCollection;
+        if (inspectableCollection != null && inspectableCollection.isOverMaxSize()) { // the pool reverts its count
+            throw new ViburDBCPException(new SQLTimeoutException(format(
+                    "Pool %s, all connections are taken or inspected.", poolName), SQLSTATE_TIMEOUT_ERROR));
+        }
+        ConnHolder spare;
+        while ((spare = pollSpare()) != null) {
+            long currentNanoTime = System.nanoTime();
+            if (!spare.isExpired(currentNanoTime) && revalidate(spare, currentNanoTime)) {
+                return spare;
+            }
+            factory.destroy(spare); // expired, or invalid after a long idle time or a server-wide critical SQL exception
+        }
+        return factory.create();
+    }
+
+    /**
+     * Validates the given spare connection if it was created before the last server-wide critical SQL exception,
+     * or if it has stayed unused for longer than the {@link ViburConfig#connectionIdleLimitInSeconds
+     * connectionIdleLimitInSeconds}, the same way as the factory's {@code readyToTake} does for the idle connections
+     * in the pool. The spare connections which are handed out to the pool do not go through {@code readyToTake}.
+     */
+    private boolean revalidate(ConnHolder spare, long currentNanoTime) {
+        int version = factory.version();
+        if (spare.version() == version && !isIdleTooLong(spare, currentNanoTime)) {
+            return true;
+        }
+        if (!validate(spare.rawConnection(), config)) {
+            logger.debug("Couldn't validate spare rawConnection {}", spare.rawConnection());
+            return false;
+        }
+        spare.setVersion(version);
+        spare.setRestoredNanoTime(currentNanoTime);
+        return true;
+    }
+
+    private boolean isIdleTooLong(ConnHolder spare, long currentNanoTime) {
+        int idleLimit = config.getConnectionIdleLimitInSeconds();
+        return idleLimit >= 0
+                && NANOSECONDS.toSeconds(currentNanoTime - spare.getRestoredNanoTime()) >= idleLimit
+                && !spare.isTrusted(currentNanoTime, MILLISECONDS.toNanos(config.getConnectionValidationTrustWindowInMs()));
+    }
+
+    @Override
+    public ConnHolder create(Connector connector) throws ViburDBCPException {
+        return factory.create(connector);
+    }
+
+    @Override
+    public boolean readyToTake(ConnHolder connHolder) {
+        if (!factory.readyToTake(connHolder)) {
+            return false;
+        }
+        provisionIfNeeded();
+        return true;
+    }
+
+    @Override
+    public boolean readyToRestore(ConnHolder connHolder) {
+        return factory.readyToRestore(connHolder);
+    }
+
+    @Override
+    public void destroy(ConnHolder connHolder) {
+        factory.destroy(connHolder);
+    }
+
+    @Override
+    public int version() {
+        return factory.version();
+    }
+
+    @Override
+    public boolean compareAndSetVersion(int expect, int update) {
+        return factory.compareAndSetVersion(expect, update);
+    }
+
+    private ConnHolder pollSpare() {
+        ConnHolder spare = spares.poll();
+        if (spare != null) {
+            sparesCount.decrementAndGet();
+        }
+        return spare;
+    }
+
+    private void provisionIfNeeded() {
+        BasePool pool = this.pool;
+        if (pool == null || terminated) {
+            return;
+        }
+
+        for (;;) {
+            int current = inFlight.get();
+            if (current >= threads || !needsProvisioning(pool, current)) {
+                return;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                try {
+                    executor.execute(new Provision());
+                } catch (RejectedExecutionException e) { // the provisioner was terminated
+                    inFlight.decrementAndGet();
+                    return;
+                }
+            }
+        }
+    }
+
+    private boolean needsProvisioning(BasePool pool, int inFlight) {
+        int provisioned = sparesCount.get() + inFlight;
+        return pool.remainingCreated() + provisioned < headroom
+                && pool.createdTotal() + provisioned < pool.maxSize();
+    }
+
+    private final class Provision implements Runnable {
+        @Override
+        public void run() {
+            try {
+                BasePool pool = ConnectionProvisioner.this.pool;
+                if (terminated || pool.createdTotal() + sparesCount.get() >= pool.maxSize()) {
+                    return;
+                }
+
+                ConnHolder spare = factory.create();
+                if (terminated || pool.createdTotal() + sparesCount.get() >= pool.maxSize()) {
+                    factory.destroy(spare); // the pool has grown up to its max size in the meantime
+                    return;
+                }
+                sparesCount.incrementAndGet();
+                spares.offer(spare);
+                if (terminated) {
+                    terminate(); // destroys the just added spare, in case of a concurrent termination
+                }
+
+            } catch (ViburDBCPException e) {
+                logger.debug("Couldn't provision a spare connection", e);
+            } catch (RuntimeException e) {
+                logger.warn("Unexpected error while provisioning a spare connection for pool {}", poolName, e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+}
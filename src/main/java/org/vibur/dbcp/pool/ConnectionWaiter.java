@@ -0,0 +1,236 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vibur.dbcp.ViburDBCPException;
+import org.vibur.dbcp.ViburDataSource.ConnectionCallback;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.vibur.dbcp.util.JdbcUtils.chainSQLException;
+
+/**
+ * Represents a pending {@code getConnection} request, either an asynchronous one, see
+ * {@link org.vibur.dbcp.ViburDataSource#getConnectionAsync getConnectionAsync}, or a blocking one when
+ * {@link org.vibur.dbcp.ViburConfig#poolHandoff poolHandoff} is enabled. The waiter is completed at most
+ * once, either with a proxy Connection, with an SQLException, or by cancellation. The party that completes the
+ * waiter must first {@link #claim} it.
+ *
+ * @author Simeon Malchev
+ */
+class ConnectionWaiter implements Future<Connection> {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionWaiter.class);
+
+    private final ConnectionWaiters queue;
+    private final ConnectionCallback callback;
+    private final boolean async;
+    private final int priority;
+    private final long startNanoTime = System.nanoTime();
+
+    private final AtomicBoolean claimed = new AtomicBoolean(false);
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private volatile ConnHolder connHolder = null;
+    private volatile Connection connection = null;
+    private volatile SQLException exception = null;
+    private volatile ViburDBCPException createException = null; // set if the waiter failed because of a recoverable error
+    private volatile boolean cancelled = false;
+    private volatile Future<?> timeout = null;
+
+    // the state of the acquire retries, accessed only by the thread that has currently claimed the waiter
+    private int retries = 0;
+    private long retryDelayNanos = 0;
+    private SQLException retriesException = null;
+
+    ConnectionWaiter(ConnectionWaiters queue, ConnectionCallback callback, boolean async, int priority) {
+        this.queue = queue;
+        this.callback = callback;
+        this.async = async;
+        this.priority = priority;
+    }
+
+    boolean isAsync() {
+        return async;
+    }
+
+    int getPriority() {
+        return priority;
+    }
+
+    long getStartNanoTime() {
+        return startNanoTime;
+    }
+
+    void setTimeout(Future<?> timeout) {
+        this.timeout = timeout;
+        if (isDone()) {
+            timeout.cancel(false);
+        }
+    }
+
+    /**
+     * Atomically claims this waiter for completion. Returns {@code true} only once.
+     */
+    boolean claim() {
+        return !claimed.getAndSet(true);
+    }
+
+    /**
+     * Reverts a successful {@link #claim} which was not followed by a completion of this waiter, so that the waiter
+     * can be queued again.
+     */
+    void unclaim() {
+        claimed.set(false);
+    }
+
+    int getRetries() {
+        return retries;
+    }
+
+    /**
+     * Advances the retries counter and returns the delay before the next retry.
+     */
+    long nextRetry(AcquireRetryPolicy retryPolicy) {
+        retryDelayNanos = retryPolicy.nextDelayNanos(++retries, retryDelayNanos);
+        return retryDelayNanos;
+    }
+
+    /**
+     * Chains the given exception to the exceptions that have occurred on the previous attempts, and returns
+     * the chain.
+     */
+    SQLException chainException(SQLException exception) {
+        retriesException = chainSQLException(exception, retriesException);
+        return retriesException;
+    }
+
+    ConnHolder getConnHolder() {
+        return connHolder;
+    }
+
+    ViburDBCPException getCreateException() {
+        return createException;
+    }
+
+    void complete(ConnHolder connHolder, Connection connection) {
+        this.connHolder = connHolder;
+        this.connection = connection;
+        finish();
+        if (callback != null) {
+            try {
+                callback.onConnection(connection);
+            } catch (RuntimeException e) {
+                logger.warn("ConnectionCallback {} threw:", callback, e);
+            }
+        }
+    }
+
+    /**
+     * Completes this blocking waiter with a connection handed off by a restoring thread, without creating its proxy.
+     * The waiting thread validates the connection and creates the proxy by itself after it wakes up, so that the
+     * validation round trip is not made on the restoring thread.
+     */
+    void handOff(ConnHolder connHolder) {
+        this.connHolder = connHolder;
+        finish();
+    }
+
+    void fail(ViburDBCPException createException) {
+        this.createException = createException;
+        fail(createException.unwrapSQLException());
+    }
+
+    void fail(SQLException exception) {
+        this.exception = exception;
+        finish();
+        if (callback != null) {
+            try {
+                callback.onFailure(exception);
+            } catch (RuntimeException e) {
+                logger.warn("ConnectionCallback {} threw:", callback, e);
+            }
+        }
+    }
+
+    private void finish() {
+        done.countDown();
+        Future<?> t = timeout;
+        if (t != null) {
+            t.cancel(false);
+        }
+    }
+
+    /**
+     * Cancels this waiter if it is not completed yet, and removes it from the queue of the pending waiters. If the
+     * waiter is currently claimed by another party, waits until that party either completes the waiter, or reverts
+     * the claim, e.g., while waiting for an acquire retry. Note that the {@code mayInterruptIfRunning} parameter has no effect, as there is no thread running on behalf
+     * of the waiter.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        while (!claim()) {
+            if (isDone()) {
+                return false;
+            }
+            Thread.yield(); // the claim is held only for a short time
+        }
+        cancelled = true;
+        finish();
+        queue.remove(this);
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Override
+    public Connection get() throws InterruptedException, ExecutionException {
+        done.await();
+        return report();
+    }
+
+    @Override
+    public Connection get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return report();
+    }
+
+    private Connection report() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (exception != null) {
+            throw new ExecutionException(exception);
+        }
+        return connection;
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.vibur.dbcp.ViburConfig;
+
+import java.util.Collections;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * The queue of the pending {@link ConnectionWaiter}s. The waiters are grouped by their priority, and are served
+ * in FIFO order within the same priority, higher priorities first. To bound the starvation of the lower priorities,
+ * a waiter which has waited for longer than the
+ * {@link ViburConfig#poolPriorityStarvationBoundInMs poolPriorityStarvationBoundInMs} is served ahead of all
+ * waiters that have arrived after it, regardless of their priority.
+ *
+ * @author Simeon Malchev
+ */
+class ConnectionWaiters {
+
+    private final ViburConfig config;
+
+    private final ConcurrentMap<Integer, Deque<ConnectionWaiter>> levels =
+            new ConcurrentSkipListMap<>(Collections.<Integer>reverseOrder()); // the highest priority first
+
+    ConnectionWaiters(ViburConfig config) {
+        this.config = config;
+    }
+
+    void offer(ConnectionWaiter waiter) {
+        level(waiter.getPriority()).offerLast(waiter);
+    }
+
+    /**
+     * Queues the given waiter at the head of its priority level, i.e., the waiter keeps its place in the queue.
+     */
+    void offerFirst(ConnectionWaiter waiter) {
+        level(waiter.getPriority()).offerFirst(waiter);
+    }
+
+    boolean remove(ConnectionWaiter waiter) {
+        Deque<ConnectionWaiter> level = levels.get(waiter.getPriority());
+        return level != null && level.remove(waiter);
+    }
+
+    int size() {
+        int size = 0;
+        for (Deque<ConnectionWaiter> level : levels.values()) {
+            size += level.size();
+        }
+        return size;
+    }
+
+    boolean isEmpty() {
+        for (Deque<ConnectionWaiter> level : levels.values()) {
+            if (!level.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes and returns the next waiter to be served, or {@code null} if there are no waiters.
+     */
+    ConnectionWaiter poll() {
+        long starvationBoundNanos = MILLISECONDS.toNanos(config.getPoolPriorityStarvationBoundInMs());
+        for (;;) {
+            long nowNanoTime = System.nanoTime();
+            Deque<ConnectionWaiter> next = null;
+            long nextStartNanoTime = 0;
+            for (Deque<ConnectionWaiter> level : levels.values()) {
+                ConnectionWaiter head = level.peekFirst();
+                if (head == null) {
+                    continue;
+                }
+                long startNanoTime = head.getStartNanoTime();
+                if (next == null) { // the highest non-empty priority level
+                    next = level;
+                    nextStartNanoTime = startNanoTime;
+                    if (starvationBoundNanos <= 0) {
+                        break;
+                    }
+                }
+                else if (startNanoTime - nextStartNanoTime < 0 && nowNanoTime - startNanoTime >= starvationBoundNanos) {
+                    next = level; // a starving lower priority waiter which has arrived before the current candidate
+                    nextStartNanoTime = startNanoTime;
+                }
+            }
+
+            if (next == null) {
+                return null;
+            }
+            ConnectionWaiter waiter = next.pollFirst();
+            if (waiter != null) {
+                return waiter;
+            }
+            // else the level was emptied concurrently, try again
+        }
+    }
+
+    private Deque<ConnectionWaiter> level(int priority) {
+        Deque<ConnectionWaiter> level = levels.get(priority);
+        if (level == null) {
+            Deque<ConnectionWaiter> newLevel = new ConcurrentLinkedDeque<>();
+            level = levels.putIfAbsent(priority, newLevel);
+            if (level == null) {
+                level = newLevel;
+            }
+        }
+        return level;
+    }
+}
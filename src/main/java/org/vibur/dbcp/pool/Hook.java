@@ -140,6 +140,21 @@ public interface Hook {
         void on(TakenConnection[] takenConnections, long takenNanos);
     }
 
+    interface ValidateConnection extends Hook {
+        /**
+         * A programming hook that will be invoked on the raw JDBC Connection <i>after</i> it is validated via
+         * the {@link ViburConfig#testConnectionQuery testConnectionQuery}. Its execution should take as short time
+         * as possible.
+         *
+         * <p>This hook is not invoked if the {@code testConnectionQuery} is not set.
+         *
+         * @param rawConnection the just validated <b>raw</b> JDBC Connection
+         * @param valid {@code true} if the connection was successfully validated; {@code false} otherwise
+         * @param takenNanos the time taken to validate the connection in nanoseconds
+         */
+        void on(Connection rawConnection, boolean valid, long takenNanos);
+    }
+
 
     ///////////////////////////////////////////////////////////////////////////////////////////////
     // Invocation hooks:
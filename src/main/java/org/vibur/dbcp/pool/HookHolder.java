@@ -36,6 +36,10 @@ public final class HookHolder {
         return new InvocationHooksHolder();
     }
 
+    public static Hook.ValidateConnection[] onValidate(ConnHooks connHooks) { // for internal use only
+        return ((ConnHooksAccessor) connHooks).onValidate();
+    }
+
     ///////////////////////////////////////////////////////////////////////////////////////////////
     // The hooks collections interfaces:
 
@@ -45,6 +49,7 @@ public final class HookHolder {
         void addOnClose(Hook.CloseConnection hook);
         void addOnDestroy(Hook.DestroyConnection hook);
         void addOnTimeout(Hook.GetConnectionTimeout hook);
+        void addOnValidate(Hook.ValidateConnection hook);
     }
 
     interface ConnHooksAccessor { // for internal use only
@@ -53,6 +58,7 @@ public final class HookHolder {
         Hook.CloseConnection[] onClose();
         Hook.DestroyConnection[] onDestroy();
         Hook.GetConnectionTimeout[] onTimeout();
+        Hook.ValidateConnection[] onValidate();
     }
 
     public interface InvocationHooks {
@@ -96,6 +102,11 @@ public final class HookHolder {
          * as possible. */
         private Hook.GetConnectionTimeout[] onTimeout = {};
 
+        /** A list of programming {@linkplain Hook.ValidateConnection#on hooks} that will be invoked on the raw JDBC
+         * Connection <i>after</i> it is validated via the {@code testConnectionQuery}. Their execution should take
+         * as short time as possible. */
+        private Hook.ValidateConnection[] onValidate = {};
+
         @Override
         public void addOnInit(Hook.InitConnection hook) {
             onInit = addHook(onInit, hook);
@@ -121,6 +132,11 @@ public final class HookHolder {
             onTimeout = addHook(onTimeout, hook);
         }
 
+        @Override
+        public void addOnValidate(Hook.ValidateConnection hook) {
+            onValidate = addHook(onValidate, hook);
+        }
+
         @Override
         public Hook.InitConnection[] onInit() {
             return onInit;
@@ -145,6 +161,11 @@ public final class HookHolder {
         public Hook.GetConnectionTimeout[] onTimeout() {
             return onTimeout;
         }
+
+        @Override
+        public Hook.ValidateConnection[] onValidate() {
+            return onValidate;
+        }
     }
 
     private static class InvocationHooksHolder implements InvocationHooks, InvocationHooksAccessor {
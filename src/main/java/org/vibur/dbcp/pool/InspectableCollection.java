@@ -0,0 +1,226 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.vibur.dbcp.ViburConfig;
+import org.vibur.objectpool.PoolService;
+import org.vibur.objectpool.util.ConcurrentCollection;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * A decorator of the pool's {@link ConcurrentCollection} through which the background tasks that inspect the idle
+ * connections in the pool, i.e., the {@link ConnectionLifetimeSweeper} and the {@link ConnectionKeepAlive}, take
+ * the idle connections out of the pool and return them back. Used only when any of these tasks is enabled.
+ *
+ * <p>An idle connection is taken via {@link #takeIdle}, which removes an existing connection from the tail of
+ * the collection, i.e., the connection which was restored to the pool the longest time ago, and never creates
+ * a new connection. The taken connection is not prepared for use, i.e., it is not validated and not tracked, and
+ * the pool's {@code readyToTake} and {@code readyToRestore} are not invoked for it. The connection is returned via
+ * {@link #restoreIdle}, which puts it at the head of the collection, or is closed via {@link #retireIdle}, which
+ * removes it from the pool via the pool's own reduction. Because the connections are taken from the tail and
+ * returned to the head, an inspection pass which takes a given number of idle connections in small batches visits
+ * each of them once, and leaves them in their original order.
+ *
+ * <p>The inspected connections do not hold a pool permit. In order not to let the pool grow past its max size while
+ * some connections are being inspected, a thread which takes a connection from the pool when the collection is
+ * empty, the pool has already created its max size of connections, and some of them are inspected, waits in
+ * {@link #pollFirst} for an inspected connection to be returned, instead of letting the pool create a new connection.
+ * The wait is bounded by the {@link ViburConfig#connectionTimeoutInMs connectionTimeoutInMs}; if it elapses,
+ * the {@link ConnectionProvisioner} refuses to create the connection, see {@link #isOverMaxSize}.
+ *
+ * @author Simeon Malchev
+ */
+public class InspectableCollection implements ConcurrentCollection<ConnHolder> {
+
+    private static final long AWAIT_SLICE_MS = 100; // guards against a missed notification
+
+    private final ViburConfig config;
+    private final ConcurrentCollection<ConnHolder> delegate;
+    private final Queue<ConnHolder> retiring = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inspected = new AtomicInteger(0);
+    private final AtomicInteger awaiting = new AtomicInteger(0);
+    private final Object lock = new Object();
+
+    private volatile PoolService<ConnHolder> pool = null;
+    private volatile PoolOperations poolOperations = null;
+
+    public InspectableCollection(ViburConfig config, ConcurrentCollection<ConnHolder> delegate) {
+        this.config = config;
+        this.delegate = requireNonNull(delegate);
+    }
+
+    /**
+     * Enables the taking of idle connections. Must be called once, after the pool and its operations are created.
+     *
+     * @param pool the pool which uses this collection
+     * @param poolOperations the operations of the pool, through which the waiters are served
+     */
+    public void start(PoolService<ConnHolder> pool, PoolOperations poolOperations) {
+        this.poolOperations = requireNonNull(poolOperations);
+        this.pool = requireNonNull(pool);
+    }
+
+    @Override
+    public void offerFirst(ConnHolder connHolder) {
+        delegate.offerFirst(connHolder);
+    }
+
+    @Override
+    public void offerLast(ConnHolder connHolder) {
+        delegate.offerLast(connHolder);
+    }
+
+    @Override
+    public ConnHolder pollFirst() {
+        ConnHolder connHolder = delegate.pollFirst();
+        if (connHolder != null || !mustAwait()) {
+            return connHolder;
+        }
+        return awaitInspected(); // otherwise the pool would create a new connection and would exceed its max size
+    }
+
+    @Override
+    public ConnHolder pollLast() { // called when the pool is reduced, see retireIdle()
+        ConnHolder connHolder = retiring.poll();
+        return connHolder != null ? connHolder : delegate.pollLast();
+    }
+
+    private boolean mustAwait() {
+        PoolService<ConnHolder> pool = this.pool;
+        return inspected.get() > 0 && pool != null && pool.createdTotal() >= pool.maxSize();
+    }
+
+    /**
+     * Waits until an inspected connection is returned and takes it, or until the pool can create a new connection
+     * without exceeding its max size, in which case returns {@code null}. Returns {@code null} also if the wait times
+     * out, in which case the creation of the new connection is refused, see {@link #isOverMaxSize}.
+     */
+    private ConnHolder awaitInspected() {
+        long timeoutMs = config.getConnectionTimeoutInMs();
+        long deadlineNanoTime = System.nanoTime() + MILLISECONDS.toNanos(timeoutMs);
+        boolean interrupted = false;
+        awaiting.incrementAndGet();
+        try {
+            synchronized (lock) {
+                for (;;) {
+                    ConnHolder connHolder = delegate.pollFirst();
+                    if (connHolder != null || !mustAwait()) {
+                        return connHolder;
+                    }
+                    long waitMs = AWAIT_SLICE_MS;
+                    if (timeoutMs > 0) {
+                        long remainingMs = MILLISECONDS.convert(deadlineNanoTime - System.nanoTime(), NANOSECONDS);
+                        if (remainingMs <= 0) {
+                            return null;
+                        }
+                        waitMs = Math.min(waitMs, remainingMs);
+                    }
+                    try {
+                        lock.wait(waitMs);
+                    } catch (InterruptedException e) {
+                        interrupted = true; // the pool's take methods will observe the interrupt
+                    }
+                }
+            }
+        } finally {
+            awaiting.decrementAndGet();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Takes an existing idle connection out of the pool for inspection. Never creates a new connection. The connection
+     * must be returned via {@link #restoreIdle} or {@link #retireIdle}.
+     *
+     * @return the idle connection which was restored to the pool the longest time ago, or {@code null} if there is
+     *         no idle connection in the pool
+     */
+    ConnHolder takeIdle() {
+        PoolService<ConnHolder> pool = this.pool;
+        if (pool == null || pool.isTerminated()) {
+            return null;
+        }
+        inspected.incrementAndGet(); // before the poll, so that a concurrent pollFirst() cannot miss the connection
+        ConnHolder connHolder = delegate.pollLast();
+        if (connHolder == null) {
+            endInspection();
+        }
+        return connHolder;
+    }
+
+    /**
+     * Returns to the head of the pool a connection taken via {@link #takeIdle}. The time when the connection was
+     * last restored to the pool is not changed.
+     */
+    void restoreIdle(ConnHolder connHolder) {
+        delegate.offerFirst(connHolder);
+        endInspection();
+        if (pool.isTerminated()) {
+            pool.terminate(); // closes the connection if the pool was terminated while it was inspected
+        }
+    }
+
+    /**
+     * Closes a connection taken via {@link #takeIdle} and removes it from the pool's count of created connections.
+     */
+    void retireIdle(ConnHolder connHolder) {
+        retiring.offer(connHolder);
+        pool.reduceCreatedBy(1, true); // polls the connection via pollLast() and destroys it
+        endInspection();
+    }
+
+    /**
+     * Returns {@code true} if the pool has created more than its max size of connections because some of its
+     * connections are inspected. Called by the pool's factory when a new connection is about to be created,
+     * i.e., after the pool has accounted for it.
+     */
+    boolean isOverMaxSize() {
+        PoolService<ConnHolder> pool = this.pool;
+        return inspected.get() > 0 && pool != null && pool.createdTotal() > pool.maxSize();
+    }
+
+    /**
+     * Serves the pool's waiters, if any. Called after a batch of inspected connections is returned to the pool,
+     * as these connections are not returned via the pool operations.
+     */
+    void serveWaiters() {
+        poolOperations.serveWaiters();
+    }
+
+    private void endInspection() {
+        boolean last = inspected.decrementAndGet() == 0;
+        if (awaiting.get() > 0) {
+            synchronized (lock) {
+                if (last) {
+                    lock.notifyAll(); // all waiting threads can now let the pool create new connections
+                }
+                else {
+                    lock.notify();
+                }
+            }
+        }
+    }
+}
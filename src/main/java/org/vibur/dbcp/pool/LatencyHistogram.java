@@ -0,0 +1,202 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.vibur.objectpool.util.ArgumentValidation.forbidIllegalArgument;
+
+/**
+ * A lock-free and allocation-free histogram of latencies in nanoseconds, with a log-linear bucketing similar to
+ * the one of the HdrHistogram: the values are divided into power of 2 ranges, and each range is divided into
+ * 2^subBucketBits linear buckets, which gives a relative error of at most 1/2^subBucketBits for each recorded value;
+ * by default the ranges are divided into 16 buckets, i.e., the relative error is at most about 6%. Values above
+ * 2^40 nanoseconds (about 18 minutes) are recorded in the last bucket.
+ *
+ * <p>The counts are striped between several arrays, each of which is updated by a different subset of
+ * the recording threads, so that the concurrent recording threads rarely contend on the same counter. The last
+ * slot of each stripe holds the sum of the values recorded in it.
+ * The percentiles are calculated by summing up the stripes, and reflect the values recorded up to the moment of
+ * the call, with no guarantee of an atomic snapshot with respect to the concurrent recordings.
+ *
+ * @author Simeon Malchev
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int MAX_EXPONENT = 40;
+    private static final int MAX_STRIPES = 8;
+
+    private final int subBucketBits;
+    private final int subBuckets;
+    private final int buckets;
+    private final AtomicLongArray[] stripes;
+    private final int stripeMask;
+    private final AtomicLong max = new AtomicLong(0);
+
+    public LatencyHistogram() {
+        this(Math.min(MAX_STRIPES, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1)));
+    }
+
+    /**
+     * Instantiates a histogram with the given number of stripes. Each stripe takes about 5 KB of memory.
+     *
+     * @param stripes the number of stripes, must be a power of 2
+     */
+    public LatencyHistogram(int stripes) {
+        this(stripes, SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Instantiates a histogram with the given number of stripes and precision. Each stripe takes about
+     * (42 - subBucketBits) * 2^subBucketBits * 8 bytes of memory, i.e., about 5 KB for 4 sub bucket bits and
+     * about 2.5 KB for 3 sub bucket bits.
+     *
+     * @param stripes the number of stripes, must be a power of 2
+     * @param subBucketBits the number of bits which divide each power of 2 range into linear buckets,
+     *                      between {@code 1} and {@code 8}
+     */
+    public LatencyHistogram(int stripes, int subBucketBits) {
+        forbidIllegalArgument(stripes < 1 || Integer.bitCount(stripes) != 1);
+        forbidIllegalArgument(subBucketBits < 1 || subBucketBits > 8);
+        this.subBucketBits = subBucketBits;
+        this.subBuckets = 1 << subBucketBits;
+        this.buckets = (MAX_EXPONENT - subBucketBits + 2) * subBuckets;
+        this.stripes = new AtomicLongArray[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new AtomicLongArray(buckets + 1); // the last slot holds the total
+        }
+        this.stripeMask = stripes - 1;
+    }
+
+    /**
+     * Records the given latency.
+     *
+     * @param nanos the latency in nanoseconds; negative values are recorded as {@code 0}
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & stripeMask];
+        stripe.incrementAndGet(bucketOf(nanos));
+        stripe.addAndGet(buckets, nanos);
+
+        long currentMax;
+        while (nanos > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, nanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the total number of the recorded values.
+     */
+    public long getCount() {
+        long count = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < buckets; i++) {
+                count += stripe.get(i);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the sum of the recorded values in nanoseconds.
+     */
+    public long getTotal() {
+        long total = 0;
+        for (AtomicLongArray stripe : stripes) {
+            total += stripe.get(buckets);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the maximum recorded value in nanoseconds, or {@code 0} if no values have been recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the value in nanoseconds at the given percentile, i.e., the highest value which is equivalent,
+     * within the histogram precision, to the value below which the given percentage of the recorded values fall.
+     *
+     * @param percentile the percentile, between {@code 0} and {@code 100}
+     * @return the value at the given percentile, or {@code 0} if no values have been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] counts = new long[buckets];
+        long total = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < buckets; i++) {
+                long count = stripe.get(i);
+                counts[i] += count;
+                total += count;
+            }
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < buckets; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), getMax());
+            }
+        }
+        return getMax(); // not expected to happen
+    }
+
+    /**
+     * Clears all recorded values.
+     */
+    public void reset() {
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i <= buckets; i++) {
+                stripe.set(i, 0);
+            }
+        }
+        max.set(0);
+    }
+
+    int bucketOf(long nanos) {
+        if (nanos < subBuckets) {
+            return (int) nanos;
+        }
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(nanos), MAX_EXPONENT);
+        int subBucket = nanos >= 1L << (MAX_EXPONENT + 1) ? subBuckets - 1
+                : (int) (nanos >>> (exponent - subBucketBits)) & (subBuckets - 1);
+        return (exponent - subBucketBits + 1) * subBuckets + subBucket;
+    }
+
+    long highestValueOf(int bucket) {
+        if (bucket < subBuckets) {
+            return bucket;
+        }
+        int exponent = bucket / subBuckets + subBucketBits - 1;
+        long subBucket = bucket % subBuckets;
+        long lowest = (1L << exponent) + (subBucket << (exponent - subBucketBits));
+        return lowest + (1L << (exponent - subBucketBits)) - 1;
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vibur.dbcp.ViburConfig;
+
+import java.sql.Connection;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.vibur.dbcp.util.ViburUtils.getPoolName;
+
+/**
+ * A fixed-size in-memory ring buffer of the most recent pool events, see
+ * {@link ViburConfig#poolFlightRecorderSize poolFlightRecorderSize}. Each event records its type, the time when it
+ * occurred, the id of the thread on which it occurred, the id (identity hash code) of the raw connection to which it
+ * relates, and the time taken by the operation, if applicable. The events are recorded via connection hooks, except
+ * for the {@link Type#DRAIN DRAIN} event which is recorded by the {@link PoolOperations}.
+ *
+ * <p>The recorded events can be obtained via {@link #dump}, and are logged when a call to {@code getConnection()}
+ * timeouts if {@link ViburConfig#logFlightRecorderOnTimeout logFlightRecorderOnTimeout} is enabled. Unlike the
+ * logging of the taken connections on timeout, the recording does not capture any stack traces, and shows the
+ * timeline of the pool events which led to the timeout.
+ *
+ * <p>The recording is lock-free and does not allocate. Each event is written in a slot of an {@code AtomicLongArray},
+ * guarded by the slot sequence number which is written last, and the events which are overwritten while being
+ * dumped are skipped.
+ *
+ * @author Simeon Malchev
+ */
+public class PoolFlightRecorder {
+
+    private static final Logger logger = LoggerFactory.getLogger(PoolFlightRecorder.class);
+
+    /** The types of the recorded events. */
+    public enum Type {
+        /** A connection was taken from the pool; the taken time is the time waited. */
+        TAKE,
+        /** A connection was restored to the pool; the taken time is the time for which it was held. */
+        RESTORE,
+        /** A physical connection was created. */
+        CREATE,
+        /** An attempt to create a physical connection has failed. */
+        CREATE_FAILURE,
+        /** A physical connection was closed. */
+        DESTROY,
+        /** A connection has failed its validation. */
+        VALIDATION_FAILURE,
+        /** A call to {@code getConnection()} has timed out; the taken time is the time waited. */
+        TIMEOUT,
+        /** A server-wide critical SQLState occurred on the connection, and all idle connections in the pool are
+         * marked for revalidation; the taken time field holds the number of the idle connections. */
+        DRAIN
+    }
+
+    private static final Type[] TYPES = Type.values();
+    private static final int STRIDE = 5; // the sequence number, nano time, thread id, type and connection id, taken nanos
+    private static final long DUMP_ON_TIMEOUT_INTERVAL_NANOS = SECONDS.toNanos(1);
+
+    private final ViburConfig config;
+    private final int capacity;
+    private final AtomicLongArray slots;
+    private final AtomicLong next = new AtomicLong(0);
+    private final AtomicLong lastDumpOnTimeoutNanoTime = new AtomicLong(System.nanoTime() - DUMP_ON_TIMEOUT_INTERVAL_NANOS);
+
+    public PoolFlightRecorder(ViburConfig config) {
+        this.config = config;
+        int size = Math.max(2, config.getPoolFlightRecorderSize());
+        this.capacity = Integer.highestOneBit(size - 1) << 1; // rounded up to the next power of 2
+        this.slots = new AtomicLongArray(capacity * STRIDE);
+
+        config.getConnHooks().addOnGet(new Hook.GetConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                if (rawConnection != null) {
+                    record(Type.TAKE, rawConnection, takenNanos);
+                }
+            }
+        });
+        config.getConnHooks().addOnClose(new Hook.CloseConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                record(Type.RESTORE, rawConnection, takenNanos);
+            }
+        });
+        config.getConnHooks().addOnInit(new Hook.InitConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                record(rawConnection != null ? Type.CREATE : Type.CREATE_FAILURE, rawConnection, takenNanos);
+            }
+        });
+        config.getConnHooks().addOnDestroy(new Hook.DestroyConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                record(Type.DESTROY, rawConnection, takenNanos);
+            }
+        });
+        config.getConnHooks().addOnValidate(new Hook.ValidateConnection() {
+            @Override
+            public void on(Connection rawConnection, boolean valid, long takenNanos) {
+                if (!valid) {
+                    record(Type.VALIDATION_FAILURE, rawConnection, takenNanos);
+                }
+            }
+        });
+        config.getConnHooks().addOnTimeout(new Hook.GetConnectionTimeout() {
+            @Override
+            public void on(TakenConnection[] takenConnections, long takenNanos) {
+                record(Type.TIMEOUT, null, takenNanos);
+                if (PoolFlightRecorder.this.config.isLogFlightRecorderOnTimeout()) {
+                    logOnTimeout(takenNanos);
+                }
+            }
+        });
+    }
+
+    /**
+     * Records an event.
+     *
+     * @param type the event type
+     * @param rawConnection the raw connection to which the event relates, can be {@code null}
+     * @param takenNanos the time taken by the operation in nanoseconds, see {@link Type}
+     */
+    public void record(Type type, Connection rawConnection, long takenNanos) {
+        long sequence = next.getAndIncrement();
+        int index = (int) (sequence & (capacity - 1)) * STRIDE;
+
+        slots.set(index, -1); // marks the slot as being written
+        slots.set(index + 1, System.nanoTime());
+        slots.set(index + 2, Thread.currentThread().getId());
+        slots.set(index + 3, (long) type.ordinal() << 32
+                | (rawConnection != null ? System.identityHashCode(rawConnection) & 0xFFFFFFFFL : 0));
+        slots.set(index + 4, takenNanos);
+        slots.set(index, sequence + 1);
+    }
+
+    /**
+     * Formats as a {@code String}, one event per line and in the order in which they were recorded,
+     * all events currently in the ring buffer.
+     */
+    public String dump() {
+        long currentMillis = System.currentTimeMillis();
+        long currentNanoTime = System.nanoTime();
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+        long last = next.get();
+        StringBuilder builder = new StringBuilder(capacity * 80);
+        for (long sequence = Math.max(0, last - capacity); sequence < last; sequence++) {
+            int index = (int) (sequence & (capacity - 1)) * STRIDE;
+            if (slots.get(index) != sequence + 1) {
+                continue; // being written or already overwritten
+            }
+            long nanoTime = slots.get(index + 1);
+            long threadId = slots.get(index + 2);
+            long typeAndConnectionId = slots.get(index + 3);
+            long takenNanos = slots.get(index + 4);
+            if (slots.get(index) != sequence + 1) {
+                continue; // overwritten while being read
+            }
+
+            Type type = TYPES[(int) (typeAndConnectionId >>> 32)];
+            int connectionId = (int) typeAndConnectionId;
+            builder.append(dateFormat.format(new Date(currentMillis - (currentNanoTime - nanoTime) / 1_000_000)))
+                    .append(' ').append(type)
+                    .append(" thread=").append(threadId)
+                    .append(" connection=").append(connectionId != 0 ? Integer.toHexString(connectionId) : "-");
+            if (type == Type.DRAIN) {
+                builder.append(" idle=").append(takenNanos);
+            }
+            else {
+                builder.append(format(" took=%.3fms", takenNanos * 0.000_001));
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the capacity of the ring buffer, i.e., the {@code poolFlightRecorderSize} rounded up to
+     * the next power of 2.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the total number of the events recorded since the pool was started.
+     */
+    public long getRecorded() {
+        return next.get();
+    }
+
+    /**
+     * Logs the recorded events, at most once per second, as many threads may timeout at the same moment when
+     * the pool is overloaded.
+     */
+    private void logOnTimeout(long takenNanos) {
+        if (!logger.isWarnEnabled()) {
+            return;
+        }
+        long currentNanoTime = System.nanoTime();
+        long lastNanoTime = lastDumpOnTimeoutNanoTime.get();
+        if (currentNanoTime - lastNanoTime < DUMP_ON_TIMEOUT_INTERVAL_NANOS
+                || !lastDumpOnTimeoutNanoTime.compareAndSet(lastNanoTime, currentNanoTime)) {
+            return;
+        }
+
+        logger.warn(format("Pool %s, couldn't obtain SQL connection within %.3f ms, the recent pool events begin:\n%s",
+                getPoolName(config), takenNanos * 0.000_001, dump()));
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.vibur.dbcp.ViburConfig;
+
+import java.sql.Connection;
+
+/**
+ * Holds the {@link LatencyHistogram}s of a pool, see {@link ViburConfig#poolEnableLatencyHistograms
+ * poolEnableLatencyHistograms}. The time waited to obtain a connection from the pool, the time for which the
+ * connections are held by the application, the time taken to create new physical connections, and the time taken to
+ * validate the connections via the {@link ViburConfig#testConnectionQuery testConnectionQuery} are recorded via
+ * connection hooks.
+ *
+ * <p>Comparing the acquire times with the hold and validation times allows to tell whether the latency observed by
+ * the application is induced by the pool, i.e., the application waits for a connection to become available, or by
+ * the database.
+ *
+ * @author Simeon Malchev
+ */
+public class PoolLatencies {
+
+    private final LatencyHistogram acquire = new LatencyHistogram();
+    private final LatencyHistogram hold = new LatencyHistogram();
+    private final LatencyHistogram create = new LatencyHistogram();
+    private final LatencyHistogram validate = new LatencyHistogram();
+
+    public PoolLatencies(ViburConfig config) {
+        config.getConnHooks().addOnGet(new Hook.GetConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                acquire.record(takenNanos);
+            }
+        });
+        config.getConnHooks().addOnClose(new Hook.CloseConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                hold.record(takenNanos);
+            }
+        });
+        config.getConnHooks().addOnInit(new Hook.InitConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                if (rawConnection != null) {
+                    create.record(takenNanos);
+                }
+            }
+        });
+        config.getConnHooks().addOnValidate(new Hook.ValidateConnection() {
+            @Override
+            public void on(Connection rawConnection, boolean valid, long takenNanos) {
+                validate.record(takenNanos);
+            }
+        });
+    }
+
+    /**
+     * Returns the histogram of the time waited to obtain a connection from the pool, including the timed out
+     * attempts.
+     */
+    public LatencyHistogram getAcquire() {
+        return acquire;
+    }
+
+    /**
+     * Returns the histogram of the time for which the connections were held by the application.
+     */
+    public LatencyHistogram getHold() {
+        return hold;
+    }
+
+    /**
+     * Returns the histogram of the time taken to create new physical connections.
+     */
+    public LatencyHistogram getCreate() {
+        return create;
+    }
+
+    /**
+     * Returns the histogram of the time taken to validate the connections.
+     */
+    public LatencyHistogram getValidate() {
+        return validate;
+    }
+
+    /**
+     * Clears all histograms.
+     */
+    public void reset() {
+        acquire.reset();
+        hold.reset();
+        create.reset();
+        validate.reset();
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The cumulative counters of the pool events, since the pool was started. None of the counters is updated on
+ * the fast path of taking and restoring an idle connection, unless it has to be validated.
+ *
+ * @author Simeon Malchev
+ */
+public class PoolMetrics {
+
+    private final AtomicLong timeouts = new AtomicLong(0);
+    private final AtomicLong creations = new AtomicLong(0);
+    private final AtomicLong creationFailures = new AtomicLong(0);
+    private final AtomicLong destructions = new AtomicLong(0);
+    private final AtomicLong validations = new AtomicLong(0);
+    private final AtomicLong validationFailures = new AtomicLong(0);
+    private final AtomicLong criticalSQLStates = new AtomicLong(0);
+    private final AtomicLong serverWideSQLStates = new AtomicLong(0);
+
+    /**
+     * Returns the number of the calls to {@code getConnection()} which have timed out.
+     */
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    void recordTimeout() {
+        timeouts.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of the physical connections which have been created.
+     */
+    public long getCreations() {
+        return creations.get();
+    }
+
+    void recordCreation() {
+        creations.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of the failed attempts to create or initialize a physical connection.
+     */
+    public long getCreationFailures() {
+        return creationFailures.get();
+    }
+
+    void recordCreationFailure() {
+        creationFailures.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of the physical connections which have been closed.
+     */
+    public long getDestructions() {
+        return destructions.get();
+    }
+
+    void recordDestruction() {
+        destructions.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of the connection validations via the {@code testConnectionQuery}.
+     */
+    public long getValidations() {
+        return validations.get();
+    }
+
+    /**
+     * Returns the number of the connection validations which have failed.
+     */
+    public long getValidationFailures() {
+        return validationFailures.get();
+    }
+
+    public void recordValidation(boolean valid) {
+        validations.incrementAndGet();
+        if (!valid) {
+            validationFailures.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of the connections which have been closed because of a critical SQLState.
+     */
+    public long getCriticalSQLStates() {
+        return criticalSQLStates.get();
+    }
+
+    void recordCriticalSQLState() {
+        criticalSQLStates.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of the server-wide critical SQLStates after which all idle connections have been
+     * marked for revalidation.
+     */
+    public long getServerWideSQLStates() {
+        return serverWideSQLStates.get();
+    }
+
+    void recordServerWideSQLState() {
+        serverWideSQLStates.incrementAndGet();
+    }
+}
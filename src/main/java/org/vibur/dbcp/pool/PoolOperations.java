@@ -20,6 +20,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vibur.dbcp.ViburDBCPDataSource;
 import org.vibur.dbcp.ViburDBCPException;
+import org.vibur.dbcp.ViburDataSource.ConnectionCallback;
+import org.vibur.dbcp.pool.ConnectionPartitions.Partition;
 import org.vibur.dbcp.pool.HookHolder.ConnHooksAccessor;
 import org.vibur.objectpool.PoolService;
 
@@ -29,12 +31,21 @@ import java.sql.SQLTimeoutException;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import static java.lang.String.format;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.vibur.dbcp.ViburConfig.*;
+import static org.vibur.dbcp.ViburDataSource.NORM_PRIORITY;
+import static org.vibur.dbcp.pool.ConnectionPartitions.DEFAULT_PARTITION;
 import static org.vibur.dbcp.proxy.Proxy.newProxyConnection;
 import static org.vibur.dbcp.util.JdbcUtils.chainSQLException;
 import static org.vibur.dbcp.util.ViburUtils.getPoolName;
@@ -51,6 +62,7 @@ public class PoolOperations {
     private static final Logger logger = LoggerFactory.getLogger(PoolOperations.class);
 
     private static final long[] NO_WAIT = {};
+    private static final long TIMEOUT_RECHECK_NANOS = MILLISECONDS.toNanos(1);
     private static final Pattern whitespaces = Pattern.compile("\\s");
 
     private final ViburDBCPDataSource dataSource;
@@ -59,6 +71,13 @@ public class PoolOperations {
     private final PoolService<ConnHolder> poolService;
 
     private final Set<String> criticalSQLStates;
+    private final Set<String> serverWideSQLStates;
+
+    private final boolean handoff;
+    private final ConnectionWaiters waiters;
+    private final AtomicInteger blocked = new AtomicInteger(0); // the threads waiting in the pool's take methods
+    private final ConnectionPartitions partitions; // null if no poolPartitions are configured
+    private ScheduledThreadPoolExecutor waitersTimer = null; // lazily created on the first getProxyConnectionAsync() call
 
     /**
      * Instantiates the PoolOperations facade.
@@ -72,38 +91,108 @@ public class PoolOperations {
         this.connectionTimeoutInNanos = MILLISECONDS.toNanos(dataSource.getConnectionTimeoutInMs());
         this.connectionFactory = connectionFactory;
         this.poolService = poolService;
+        this.handoff = dataSource.isPoolHandoff();
+        this.waiters = new ConnectionWaiters(dataSource);
+        this.partitions = dataSource.getPoolPartitions() != null ?
+                new ConnectionPartitions(dataSource.getPoolPartitions(), dataSource.getPoolMaxSize()) : null;
         this.criticalSQLStates = new HashSet<>(Arrays.asList(
                 whitespaces.matcher(dataSource.getCriticalSQLStates()).replaceAll("").split(",")));
+        this.serverWideSQLStates = new HashSet<>(Arrays.asList(
+                whitespaces.matcher(dataSource.getServerWideSQLStates()).replaceAll("").split(",")));
+        this.serverWideSQLStates.retainAll(criticalSQLStates);
     }
 
     ////////////// getProxyConnection(...) //////////////
 
     public Connection getProxyConnection(long timeoutMs) throws SQLException {
+        return getProxyConnection(timeoutMs, NORM_PRIORITY, null);
+    }
+
+    /**
+     * Obtains a proxy Connection on behalf of a caller with the given priority and from the given partition.
+     * The priority takes effect only when {@code poolHandoff} is enabled, as otherwise the waiting threads are
+     * ordered by the pool itself. The partition is taken into account only if {@code poolPartitions} are configured.
+     *
+     * @param timeoutMs the maximum time to wait, if {@code 0} waits indefinitely
+     * @param priority the caller priority, see {@link org.vibur.dbcp.ViburDataSource#getConnection(int)}
+     * @param partitionName the partition name, can be {@code null} for the default partition,
+     *                      see {@link org.vibur.dbcp.ViburDataSource#getConnection(String)}
+     * @throws SQLException if cannot obtain a connection
+     * @throws IllegalArgumentException if there is no partition with the given name
+     */
+    public Connection getProxyConnection(long timeoutMs, int priority, String partitionName) throws SQLException {
+        if (partitions == null) {
+            if (partitionName != null) {
+                throw new IllegalArgumentException(format("Pool %s has no partitions", getPoolName(dataSource)));
+            }
+            return doGetProxyConnection(timeoutMs, priority, null);
+        }
+
+        Partition partition = partitions.get(partitionName != null ? partitionName : DEFAULT_PARTITION);
+        if (partition == null) {
+            throw new IllegalArgumentException(format("Pool %s has no partition %s", getPoolName(dataSource), partitionName));
+        }
+        long startNanoTime = System.nanoTime();
+        try {
+            if (!partitions.acquire(partition, MILLISECONDS.toNanos(timeoutMs))) {
+                throw createSQLException(System.nanoTime() - startNanoTime);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw createSQLException(System.nanoTime() - startNanoTime);
+        }
+
+        Connection proxy = null;
+        try {
+            if (timeoutMs > 0) { // the remaining timeout
+                timeoutMs = Math.max(1, timeoutMs - NANOSECONDS.toMillis(System.nanoTime() - startNanoTime));
+            }
+            proxy = doGetProxyConnection(timeoutMs, priority, partition);
+            return proxy;
+        } finally {
+            if (proxy == null) {
+                partitions.release(partition);
+            }
+        }
+    }
+
+    private Connection doGetProxyConnection(long timeoutMs, int priority, Partition partition) throws SQLException {
         int attempt = 1;
-        ConnHolder connHolder = null;
+        Connection proxy = null;
         SQLException sqlException = null;
-        long startNanoTime = System.nanoTime();
+        long deadlineNanoTime = timeoutMs > 0 ? System.nanoTime() + MILLISECONDS.toNanos(timeoutMs) : 0;
+        long delayNanos = 0;
 
-        while (connHolder == null) {
+        while (proxy == null) {
             try {
-                connHolder = getConnHolder(timeoutMs);
+                if (handoff) {
+                    proxy = getHandedOffConnection(timeoutMs, priority, partition);
+                } else {
+                    ConnHolder connHolder = getConnHolder(timeoutMs);
+                    connHolder.setPartition(partition);
+                    proxy = newProxy(connHolder);
+                }
 
             } catch (ViburDBCPException e) { // thrown only if we can retry the operation, see getConnHolder(...)
                 sqlException = chainSQLException(e.unwrapSQLException(), sqlException);
 
+                if (isCircuitOpen(e)) { // fail fast, the database is known to be unavailable
+                    throw sqlException;
+                }
                 if (attempt++ > dataSource.getAcquireRetryAttempts()) { // check the max retries limit
                     throw sqlException;
                 }
-                if (timeoutMs > 0) { // check the time limit if applicable
-                    timeoutMs = NANOSECONDS.toMillis(connectionTimeoutInNanos - (System.nanoTime() - startNanoTime))
-                            - dataSource.getAcquireRetryDelayInMs(); // calculates the remaining timeout
-                    if (timeoutMs <= 0) {
+                delayNanos = dataSource.getAcquireRetryPolicy().nextDelayNanos(attempt - 1, delayNanos);
+                if (deadlineNanoTime != 0) { // check the time limit if applicable
+                    long remainingNanos = deadlineNanoTime - System.nanoTime() - delayNanos;
+                    if (remainingNanos <= 0) {
                         throw sqlException;
                     }
+                    timeoutMs = Math.max(1, NANOSECONDS.toMillis(remainingNanos)); // the remaining timeout
                 }
 
                 try {
-                    MILLISECONDS.sleep(dataSource.getAcquireRetryDelayInMs());
+                    NANOSECONDS.sleep(delayNanos);
                 } catch (InterruptedException ie) {
                     Thread.currentThread().interrupt();
                     throw chainSQLException(new SQLException(ie), sqlException);
@@ -111,6 +200,10 @@ public class PoolOperations {
             }
         }
 
+        return proxy;
+    }
+
+    private Connection newProxy(ConnHolder connHolder) {
         if (logger.isTraceEnabled()) {
             logger.trace("Taking rawConnection {}", connHolder.rawConnection());
         }
@@ -138,6 +231,10 @@ public class PoolOperations {
         SQLException sqlException = null;
         ViburDBCPException viburException = null;
 
+        boolean blocking = poolService.remainingCapacity() == 0; // counted only when the pool is exhausted
+        if (blocking) {
+            blocked.incrementAndGet();
+        }
         try {
             if (onGet.length > 0) {
                 waitedNanos = new long[1];
@@ -155,6 +252,9 @@ public class PoolOperations {
             sqlException = e.unwrapSQLException(); // currently all such errors are treated as recoverable, i.e., can be retried
 
         } finally {
+            if (blocking) {
+                blocked.decrementAndGet();
+            }
             Connection rawConnection = connHolder != null ? connHolder.rawConnection() : null;
             try {
                 for (Hook.GetConnection hook : onGet) {
@@ -175,6 +275,105 @@ public class PoolOperations {
         return connHolder; // never null if we reach this point
     }
 
+    /**
+     * Obtains a connection when {@code poolHandoff} is enabled. The calling thread is queued as a waiter, in FIFO
+     * order within its priority, and is either served immediately if there is an available (or possible to create) connection in the pool,
+     * or is handed off a connection directly by the thread that restores the next connection to the pool.
+     *
+     * @param timeoutMs the maximum time to wait, if {@code 0} waits indefinitely
+     * @param priority the priority of the waiter
+     * @param partition the partition to which the obtained connection will be accounted, can be {@code null}
+     * @throws SQLException to indicate a generic non-recoverable error that cannot be retried
+     * @throws SQLTimeoutException to indicate a non-recoverable error due to timeout that cannot be retried
+     * @throws ViburDBCPException to indicate a recoverable error that can be retried
+     */
+    private Connection getHandedOffConnection(long timeoutMs, int priority, Partition partition)
+            throws SQLException, ViburDBCPException {
+        ConnectionWaiter waiter = new ConnectionWaiter(waiters, null, false, priority);
+        waiters.offer(waiter);
+        serveWaiters();
+
+        boolean interrupted = false;
+        long remainingNanos = MILLISECONDS.toNanos(timeoutMs);
+        try {
+            for (;;) {
+                try {
+                    Connection proxy = remainingNanos > 0 ? waiter.get(remainingNanos, NANOSECONDS) : waiter.get();
+                    ConnHolder connHolder = waiter.getConnHolder();
+                    if (proxy == null) { // the connection was handed off by a restoring thread and is validated here
+                        return takeHandedOffConnection(waiter, connHolder, timeoutMs, partition);
+                    }
+                    connHolder.setPartition(partition);
+                    if (dataSource.isPoolEnableConnectionTracking()) { // the connection was prepared by another thread
+                        connHolder.trackTaking(dataSource.getPoolConnectionTrackingSampleRate());
+                    }
+                    return proxy;
+
+                } catch (TimeoutException | InterruptedException e) {
+                    interrupted |= e instanceof InterruptedException;
+                    if (waiter.cancel(false)) {
+                        if (interrupted) {
+                            Thread.currentThread().interrupt();
+                            interrupted = false;
+                        }
+                        long waitedNanos = System.nanoTime() - waiter.getStartNanoTime();
+                        SQLException sqlException = createSQLException(waitedNanos);
+                        try {
+                            for (Hook.GetConnection hook : ((ConnHooksAccessor) dataSource.getConnHooks()).onGet()) {
+                                hook.on(null, waitedNanos);
+                            }
+                        } catch (SQLException ex) {
+                            sqlException = chainSQLException(sqlException, ex);
+                        }
+                        throw sqlException;
+                    }
+                    // else the waiter is being completed by another thread right now
+                    remainingNanos = MILLISECONDS.toNanos(1);
+
+                } catch (ExecutionException e) {
+                    if (waiter.getCreateException() != null) {
+                        throw waiter.getCreateException(); // a recoverable error
+                    }
+                    throw (SQLException) e.getCause();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Validates, on the waiting thread, the given connection which was handed off by a restoring thread. If the
+     * connection is not valid, destroys it and falls back to taking a connection from the pool, within the remaining
+     * part of the waiter timeout.
+     */
+    private Connection takeHandedOffConnection(ConnectionWaiter waiter, ConnHolder connHolder, long timeoutMs,
+                                               Partition partition) throws SQLException, ViburDBCPException {
+        if (!connectionFactory.readyToTake(connHolder)) {
+            poolService.restore(connHolder, false); // destroys the connection and releases its pool permit
+            if (timeoutMs > 0) { // the remaining timeout
+                timeoutMs = Math.max(1, timeoutMs - NANOSECONDS.toMillis(System.nanoTime() - waiter.getStartNanoTime()));
+            }
+            connHolder = getConnHolder(timeoutMs);
+            connHolder.setPartition(partition);
+            return newProxy(connHolder);
+        }
+
+        long waitedNanos = System.nanoTime() - waiter.getStartNanoTime();
+        try {
+            for (Hook.GetConnection hook : ((ConnHooksAccessor) dataSource.getConnHooks()).onGet()) {
+                hook.on(connHolder.rawConnection(), waitedNanos);
+            }
+        } catch (SQLException e) {
+            poolService.restore(connHolder, true);
+            throw e;
+        }
+        connHolder.setPartition(partition);
+        return newProxy(connHolder);
+    }
+
     private SQLException createSQLException(long takenNanos) {
         String poolName = getPoolName(dataSource);
         if (poolService.isTerminated()) {
@@ -191,6 +390,9 @@ public class PoolOperations {
             }
         }
 
+        if (!isInterrupted) {
+            dataSource.getMetrics().recordTimeout();
+        }
         double takenMs = takenNanos * 0.000_001;
         int intTakenMs = (int) Math.round(takenMs);
         return !isInterrupted ?
@@ -200,49 +402,298 @@ public class PoolOperations {
                         poolName, takenMs), SQLSTATE_INTERRUPTED_ERROR, intTakenMs);
     }
 
+    ////////////// getProxyConnectionAsync(...) //////////////
+
+    public Future<Connection> getProxyConnectionAsync(ConnectionCallback callback) {
+        ConnectionWaiter waiter = new ConnectionWaiter(waiters, callback, true, NORM_PRIORITY);
+        waiters.offer(waiter);
+        serveWaiters();
+
+        if (!waiter.isDone() && connectionTimeoutInNanos > 0) {
+            waiter.setTimeout(getWaitersTimer().schedule(new WaiterTimeout(waiter), connectionTimeoutInNanos, NANOSECONDS));
+        }
+        return waiter;
+    }
+
+    /**
+     * Serves the queued waiters, in priority and then FIFO order, for as long as there are available (or possible to
+     * create) connections in the pool. Never blocks waiting for a connection to become available.
+     */
+    void serveWaiters() {
+        while (!waiters.isEmpty()) {
+            ConnHolder connHolder;
+            try {
+                connHolder = poolService.tryTake();
+            } catch (ViburDBCPException e) { // thrown (indirectly) by the ConnectionFactory.create() methods
+                ConnectionWaiter waiter = pollWaiter();
+                if (waiter != null) {
+                    retryOrFail(waiter, e);
+                }
+                continue;
+            }
+
+            if (connHolder == null) { // the pool is exhausted or terminated, the waiters will be served on restore
+                return;
+            }
+
+            ConnectionWaiter waiter = pollWaiter();
+            if (waiter == null) {
+                poolService.restore(connHolder, true); // and loop again, in case a new waiter has just arrived
+                continue;
+            }
+            completeWaiter(waiter, connHolder);
+        }
+    }
+
+    /**
+     * Schedules a retry of the given asynchronous waiter after the delay defined by the acquire retry policy, if
+     * the max retries limit and the waiter deadline allow it; otherwise, fails the waiter. The scheduled retry is
+     * effectively cancelled if the waiter is cancelled or times out in the meantime.
+     */
+    private void retryOrFail(final ConnectionWaiter waiter, ViburDBCPException e) {
+        if (!waiter.isAsync()) {
+            waiter.fail(e); // the blocking caller retries by itself, see getProxyConnection()
+            return;
+        }
+        SQLException sqlException = waiter.chainException(e.unwrapSQLException());
+        if (isCircuitOpen(e) || waiter.getRetries() >= dataSource.getAcquireRetryAttempts()) {
+            waiter.fail(sqlException);
+            return;
+        }
+
+        long delayNanos = waiter.nextRetry(dataSource.getAcquireRetryPolicy());
+        if (connectionTimeoutInNanos > 0
+                && System.nanoTime() + delayNanos - waiter.getStartNanoTime() >= connectionTimeoutInNanos) {
+            waiter.fail(sqlException);
+            return;
+        }
+
+        waiter.unclaim(); // can be cancelled or timed out while waiting for the retry
+        try {
+            getWaitersTimer().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!waiter.isDone()) {
+                        waiters.offerFirst(waiter);
+                        serveWaiters();
+                    }
+                }
+            }, delayNanos, NANOSECONDS);
+        } catch (RejectedExecutionException ignored) { // the pool is terminated
+            if (waiter.claim()) {
+                waiter.fail(sqlException);
+            }
+        }
+    }
+
+    private static boolean isCircuitOpen(ViburDBCPException e) {
+        return SQLSTATE_CIRCUIT_OPEN_ERROR.equals(e.unwrapSQLException().getSQLState());
+    }
+
+    private ConnectionWaiter pollWaiter() {
+        ConnectionWaiter waiter;
+        while ((waiter = waiters.poll()) != null) {
+            if (waiter.claim()) { // skips the cancelled or timed out waiters
+                return waiter;
+            }
+        }
+        return null;
+    }
+
+    private void completeWaiter(ConnectionWaiter waiter, ConnHolder connHolder) {
+        long waitedNanos = System.nanoTime() - waiter.getStartNanoTime();
+        if (logger.isTraceEnabled()) {
+            logger.trace("Waiter {} obtained rawConnection {} after {} ns", waiter, connHolder.rawConnection(), waitedNanos);
+        }
+        try {
+            for (Hook.GetConnection hook : ((ConnHooksAccessor) dataSource.getConnHooks()).onGet()) {
+                hook.on(connHolder.rawConnection(), waitedNanos);
+            }
+        } catch (SQLException e) {
+            poolService.restore(connHolder, true);
+            waiter.fail(e);
+            return;
+        }
+
+        waiter.complete(connHolder, newProxy(connHolder));
+    }
+
+    /**
+     * Hands off the given restored connection directly to the next waiter, if any, instead of returning it to
+     * the pool. The connection remains taken from the pool's point of view, i.e., the waiter inherits the pool
+     * permit of the restoring thread, and no other thread can barge in and take the connection.
+     *
+     * <p>The connection is validated by the waiting thread after it wakes up, see {@link #takeHandedOffConnection},
+     * so that {@code Connection.close()} never makes a validation round trip. Only the blocking waiters are handed
+     * off connections; if the next waiter is an asynchronous one, the connection is restored to the pool and the
+     * waiter is served from there.
+     *
+     * @return {@code true} if the connection was handed off (or destroyed), {@code false} if there were no blocking
+     *         waiters at the head of the queue
+     */
+    private boolean handOff(ConnHolder connHolder) {
+        ConnectionWaiter waiter;
+        do {
+            if ((waiter = waiters.poll()) == null) {
+                return false;
+            }
+            if (waiter.isAsync() && !waiter.isDone()) { // not claimed, thus its timeout and cancellation are not delayed
+                waiters.offerFirst(waiter);
+                return false;
+            }
+        } while (!waiter.claim()); // skips the cancelled or timed out waiters
+
+        if (connectionFactory.readyToRestore(connHolder)) {
+            waiter.handOff(connHolder);
+            return true;
+        }
+
+        poolService.restore(connHolder, false); // destroys the connection and releases its pool permit
+        if (connectionTimeoutInNanos > 0 && System.nanoTime() - waiter.getStartNanoTime() >= connectionTimeoutInNanos) {
+            waiter.fail(createSQLException(System.nanoTime() - waiter.getStartNanoTime())); // its timeout has expired
+        } else {
+            waiter.unclaim();
+            waiters.offerFirst(waiter); // keeps its place at the head of the queue
+        }
+        serveWaiters();
+        return true;
+    }
+
+    private synchronized ScheduledThreadPoolExecutor getWaitersTimer() {
+        if (waitersTimer == null) {
+            waitersTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Async getConnection timer for pool " + dataSource.getName());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            waitersTimer.setRemoveOnCancelPolicy(true);
+        }
+        return waitersTimer;
+    }
+
+    private final class WaiterTimeout implements Runnable {
+        private final ConnectionWaiter waiter;
+
+        private WaiterTimeout(ConnectionWaiter waiter) {
+            this.waiter = waiter;
+        }
+
+        @Override
+        public void run() {
+            if (waiter.claim()) {
+                waiters.remove(waiter);
+                waiter.fail(createSQLException(System.nanoTime() - waiter.getStartNanoTime()));
+            }
+            else if (!waiter.isDone()) { // the waiter is claimed for a retry, which may not complete it
+                try {
+                    waiter.setTimeout(getWaitersTimer().schedule(this, TIMEOUT_RECHECK_NANOS, NANOSECONDS));
+                } catch (RejectedExecutionException ignored) { // the pool is terminated and fails the waiters
+                }
+            }
+        }
+    }
+
+    /**
+     * Fails all queued asynchronous waiters and stops their timeout timer. Invoked when the pool is terminated.
+     */
+    public void terminate() {
+        synchronized (this) {
+            if (waitersTimer != null) {
+                waitersTimer.shutdownNow();
+            }
+        }
+
+        ConnectionWaiter waiter;
+        while ((waiter = pollWaiter()) != null) {
+            waiter.fail(new SQLException(format("Pool %s, the poolService is terminated.", dataSource.getName()),
+                    SQLSTATE_POOL_CLOSED_ERROR));
+        }
+    }
+
+    /**
+     * Returns the partitions of the pool, or {@code null} if no {@code poolPartitions} are configured.
+     */
+    public ConnectionPartitions getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Returns the approximate number of the threads currently waiting for a connection to become available.
+     */
+    public int getWaiting() {
+        return blocked.get() + waiters.size();
+    }
+
     ////////////// restore(...) //////////////
 
     public void restore(ConnHolder connHolder, boolean valid, SQLException[] exceptions) {
         if (logger.isTraceEnabled()) {
             logger.trace("Restoring rawConnection {}", connHolder.rawConnection());
         }
-        boolean reusable = valid && exceptions.length == 0 && connHolder.version() == connectionFactory.version();
+        Partition partition = connHolder.getPartition();
+        if (partition != null) {
+            connHolder.setPartition(null);
+            partitions.release(partition);
+        }
+
+        boolean reusable = valid && exceptions.length == 0; // an older version connection is revalidated when taken
+        if (reusable && handoff && connHolder.version() == connectionFactory.version()
+                && !waiters.isEmpty() && handOff(connHolder)) {
+            return;
+        }
         poolService.restore(connHolder, reusable);
         processSQLExceptions(connHolder, exceptions);
+
+        if (!waiters.isEmpty()) {
+            serveWaiters();
+        }
     }
 
     /**
      * Processes SQL exceptions that have occurred on the given JDBC Connection (wrapped in a {@code ConnHolder}).
+     * A critical SQL exception invalidates only the given connection, which is already closed as it is not
+     * reusable. A server-wide critical SQL exception increments the connection factory version, and all other
+     * connections created before that are revalidated the next time they are taken from the pool.
      *
      * @param connHolder the given connection
      * @param exceptions the list of SQL exceptions that have occurred on the connection; might be an empty list but not a {@code null}
      */
     private void processSQLExceptions(ConnHolder connHolder, SQLException[] exceptions) {
-        int connVersion = connHolder.version();
-        SQLException criticalException = getCriticalSQLException(exceptions);
-        if (criticalException != null && connectionFactory.compareAndSetVersion(connVersion, connVersion + 1)) {
-            int destroyed = poolService.drainCreated(); // destroys all connections in the pool
-            logger.error("Critical SQLState {} occurred, destroyed {} connections from pool {}, current connection version is {}.",
-                    criticalException.getSQLState(), destroyed, getPoolName(dataSource), connectionFactory.version(), criticalException);
+        SQLException serverWideException = findSQLException(exceptions, serverWideSQLStates);
+        if (serverWideException != null) {
+            int connVersion = connHolder.version();
+            if (connectionFactory.compareAndSetVersion(connVersion, connVersion + 1)) {
+                dataSource.getMetrics().recordServerWideSQLState();
+                PoolFlightRecorder flightRecorder = dataSource.getFlightRecorder();
+                if (flightRecorder != null) {
+                    flightRecorder.record(PoolFlightRecorder.Type.DRAIN, connHolder.rawConnection(), poolService.remainingCreated());
+                }
+                logger.error("Server-wide critical SQLState {} occurred, the {} idle connections in pool {} will be revalidated, current connection version is {}.",
+                        serverWideException.getSQLState(), poolService.remainingCreated(), getPoolName(dataSource),
+                        connectionFactory.version(), serverWideException);
+            }
+            return;
+        }
+
+        SQLException criticalException = findSQLException(exceptions, criticalSQLStates);
+        if (criticalException != null) {
+            dataSource.getMetrics().recordCriticalSQLState();
+            logger.warn("Critical SQLState {} occurred, closed rawConnection {} from pool {}.",
+                    criticalException.getSQLState(), connHolder.rawConnection(), getPoolName(dataSource), criticalException);
         }
     }
 
-    private SQLException getCriticalSQLException(SQLException[] exceptions) {
+    private static SQLException findSQLException(SQLException[] exceptions, Set<String> sqlStates) {
         for (SQLException exception : exceptions) {
-            if (isCriticalSQLException(exception)) {
-                return exception;
+            for (SQLException next = exception; next != null; next = next.getNextException()) {
+                if (sqlStates.contains(next.getSQLState())) {
+                    return next;
+                }
             }
         }
         return null;
     }
-
-    private boolean isCriticalSQLException(SQLException exception) {
-        if (exception == null) {
-            return false;
-        }
-        if (criticalSQLStates.contains(exception.getSQLState())) {
-            return true;
-        }
-        return isCriticalSQLException(exception.getNextException());
-    }
 }
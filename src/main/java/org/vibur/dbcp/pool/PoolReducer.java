@@ -44,6 +44,17 @@ public class PoolReducer extends SamplingPoolReducer {
         this.config = config;
     }
 
+    /**
+     * Does not reduce the pool below the configured {@link ViburConfig#poolInitialSize poolInitialSize}, even
+     * if the pool itself was started with fewer connections, see
+     * {@link ViburConfig#poolWarmUpInBackground poolWarmUpInBackground}.
+     */
+    @Override
+    protected int calculateReduction() {
+        int reduction = super.calculateReduction();
+        return Math.min(reduction, Math.max(0, config.getPool().createdTotal() - config.getPoolInitialSize()));
+    }
+
     @Override
     protected void afterReduce(int reduction, int reduced, Throwable thrown) {
         if (thrown != null) {
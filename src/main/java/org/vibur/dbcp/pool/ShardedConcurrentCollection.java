@@ -0,0 +1,175 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.vibur.objectpool.util.ConcurrentCollection;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.vibur.objectpool.util.ArgumentValidation.forbidIllegalArgument;
+
+/**
+ * A striped {@link ConcurrentCollection} which spreads the available pool objects across a number of
+ * {@link ConcurrentLinkedDeque} shards. Each thread starts from a home shard picked by the hash of the thread id,
+ * and if its home shard is empty, steals from the other shards in a round-robin fashion. The objects restored by
+ * a thread are offered to the head of its home shard. Used only when
+ * {@link org.vibur.dbcp.ViburConfig#poolShards poolShards} is greater than {@code 1}.
+ *
+ * <p>Each shard has its own state, which holds the number of the objects in the shard and a version incremented
+ * on each change, and which resides on its own cache line; there is no state shared by all shards. A poll
+ * operation first reserves an object in a shard by decrementing the shard count, and then polls the shard, which
+ * is guaranteed to hold the reserved object. If no shard has a positive count, the poll collects the states of
+ * all shards twice, and returns {@code null} only if they did not change in between, i.e., only if the collection
+ * was empty at the moment of the second collect. This is needed by {@link org.vibur.objectpool.ConcurrentPool}
+ * which creates a new object when the collection is empty, and which otherwise could exceed its max size.
+ *
+ * <p>Note that there is no global order between the objects in different shards. The tail of each shard holds its
+ * least recently restored objects, but {@link #offerLast} and {@link #pollLast} choose the shard in a round-robin
+ * fashion, i.e., {@code pollLast} returns one of the least recently restored objects of some shard, not
+ * necessarily the least recently restored object of the whole collection.
+ *
+ * @param <T> the type of objects held in this collection
+ *
+ * @author Simeon Malchev
+ */
+public class ShardedConcurrentCollection<T> implements ConcurrentCollection<T> {
+
+    private static final int PADDING = 8; // the longs per cache line
+    private static final long VERSION = 1L << 32; // the state is the version in the high and the count in the low 32 bits
+
+    private final ConcurrentLinkedDeque<T>[] shards;
+    private final AtomicLongArray states; // the state of shard i is at index i * PADDING
+    private final int mask;
+
+    private final AtomicInteger nextShard = new AtomicInteger(0); // used by the offerLast() and pollLast() methods
+
+    /**
+     * Creates a new sharded collection.
+     *
+     * @param shards the number of shards, will be rounded up to the next power of 2
+     */
+    public ShardedConcurrentCollection(int shards) {
+        forbidIllegalArgument(shards <= 0 || shards > 1 << 16);
+        int length = Integer.highestOneBit(shards);
+        if (length < shards) {
+            length <<= 1;
+        }
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ConcurrentLinkedDeque<T>[] array = new ConcurrentLinkedDeque[length];
+        for (int i = 0; i < length; i++) {
+            array[i] = new ConcurrentLinkedDeque<>();
+        }
+        this.shards = array;
+        this.states = new AtomicLongArray(length * PADDING);
+        this.mask = length - 1;
+    }
+
+    @Override
+    public void offerFirst(T object) {
+        int shard = homeShard();
+        shards[shard].offerFirst(object);
+        states.addAndGet(shard * PADDING, VERSION + 1); // must be incremented only after the object is in the shard
+    }
+
+    @Override
+    public void offerLast(T object) {
+        int shard = nextShard.getAndIncrement() & mask;
+        shards[shard].offerLast(object);
+        states.addAndGet(shard * PADDING, VERSION + 1);
+    }
+
+    @Override
+    public T pollFirst() {
+        int shard = reserve(homeShard());
+        if (shard < 0) {
+            return null;
+        }
+
+        for (;;) { // we have reserved one object in this shard, so the poll below will find it
+            T object = shards[shard].pollFirst();
+            if (object != null) {
+                return object;
+            }
+        }
+    }
+
+    @Override
+    public T pollLast() {
+        int shard = reserve(nextShard.getAndIncrement() & mask);
+        if (shard < 0) {
+            return null;
+        }
+
+        for (;;) {
+            T object = shards[shard].pollLast();
+            if (object != null) {
+                return object;
+            }
+        }
+    }
+
+    /**
+     * Reserves one object in one of the shards, starting from the given shard.
+     *
+     * @return the index of the shard in which an object was reserved, or {@code -1} if the collection is empty
+     */
+    private int reserve(int start) {
+        int shard = tryReserve(start, null); // the fast path, which doesn't allocate
+        if (shard >= 0) {
+            return shard;
+        }
+
+        long[] collected = new long[shards.length];
+        for (;;) {
+            long[] current = new long[shards.length];
+            if ((shard = tryReserve(start, current)) >= 0) {
+                return shard;
+            }
+            if (Arrays.equals(collected, current)) {
+                return -1; // no shard has changed between the two collects
+            }
+            collected = current;
+        }
+    }
+
+    private int tryReserve(int start, long[] collected) {
+        for (int i = start, n = 0; n < shards.length; i = (i + 1) & mask, n++) {
+            long state;
+            while ((int) (state = states.get(i * PADDING)) > 0) {
+                if (states.compareAndSet(i * PADDING, state, state + VERSION - 1)) {
+                    return i;
+                }
+            }
+            if (collected != null) {
+                collected[i] = state;
+            }
+        }
+        return -1;
+    }
+
+    private int homeShard() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mask; // spreads the sequential thread ids
+    }
+
+    public int shards() {
+        return shards.length;
+    }
+}
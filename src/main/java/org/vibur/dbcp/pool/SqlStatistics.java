@@ -0,0 +1,375 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.vibur.dbcp.ViburConfig;
+
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.String.format;
+
+/**
+ * Aggregates client-side execution statistics per normalized SQL query, similarly to the {@code pg_stat_statements}
+ * extension of PostgreSQL, see {@link ViburConfig#sqlStatisticsMaxSize sqlStatisticsMaxSize}. The statistics are
+ * collected via a {@link Hook.StatementExecution} and a {@link Hook.ResultSetRetrieval} hook, and include the number
+ * of executions, the total, maximum and percentile execution times, the number of retrieved ResultSet rows, and
+ * the number of executions which have thrown an SQLException.
+ *
+ * <p>The SQL queries are normalized via {@link #normalize}, which replaces the string and numeric literals with
+ * {@code ?}, removes the comments, and collapses the whitespace, so that the queries which differ only in their
+ * literal values are aggregated together. The normalized form of the recently executed raw queries is cached in
+ * a map which is bounded to {@value #NORMALIZED_CACHE_FACTOR} times the {@code sqlStatisticsMaxSize} and is cleared
+ * when it overflows, so that the frequently executed queries are not normalized on each execution.
+ *
+ * <p>The number of the tracked queries is bounded by the {@code sqlStatisticsMaxSize}. When a new query is
+ * executed and the limit has been reached, a batch of the least frequently executed queries is evicted, so that
+ * the frequent queries, which dominate the aggregate database time, are retained. The execution frequency used
+ * for the eviction is aged, i.e., halved for all retained queries on each eviction, so that a query which was
+ * frequent in the past but is no longer executed is eventually evicted too. The batch is about
+ * 1/{@value #EVICTION_BATCH_DIVISOR} of the limit, and is evicted by only one thread at a time, while the other
+ * threads proceed without waiting; thus, the cost of the eviction is amortized over many new queries, and the limit
+ * may be briefly exceeded by a few queries.
+ *
+ * <p>The execution times of each query are recorded in a {@link LatencyHistogram} with a relative error of at most
+ * 1/{@value #HISTOGRAM_SUB_BUCKETS}, which takes about 2.5 KB of memory.
+ *
+ * @author Simeon Malchev
+ */
+public class SqlStatistics {
+
+    private static final int NORMALIZED_CACHE_FACTOR = 4;
+    private static final int EVICTION_BATCH_DIVISOR = 16;
+    private static final int HISTOGRAM_SUB_BUCKET_BITS = 3;
+    private static final int HISTOGRAM_SUB_BUCKETS = 1 << HISTOGRAM_SUB_BUCKET_BITS;
+
+    private final int maxSize;
+    private final int normalizedCacheMaxSize;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> normalized = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean(false);
+    private final AtomicLong evictions = new AtomicLong(0);
+
+    public SqlStatistics(ViburConfig config) {
+        this.maxSize = config.getSqlStatisticsMaxSize();
+        this.normalizedCacheMaxSize = maxSize * NORMALIZED_CACHE_FACTOR;
+
+        config.getInvocationHooks().addOnStatementExecution(new Hook.StatementExecution() {
+            @Override
+            public Object on(Statement proxy, Method method, Object[] args, String sqlQuery, List<Object[]> sqlQueryParams,
+                             Hook.StatementProceedingPoint proceed) throws SQLException {
+
+                if (sqlQuery == null) {
+                    return proceed.on(proxy, method, args, sqlQuery, sqlQueryParams, proceed);
+                }
+
+                long startNanoTime = System.nanoTime();
+                boolean failed = true;
+                try {
+                    Object result = proceed.on(proxy, method, args, sqlQuery, sqlQueryParams, proceed);
+                    failed = false;
+                    return result;
+                } finally {
+                    entryFor(sqlQuery).recordExecution(System.nanoTime() - startNanoTime, failed);
+                }
+            }
+        });
+        config.getInvocationHooks().addOnResultSetRetrieval(new Hook.ResultSetRetrieval() {
+            @Override
+            public void on(String sqlQuery, List<Object[]> sqlQueryParams, long resultSetSize, long resultSetNanoTime) {
+                Entry entry = sqlQuery != null ? entries.get(normalizedOf(sqlQuery)) : null;
+                if (entry != null) { // the entry could have been evicted since the query execution
+                    entry.rows.addAndGet(resultSetSize);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the statistics of up to {@code count} queries with the highest total execution time, in
+     * descending order of the total execution time.
+     */
+    public List<Entry> getTop(int count) {
+        List<Entry> top = new ArrayList<>(entries.values());
+        Collections.sort(top, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry e1, Entry e2) {
+                return Long.compare(e2.getTotalNanos(), e1.getTotalNanos());
+            }
+        });
+        return top.size() > count ? top.subList(0, count) : top;
+    }
+
+    /**
+     * Formats as a {@code String}, one query per line, the statistics of up to {@code count} queries with
+     * the highest total execution time.
+     */
+    public String formatTop(int count) {
+        StringBuilder builder = new StringBuilder(4096);
+        for (Entry entry : getTop(count)) {
+            builder.append(entry).append('\n');
+        }
+        return builder.toString();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of the queries which have been evicted because the {@code sqlStatisticsMaxSize}
+     * was reached.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Clears all statistics.
+     */
+    public void reset() {
+        entries.clear();
+        normalized.clear();
+        evictions.set(0);
+    }
+
+    private Entry entryFor(String sqlQuery) {
+        String key = normalizedOf(sqlQuery);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            return entry;
+        }
+
+        if (entries.size() >= maxSize) {
+            evictLeastFrequent();
+        }
+        entry = new Entry(key);
+        Entry existing = entries.putIfAbsent(key, entry);
+        return existing != null ? existing : entry;
+    }
+
+    private void evictLeastFrequent() {
+        if (!evicting.compareAndSet(false, true)) {
+            return; // another thread is evicting
+        }
+        try {
+            List<Entry> all = new ArrayList<>(entries.values());
+            int count = all.size() - maxSize + Math.max(1, maxSize / EVICTION_BATCH_DIVISOR);
+            if (count <= 0) {
+                return;
+            }
+            for (Entry entry : all) {
+                entry.rank = entry.frequency.get(); // a stable snapshot for the sorting
+            }
+            Collections.sort(all, new Comparator<Entry>() {
+                @Override
+                public int compare(Entry e1, Entry e2) {
+                    return Long.compare(e1.rank, e2.rank);
+                }
+            });
+            int i = 0;
+            for (; i < count && i < all.size(); i++) {
+                Entry entry = all.get(i);
+                if (entries.remove(entry.sqlQuery, entry)) {
+                    evictions.incrementAndGet();
+                }
+            }
+            for (; i < all.size(); i++) {
+                AtomicLong frequency = all.get(i).frequency;
+                frequency.addAndGet(-(frequency.get() >> 1)); // ages the retained queries
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private String normalizedOf(String sqlQuery) {
+        String result = normalized.get(sqlQuery);
+        if (result == null) {
+            result = normalize(sqlQuery);
+            if (normalized.size() >= normalizedCacheMaxSize) {
+                normalized.clear();
+            }
+            normalized.put(sqlQuery, result);
+        }
+        return result;
+    }
+
+    /**
+     * Normalizes the given SQL query by replacing its string and numeric literals with {@code ?}, removing
+     * its comments, and collapsing its whitespace into single spaces.
+     *
+     * @param sqlQuery the SQL query to normalize
+     * @return the normalized SQL query
+     */
+    public static String normalize(String sqlQuery) {
+        int length = sqlQuery.length();
+        StringBuilder builder = new StringBuilder(length);
+        boolean space = false;
+        for (int i = 0; i < length; i++) {
+            char c = sqlQuery.charAt(i);
+
+            if (Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (c == '-' && i + 1 < length && sqlQuery.charAt(i + 1) == '-') { // a line comment
+                while (i + 1 < length && sqlQuery.charAt(i + 1) != '\n') {
+                    i++;
+                }
+                space = true;
+                continue;
+            }
+            if (c == '/' && i + 1 < length && sqlQuery.charAt(i + 1) == '*') { // a block comment
+                int end = sqlQuery.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 1;
+                space = true;
+                continue;
+            }
+
+            if (space && builder.length() > 0) {
+                builder.append(' ');
+            }
+            space = false;
+
+            if (c == '\'') { // a string literal, where '' is an escaped quote
+                while (++i < length) {
+                    if (sqlQuery.charAt(i) == '\'') {
+                        if (i + 1 < length && sqlQuery.charAt(i + 1) == '\'') {
+                            i++;
+                        }
+                        else {
+                            break;
+                        }
+                    }
+                }
+                builder.append('?');
+            }
+            else if (c == '"') { // a quoted identifier, kept as is
+                int end = sqlQuery.indexOf('"', i + 1);
+                end = end < 0 ? length - 1 : end;
+                builder.append(sqlQuery, i, end + 1);
+                i = end;
+            }
+            else if (Character.isDigit(c) && !isIdentifierPart(builder)) { // a numeric literal
+                while (i + 1 < length && (Character.isLetterOrDigit(sqlQuery.charAt(i + 1)) || sqlQuery.charAt(i + 1) == '.')) {
+                    i++;
+                }
+                builder.append('?');
+            }
+            else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static boolean isIdentifierPart(StringBuilder builder) {
+        int length = builder.length();
+        if (length == 0) {
+            return false;
+        }
+        char last = builder.charAt(length - 1);
+        return Character.isLetterOrDigit(last) || last == '_' || last == '$';
+    }
+
+    /**
+     * The statistics of one normalized SQL query.
+     */
+    public static final class Entry {
+        private final String sqlQuery;
+        private final AtomicLong calls = new AtomicLong(0);
+        private final AtomicLong frequency = new AtomicLong(0); // the aged number of calls, used for the eviction
+        private long rank = 0; // a snapshot of the frequency, accessed only by the evicting thread
+        private final AtomicLong errors = new AtomicLong(0);
+        private final AtomicLong totalNanos = new AtomicLong(0);
+        private final AtomicLong rows = new AtomicLong(0);
+        private final LatencyHistogram histogram = new LatencyHistogram(1, HISTOGRAM_SUB_BUCKET_BITS);
+
+        private Entry(String sqlQuery) {
+            this.sqlQuery = sqlQuery;
+        }
+
+        private void recordExecution(long takenNanos, boolean failed) {
+            calls.incrementAndGet();
+            frequency.incrementAndGet();
+            totalNanos.addAndGet(takenNanos);
+            histogram.record(takenNanos);
+            if (failed) {
+                errors.incrementAndGet();
+            }
+        }
+
+        /**
+         * Returns the normalized SQL query.
+         */
+        public String getSqlQuery() {
+            return sqlQuery;
+        }
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        /**
+         * Returns the number of the executions which have thrown an SQLException.
+         */
+        public long getErrors() {
+            return errors.get();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.get();
+        }
+
+        public long getMaxNanos() {
+            return histogram.getMax();
+        }
+
+        /**
+         * Returns the histogram of the execution times.
+         */
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+
+        /**
+         * Returns the total number of the ResultSet rows retrieved via this query.
+         */
+        public long getRows() {
+            return rows.get();
+        }
+
+        @Override
+        public String toString() {
+            long calls = getCalls();
+            return format("calls=%d, totalMs=%.3f, meanMs=%.3f, p99Ms=%.3f, maxMs=%.3f, rows=%d, errors=%d: %s",
+                    calls, getTotalNanos() * 0.000_001, calls > 0 ? getTotalNanos() * 0.000_001 / calls : 0,
+                    histogram.getValueAtPercentile(99) * 0.000_001, getMaxNanos() * 0.000_001,
+                    getRows(), getErrors(), sqlQuery);
+        }
+    }
+}
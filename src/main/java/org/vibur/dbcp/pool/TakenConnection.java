@@ -16,19 +16,25 @@
 
 package org.vibur.dbcp.pool;
 
+import java.security.ProtectionDomain;
 import java.sql.Connection;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static java.lang.Integer.toHexString;
 
 /**
- * Represents a currently taken proxy Connection, its associated timing data, the thread that has taken it, and
- * the stack trace at the moment when the Connection was taken. Most of the fields of this class are used only if
+ * Represents a currently taken proxy Connection, its associated timing data, the thread that has taken it,
+ * a fingerprint of the call site which has taken it, and the stack trace at the moment when the Connection
+ * was taken. Most of the fields of this class are used only if
  * {@link org.vibur.dbcp.ViburConfig#poolEnableConnectionTracking poolEnableConnectionTracking} is allowed.
  *
  * @author Simeon Malchev
  */
 public abstract class TakenConnection {
 
+    private static final int CALL_SITE_FRAMES = 4; // the number of the application stack frames hashed by the fingerprint
+    private static final CallerClasses callerClasses = CallerClasses.create(); // null if not allowed by the JVM
+
     // the proxy Connection, used when poolEnableConnectionTracking is allowed
     private Connection proxyConnection = null;
     // used when poolEnableConnectionTracking is allowed or if there are GetConnection or CloseConnection hooks registered
@@ -36,9 +42,11 @@ public abstract class TakenConnection {
     // the last nano time when a method was called on the proxyConnection, used when poolEnableConnectionTracking is allowed
     private long lastAccessNanoTime = 0;
 
-    // these 2 fields are used when poolEnableConnectionTracking is allowed
+    // these 4 fields are used when poolEnableConnectionTracking is allowed
     private Thread thread = null;
-    private Throwable location = null;
+    private String threadName = null;
+    private Throwable location = null; // captured only for the sampled connections
+    private int callSiteFingerprint = 0;
 
     TakenConnection() { }
 
@@ -47,7 +55,9 @@ public abstract class TakenConnection {
         this.takenNanoTime = takenConnection.takenNanoTime;
         this.lastAccessNanoTime = takenConnection.lastAccessNanoTime;
         this.thread = takenConnection.thread;
+        this.threadName = takenConnection.threadName;
         this.location = takenConnection.location;
+        this.callSiteFingerprint = takenConnection.callSiteFingerprint;
     }
 
     /**
@@ -95,20 +105,92 @@ public abstract class TakenConnection {
         return thread;
     }
 
-    void setThread(Thread thread) {
-        this.thread = thread;
+    /**
+     * Returns the name of the thread that has taken this Connection, as of the moment when the Connection was taken.
+     */
+    public String getThreadName() {
+        return threadName;
     }
 
-
     /**
-     * Returns the stack trace at the moment when the connection was taken.
+     * Returns the stack trace at the moment when the connection was taken, or {@code null} if the stack trace
+     * was not sampled for this connection, see
+     * {@link org.vibur.dbcp.ViburConfig#poolConnectionTrackingSampleRate poolConnectionTrackingSampleRate}.
      */
     public Throwable getLocation() {
         return location;
     }
 
-    void setLocation(Throwable location) {
-        this.location = location;
+    /**
+     * Returns a hash of the classes of the top application stack frames at the moment when the connection was taken,
+     * i.e., of the frames right below the pool's {@code getConnection} method. The fingerprint is computed for every
+     * taken connection, regardless of whether its stack trace was sampled, and the connections with the same
+     * fingerprint were most likely taken at the same call site. Because the classes are obtained without capturing
+     * the stack trace, which is captured only for the sampled connections, the fingerprint does not distinguish
+     * between the call sites in the same class. Returns {@code 0} if the JVM does not allow the inspection of the
+     * classes on the call stack, see {@link SecurityManager#getClassContext}.
+     */
+    public int getCallSiteFingerprint() {
+        return callSiteFingerprint;
+    }
+
+    /**
+     * Records the current thread as the thread that has taken this Connection and its call site fingerprint, and
+     * captures the current stack trace for one in {@code sampleRate} randomly chosen calls.
+     */
+    void trackTaking(int sampleRate) {
+        Thread currentThread = Thread.currentThread();
+        this.thread = currentThread;
+        this.threadName = currentThread.getName();
+        this.callSiteFingerprint = callerClasses != null ? callerClasses.fingerprint() : 0;
+        this.location = sampleRate <= 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0 ? new Throwable() : null;
+    }
+
+    /**
+     * Obtains the classes on the current call stack via {@link SecurityManager#getClassContext}, which is
+     * considerably cheaper than capturing the stack trace, as it does not resolve the method names and line numbers.
+     */
+    private static final class CallerClasses extends SecurityManager {
+        private final ProtectionDomain poolDomain = TakenConnection.class.getProtectionDomain();
+
+        private static CallerClasses create() {
+            try {
+                CallerClasses callerClasses = new CallerClasses();
+                return callerClasses.getClassContext() != null ? callerClasses : null;
+            } catch (RuntimeException | Error ignored) { // e.g., not permitted by the JVM
+                return null;
+            }
+        }
+
+        private int fingerprint() {
+            Class<?>[] classes = getClassContext();
+            int start = 0;
+            while (start < classes.length && isPoolClass(classes[start])) {
+                start++; // skips the pool's own frames
+            }
+
+            int hash = 1;
+            for (int i = start; i < Math.min(start + CALL_SITE_FRAMES, classes.length); i++) {
+                hash = 31 * hash + classes[i].getName().hashCode();
+            }
+            return hash != 0 ? hash : 1;
+        }
+
+        private boolean isPoolClass(Class<?> cls) {
+            String name = cls.getName();
+            return name.startsWith("org.vibur.objectpool.")
+                    || (name.startsWith("org.vibur.dbcp.") && cls.getProtectionDomain() == poolDomain);
+        }
+    }
+
+    void clearTracking() {
+        this.takenNanoTime = 0;
+        this.lastAccessNanoTime = 0;
+        this.proxyConnection = null;
+        this.thread = null;
+        this.threadName = null;
+        this.location = null;
+        this.callSiteFingerprint = 0;
     }
 
     @Override
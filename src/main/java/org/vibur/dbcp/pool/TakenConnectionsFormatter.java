@@ -68,6 +68,7 @@ public interface TakenConnectionsFormatter {
             long currentNanoTime = System.nanoTime();
             StringBuilder builder = new StringBuilder(takenConns.length * 8192);
             Map<Thread, StackTraceElement[]> currentStackTraces = getCurrentStackTraces(takenConns);
+            Map<Integer, Integer> callSites = countCallSites(takenConns);
             for (int i = 0; i < takenConns.length; i++) {
                 Thread holdingThread = takenConns[i].getThread();
                 builder.append("\n============\n(").append(i + 1).append('/').append(takenConns.length).append("), ")
@@ -82,10 +83,24 @@ public interface TakenConnectionsFormatter {
                             NANOSECONDS.toMillis(currentNanoTime - takenConns[i].getLastAccessNanoTime())).append(" ms");
                 }
 
-                builder.append(", taken by thread ").append(holdingThread.getName())
-                        .append(", current thread state ").append(holdingThread.getState())
-                        .append("\n\nThread stack trace at the moment when getting the Connection:\n")
-                        .append(getStackTraceAsString(config.getLogLineRegex(), takenConns[i].getLocation().getStackTrace()));
+                builder.append(", taken by thread ").append(takenConns[i].getThreadName());
+                if (!holdingThread.getName().equals(takenConns[i].getThreadName())) {
+                    builder.append(", current thread name ").append(holdingThread.getName());
+                }
+                builder.append(", current thread state ").append(holdingThread.getState());
+                int callSite = takenConns[i].getCallSiteFingerprint();
+                if (callSite != 0) {
+                    builder.append(", call site ").append(Integer.toHexString(callSite))
+                            .append(" (").append(callSites.get(callSite)).append(" taken connections)");
+                }
+                Throwable location = takenConns[i].getLocation();
+                if (location != null) {
+                    builder.append("\n\nThread stack trace at the moment when getting the Connection:\n")
+                            .append(getStackTraceAsString(config.getLogLineRegex(), location.getStackTrace()));
+                }
+                else {
+                    builder.append("\n\nThread stack trace at the moment when getting the Connection was not sampled\n");
+                }
 
                 StackTraceElement[] currentStackTrace = currentStackTraces.remove(holdingThread);
                 if (currentStackTrace != null && currentStackTrace.length > 0) {
@@ -116,6 +131,18 @@ public interface TakenConnectionsFormatter {
             return builder;
         }
 
+        private Map<Integer, Integer> countCallSites(TakenConnection[] takenConns) {
+            Map<Integer, Integer> callSites = new HashMap<>();
+            for (TakenConnection takenConn : takenConns) {
+                int callSite = takenConn.getCallSiteFingerprint();
+                if (callSite != 0) {
+                    Integer count = callSites.get(callSite);
+                    callSites.put(callSite, count == null ? 1 : count + 1);
+                }
+            }
+            return callSites;
+        }
+
         private Map<Thread, StackTraceElement[]> getCurrentStackTraces(TakenConnection[] takenConns) {
             if (config.isLogAllStackTracesOnTimeout()) {
                 return Thread.getAllStackTraces();
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.vibur.objectpool.util.ConcurrentCollection;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A thread-affine decorator of the pool's shared {@link ConcurrentCollection}. Each thread remembers the
+ * {@link ConnHolder} that it last restored to the pool, and when the same thread takes a connection again,
+ * it first tries to reclaim this {@code ConnHolder} via a CAS on its {@code available} state, before falling back
+ * to the shared (decorated) collection. This avoids the head/tail contention on the shared collection for
+ * applications that take and restore a connection many times from the same thread. Used only when
+ * {@link org.vibur.dbcp.ViburConfig#poolThreadAffinity poolThreadAffinity} is enabled.
+ *
+ * <p>A reclaimed {@code ConnHolder} is not physically removed from the shared collection; instead, the stale
+ * entry is discarded later on when it is polled and its CAS fails. The {@code enqueued} state of the
+ * {@code ConnHolder} guarantees that such object is not offered to the shared collection again while its
+ * previous entry is still there.
+ *
+ * @author Simeon Malchev
+ */
+public class ThreadAffineCollection implements ConcurrentCollection<ConnHolder> {
+
+    private final ConcurrentCollection<ConnHolder> shared;
+
+    // holds the last ConnHolder restored by the current thread; the ConnHolder can be already taken or destroyed
+    private final ThreadLocal<ConnHolder> lastRestored = new ThreadLocal<>();
+
+    public ThreadAffineCollection(ConcurrentCollection<ConnHolder> shared) {
+        this.shared = requireNonNull(shared);
+    }
+
+    @Override
+    public void offerFirst(ConnHolder connHolder) { // called from ConcurrentPool.restore()
+        lastRestored.set(connHolder);
+        connHolder.available().set(true);
+        if (connHolder.enqueued().compareAndSet(false, true)) {
+            shared.offerFirst(connHolder);
+        }
+    }
+
+    @Override
+    public void offerLast(ConnHolder connHolder) { // called only when the initial pool objects are created
+        connHolder.available().set(true);
+        if (connHolder.enqueued().compareAndSet(false, true)) {
+            shared.offerLast(connHolder);
+        }
+    }
+
+    @Override
+    public ConnHolder pollFirst() {
+        ConnHolder connHolder = lastRestored.get();
+        if (connHolder != null) {
+            lastRestored.remove();
+            if (connHolder.available().compareAndSet(true, false)) {
+                return connHolder; // the fast path, no access to the shared collection
+            }
+        }
+
+        while ((connHolder = shared.pollFirst()) != null) {
+            if (claim(connHolder)) {
+                return connHolder;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public ConnHolder pollLast() {
+        ConnHolder connHolder;
+        while ((connHolder = shared.pollLast()) != null) {
+            if (claim(connHolder)) {
+                return connHolder;
+            }
+        }
+        return null;
+    }
+
+    private static boolean claim(ConnHolder connHolder) {
+        // the enqueued state must be cleared before the CAS, in order to let the (possibly) concurrently
+        // restoring thread to offer the ConnHolder again, if the CAS below fails
+        connHolder.enqueued().set(false);
+        return connHolder.available().compareAndSet(true, false); // false means a stale entry that is discarded
+    }
+}
@@ -179,6 +179,14 @@ abstract class AbstractInvocationHandler<T> extends ExceptionCollector implement
         }
     }
 
+    /**
+     * Notifies the exceptions collector that a successful round trip to the database has been completed,
+     * see {@link ExceptionCollector#addRoundTrip}.
+     */
+    final void roundTripCompleted() {
+        exceptionCollector.addRoundTrip();
+    }
+
     private void logTargetInvokeFailure(Method method, Object[] args, Throwable t) {
         if (logger.isDebugEnabled()) {
             logger.debug("Pool {}, the invocation of {} with args {} on {} threw:",
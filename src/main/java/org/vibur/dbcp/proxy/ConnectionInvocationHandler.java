@@ -41,6 +41,7 @@ class ConnectionInvocationHandler extends AbstractInvocationHandler<Connection>
     private final PoolOperations poolOperations;
     private final ViburConfig config;
     private final boolean poolEnableConnectionTracking;
+    private final boolean trackRoundTrips;
 
     private final StatementCache statementCache;
 
@@ -50,6 +51,7 @@ class ConnectionInvocationHandler extends AbstractInvocationHandler<Connection>
         this.poolOperations = poolOperations;
         this.config = config;
         this.poolEnableConnectionTracking = config.isPoolEnableConnectionTracking();
+        this.trackRoundTrips = config.getConnectionValidationTrustWindowInMs() > 0;
         this.statementCache = config.getStatementCache();
     }
 
@@ -99,6 +101,11 @@ class ConnectionInvocationHandler extends AbstractInvocationHandler<Connection>
             DatabaseMetaData rawDatabaseMetaData = (DatabaseMetaData) targetInvoke(method, args);
             return newProxyDatabaseMetaData(rawDatabaseMetaData, proxy, config, this);
         }
+        if (methodName == "commit") {
+            Object result = targetInvoke(method, args);
+            addRoundTrip();
+            return result;
+        }
 
         return super.restrictedInvoke(proxy, method, args);
     }
@@ -143,6 +150,15 @@ class ConnectionInvocationHandler extends AbstractInvocationHandler<Connection>
         }
     }
 
+    //////// The ExceptionCollector round trips tracking: ////////
+
+    @Override
+    void addRoundTrip() {
+        if (trackRoundTrips) {
+            connHolder.setLastRoundTripNanoTime(System.nanoTime());
+        }
+    }
+
     //////// The StatementCreator implementation: ////////
 
     @Override
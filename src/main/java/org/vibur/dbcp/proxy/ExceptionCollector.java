@@ -47,6 +47,14 @@ abstract class ExceptionCollector {
         }
     }
 
+    /**
+     * This method will be called when a statement execution or a commit invoked on a JDBC object has completed
+     * without throwing an SQLException, i.e., when a successful round trip to the database has been observed.
+     * The default implementation does nothing.
+     */
+    void addRoundTrip() {
+    }
+
     private Queue<SQLException> getOrInit() {
         Queue<SQLException> ex = exceptions;
         if (ex == null) {
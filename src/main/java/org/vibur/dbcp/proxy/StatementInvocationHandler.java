@@ -141,8 +141,8 @@ class StatementInvocationHandler extends ChildObjectInvocationHandler<Connection
     private Object processExecute(Statement proxy, Method method, Object[] args) throws SQLException {
         closeAllResultSets();
 
-        if (statement.getSqlQuery() == null && args != null && args.length >= 1) { // a simple Statement "execute..." call
-            statement.setSqlQuery((String) args[0]);
+        if (args != null && args.length >= 1 && args[0] instanceof String) { // a simple Statement "execute..." call
+            statement.setSqlQuery((String) args[0]); // each call on a simple Statement can execute a different query
         }
 
         try {
@@ -217,10 +217,15 @@ class StatementInvocationHandler extends ChildObjectInvocationHandler<Connection
     private Object doProcessExecute(Statement proxy, Method method, Object[] args) throws SQLException {
         // executeQuery result has to be proxied so that when getStatement() is called
         // on its result the return value to be the current JDBC Statement proxy.
+        Object result;
         if (method.getName() == "executeQuery") { // *1
-            return newProxiedResultSet(proxy, method, args, statement.getSqlQuery());
+            result = newProxiedResultSet(proxy, method, args, statement.getSqlQuery());
+        }
+        else {
+            result = targetInvoke(method, args); // the real "execute..." call
         }
 
-        return targetInvoke(method, args); // the real "execute..." call
+        roundTripCompleted();
+        return result;
     }
 }
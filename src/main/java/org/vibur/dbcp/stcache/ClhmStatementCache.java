@@ -27,6 +27,7 @@ import java.sql.SQLException;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static java.util.Objects.requireNonNull;
@@ -48,9 +49,24 @@ public class ClhmStatementCache implements StatementCache {
     private final ConcurrentMap<StatementMethod, StatementHolder> statementCache;
     private final AtomicBoolean closed = new AtomicBoolean(false);
 
+    private final boolean enableMetrics;
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+
     public ClhmStatementCache(int maxSize) {
+        this(maxSize, false);
+    }
+
+    /**
+     * Instantiates a statement cache with the given max size.
+     *
+     * @param maxSize the cache max size
+     * @param enableMetrics whether to count the cache hits and misses
+     */
+    public ClhmStatementCache(int maxSize, boolean enableMetrics) {
         forbidIllegalArgument(maxSize <= 0);
         statementCache = requireNonNull(buildStatementCache(maxSize));
+        this.enableMetrics = enableMetrics;
     }
 
     protected ConcurrentMap<StatementMethod, StatementHolder> buildStatementCache(int maxSize) {
@@ -92,16 +108,25 @@ public class ClhmStatementCache implements StatementCache {
         StatementHolder statement = statementCache.get(statementMethod);
         if (statement != null) {
             if (statement.state().compareAndSet(AVAILABLE, IN_USE)) {
+                if (enableMetrics) {
+                    hits.incrementAndGet();
+                }
                 if (logger.isTraceEnabled()) {
                     logger.trace("Using cached statement for {}", statementMethod);
                 }
                 return statement;
             }
             // if the statement in the cache was not available we return an uncached StatementHolder
+            if (enableMetrics) {
+                misses.incrementAndGet();
+            }
             return new StatementHolder(statementMethod.newStatement(), null, statementMethod.sqlQuery());
         }
 
         // there was no cache entry for the statementMethod, so we'll try to put a new one
+        if (enableMetrics) {
+            misses.incrementAndGet();
+        }
         PreparedStatement rawStatement = statementMethod.newStatement();
         statement = new StatementHolder(rawStatement, new AtomicReference<>(IN_USE), statementMethod.sqlQuery());
         if (statementCache.putIfAbsent(statementMethod, statement) == null) {
@@ -111,6 +136,30 @@ public class ClhmStatementCache implements StatementCache {
         return new StatementHolder(rawStatement, null, statementMethod.sqlQuery());
     }
 
+    /**
+     * Returns whether the cache hits and misses are counted.
+     */
+    public boolean isMetricsEnabled() {
+        return enableMetrics;
+    }
+
+    /**
+     * Returns the number of the statement requests which were served from the cache, or {@code 0} if
+     * the metrics are not enabled.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of the statement requests which couldn't be served from the cache, either because
+     * there was no cached statement, or because the cached statement was in use; {@code 0} if the metrics are
+     * not enabled.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
     @Override
     public boolean restore(StatementHolder statement, boolean clearWarnings) {
         if (isClosed()) {
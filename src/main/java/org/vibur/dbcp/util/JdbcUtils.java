@@ -20,6 +20,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vibur.dbcp.ViburConfig;
 import org.vibur.dbcp.ViburDBCPException;
+import org.vibur.dbcp.pool.Hook;
+import org.vibur.dbcp.pool.HookHolder;
 
 import java.sql.*;
 import java.util.concurrent.Executor;
@@ -100,6 +102,33 @@ public final class JdbcUtils {
         }
     }
 
+    /**
+     * Validates the given {@code rawConnection} via executing the {@code testConnectionQuery}, records
+     * the validation in the pool metrics, and invokes the {@link Hook.ValidateConnection} hooks, if any.
+     *
+     * @param rawConnection the raw connection to validate
+     * @param config the Vibur config
+     * @return {@code true} if the given connection is successfully validated; {@code false} otherwise
+     */
+    public static boolean validate(Connection rawConnection, ViburConfig config) {
+        String testConnectionQuery = config.getTestConnectionQuery();
+        if (testConnectionQuery == null) {
+            return true;
+        }
+
+        Hook.ValidateConnection[] onValidate = HookHolder.onValidate(config.getConnHooks());
+        long startNanoTime = onValidate.length > 0 ? System.nanoTime() : 0;
+        boolean valid = validateOrInitialize(rawConnection, testConnectionQuery, config);
+        config.getMetrics().recordValidation(valid);
+        if (onValidate.length > 0) {
+            long takenNanos = System.nanoTime() - startNanoTime;
+            for (Hook.ValidateConnection hook : onValidate) {
+                hook.on(rawConnection, valid, takenNanos);
+            }
+        }
+        return valid;
+    }
+
     private static void executeSqlQuery(Connection rawConnection, String sqlQuery, ViburConfig config) throws SQLException {
         int oldTimeout = setNetworkTimeoutIfDifferent(rawConnection, config);
 
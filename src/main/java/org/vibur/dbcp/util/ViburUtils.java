@@ -42,6 +42,9 @@ public final class ViburUtils {
      */
     public static String getPoolName(ViburConfig config) {
         BasePool pool = config.getPool();
+        if (pool == null) { // the pool is not created yet, e.g., while its first connection is validated
+            return config.getName() + '@' + toHexString(config.hashCode());
+        }
         boolean initialState = pool.isTerminated();
         String result = config.getName() + '@' + toHexString(config.hashCode())
                 + '(' + pool.taken() + '/' + pool.remainingCreated() + '/' + pool.maxSize()
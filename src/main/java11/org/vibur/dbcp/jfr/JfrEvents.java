@@ -0,0 +1,251 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import org.vibur.dbcp.ViburConfig;
+import org.vibur.dbcp.pool.Hook;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Emits Java Flight Recorder events for the operations of a pool, see
+ * {@link ViburConfig#isPoolEnableJfrEvents poolEnableJfrEvents}. The events are emitted via connection and
+ * invocation hooks, which are invoked by the {@code PoolOperations}, {@code ConnectionFactory},
+ * {@code StatementInvocationHandler} and {@code ResultSetInvocationHandler}, and are committed only while
+ * a flight recording which enables them is running. The hooks are registered only if the JFR events are enabled,
+ * and they cost nothing otherwise.
+ *
+ * <p>The events of the connection operations are emitted once the operation is completed and carry the operation
+ * duration as a field, because the connection hooks are invoked after the fact; the Statement execution events
+ * are proper duration events. All events carry the pool name in their {@code pool} field.
+ *
+ * <p>This class requires JDK 11+ and is instantiated via reflection. It is compiled for Java 11 into
+ * {@code META-INF/versions/11} of the multi-release vibur-dbcp JAR, and thus is visible only when running on JDK 11+.
+ *
+ * @author Simeon Malchev
+ */
+public class JfrEvents {
+
+    /** Set by the InitConnection hook and consumed by the GetConnection hook, in order to tell whether a new
+     * connection was created as part of the current connection acquire. Note that the connections created by
+     * background threads (e.g., the pool provisioner) are not attributed to any acquire, nor are the initial
+     * connections created while the pool is being started. The thread local is per pool, so that a connection
+     * created by one pool is not attributed to an acquire from another pool on the same thread. */
+    private final ThreadLocal<boolean[]> created = new ThreadLocal<boolean[]>() {
+        @Override
+        protected boolean[] initialValue() {
+            return new boolean[1];
+        }
+    };
+
+    private final String poolName;
+
+    public JfrEvents(final ViburConfig config) {
+        this.poolName = config.getName();
+
+        config.getConnHooks().addOnInit(new Hook.InitConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                if (config.getPool() != null) { // the connection creations are infrequent
+                    created.get()[0] = rawConnection != null;
+                }
+                ConnectionCreateEvent event = new ConnectionCreateEvent();
+                if (event.isEnabled()) {
+                    event.pool = poolName;
+                    event.createTime = takenNanos;
+                    event.success = rawConnection != null;
+                    event.commit();
+                }
+            }
+        });
+        config.getConnHooks().addOnGet(new Hook.GetConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                boolean[] createdFlag = created.get();
+                ConnectionAcquireEvent event = new ConnectionAcquireEvent();
+                if (event.isEnabled()) {
+                    event.pool = poolName;
+                    event.waitTime = takenNanos;
+                    event.created = createdFlag[0];
+                    event.success = rawConnection != null;
+                    event.commit();
+                }
+                createdFlag[0] = false;
+            }
+        });
+        config.getConnHooks().addOnClose(new Hook.CloseConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                ConnectionRestoreEvent event = new ConnectionRestoreEvent();
+                if (event.isEnabled()) {
+                    event.pool = poolName;
+                    event.holdTime = takenNanos;
+                    event.commit();
+                }
+            }
+        });
+        config.getConnHooks().addOnDestroy(new Hook.DestroyConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                ConnectionDestroyEvent event = new ConnectionDestroyEvent();
+                if (event.isEnabled()) {
+                    event.pool = poolName;
+                    event.destroyTime = takenNanos;
+                    event.commit();
+                }
+            }
+        });
+        config.getConnHooks().addOnValidate(new Hook.ValidateConnection() {
+            @Override
+            public void on(Connection rawConnection, boolean valid, long takenNanos) {
+                ConnectionValidateEvent event = new ConnectionValidateEvent();
+                if (event.isEnabled()) {
+                    event.pool = poolName;
+                    event.validateTime = takenNanos;
+                    event.valid = valid;
+                    event.commit();
+                }
+            }
+        });
+
+        config.getInvocationHooks().addOnStatementExecution(new Hook.StatementExecution() {
+            @Override
+            public Object on(Statement proxy, Method method, Object[] args, String sqlQuery, List<Object[]> sqlQueryParams,
+                             Hook.StatementProceedingPoint proceed) throws SQLException {
+
+                StatementExecuteEvent event = new StatementExecuteEvent();
+                if (!event.isEnabled()) {
+                    return proceed.on(proxy, method, args, sqlQuery, sqlQueryParams, proceed);
+                }
+
+                event.begin();
+                boolean success = false;
+                try {
+                    Object result = proceed.on(proxy, method, args, sqlQuery, sqlQueryParams, proceed);
+                    success = true;
+                    return result;
+                } finally {
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.pool = poolName;
+                        event.method = method.getName();
+                        event.sql = sqlQuery;
+                        event.success = success;
+                        event.commit();
+                    }
+                }
+            }
+        });
+        config.getInvocationHooks().addOnResultSetRetrieval(new Hook.ResultSetRetrieval() {
+            @Override
+            public void on(String sqlQuery, List<Object[]> sqlQueryParams, long resultSetSize, long resultSetNanoTime) {
+                ResultSetCloseEvent event = new ResultSetCloseEvent();
+                if (event.isEnabled()) {
+                    event.pool = poolName;
+                    event.sql = sqlQuery;
+                    event.rows = resultSetSize;
+                    event.retrievalTime = resultSetNanoTime;
+                    event.commit();
+                }
+            }
+        });
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // The event types:
+
+    @Name("org.vibur.dbcp.ConnectionAcquire")
+    @Label("Connection Acquire")
+    @Category({"Vibur DBCP", "Connection"})
+    @Description("A connection was obtained from the pool, or the attempt to obtain one failed")
+    static final class ConnectionAcquireEvent extends Event {
+        @Label("Pool") String pool;
+        @Label("Wait Time") @Timespan long waitTime;
+        @Label("Created") @Description("Whether a new connection was created as part of the acquire") boolean created;
+        @Label("Success") boolean success;
+    }
+
+    @Name("org.vibur.dbcp.ConnectionRestore")
+    @Label("Connection Restore")
+    @Category({"Vibur DBCP", "Connection"})
+    @Description("A connection was restored to the pool")
+    static final class ConnectionRestoreEvent extends Event {
+        @Label("Pool") String pool;
+        @Label("Hold Time") @Timespan long holdTime;
+    }
+
+    @Name("org.vibur.dbcp.ConnectionCreate")
+    @Label("Connection Create")
+    @Category({"Vibur DBCP", "Connection"})
+    @Description("A physical connection was created, or the attempt to create one failed")
+    static final class ConnectionCreateEvent extends Event {
+        @Label("Pool") String pool;
+        @Label("Create Time") @Timespan long createTime;
+        @Label("Success") boolean success;
+    }
+
+    @Name("org.vibur.dbcp.ConnectionDestroy")
+    @Label("Connection Destroy")
+    @Category({"Vibur DBCP", "Connection"})
+    @Description("A physical connection was closed")
+    static final class ConnectionDestroyEvent extends Event {
+        @Label("Pool") String pool;
+        @Label("Destroy Time") @Timespan long destroyTime;
+    }
+
+    @Name("org.vibur.dbcp.ConnectionValidate")
+    @Label("Connection Validate")
+    @Category({"Vibur DBCP", "Connection"})
+    @Description("A connection was validated via the testConnectionQuery")
+    static final class ConnectionValidateEvent extends Event {
+        @Label("Pool") String pool;
+        @Label("Validate Time") @Timespan long validateTime;
+        @Label("Valid") boolean valid;
+    }
+
+    @Name("org.vibur.dbcp.StatementExecute")
+    @Label("Statement Execute")
+    @Category({"Vibur DBCP", "Statement"})
+    @Description("A JDBC Statement execute... method was invoked")
+    static final class StatementExecuteEvent extends Event {
+        @Label("Pool") String pool;
+        @Label("Method") String method;
+        @Label("SQL") String sql;
+        @Label("Success") boolean success;
+    }
+
+    @Name("org.vibur.dbcp.ResultSetClose")
+    @Label("ResultSet Close")
+    @Category({"Vibur DBCP", "Statement"})
+    @Description("A JDBC ResultSet was closed")
+    static final class ResultSetCloseEvent extends Event {
+        @Label("Pool") String pool;
+        @Label("SQL") String sql;
+        @Label("Rows") long rows;
+        @Label("Retrieval Time") @Timespan long retrievalTime;
+    }
+}
@@ -18,6 +18,8 @@ package org.vibur.dbcp;
 
 import org.junit.Test;
 import org.vibur.dbcp.pool.Hook;
+import org.vibur.dbcp.pool.LatencyHistogram;
+import org.vibur.dbcp.pool.PoolLatencies;
 
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -25,6 +27,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Simeon Malchev
@@ -65,4 +68,28 @@ public class ConnectionHookTest extends AbstractDataSourceTest {
         assertEquals(3, executionOrder.size());
         assertEquals("get", executionOrder.get(2));
     }
+
+    @Test
+    public void testLatencyHistograms() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolEnableLatencyHistograms(true); // recorded via the connection hooks
+        ds.setConnectionIdleLimitInSeconds(0); // validates the connections on every take
+        ds.start();
+
+        PoolLatencies latencies = ds.getLatencies();
+        assertEquals(POOL_INITIAL_SIZE, latencies.getCreate().getCount());
+        for (int i = 0; i < 10; i++) {
+            try (Connection connection = ds.getConnection()) {
+                assertTrue(connection.isValid(0));
+            }
+        }
+        assertEquals(10, latencies.getAcquire().getCount());
+        assertEquals(10, latencies.getHold().getCount());
+        assertEquals(10, latencies.getValidate().getCount());
+
+        LatencyHistogram hold = latencies.getHold();
+        assertTrue(hold.getValueAtPercentile(50) > 0);
+        assertTrue(hold.getValueAtPercentile(50) <= hold.getValueAtPercentile(99.9));
+        assertTrue(hold.getValueAtPercentile(99.9) <= hold.getMax());
+    }
 }
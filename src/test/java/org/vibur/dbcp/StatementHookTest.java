@@ -18,6 +18,7 @@ package org.vibur.dbcp;
 
 import org.junit.Test;
 import org.vibur.dbcp.pool.Hook;
+import org.vibur.dbcp.pool.SqlStatistics;
 
 import java.lang.reflect.Method;
 import java.sql.Connection;
@@ -28,7 +29,9 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * @author Simeon Malchev
@@ -83,4 +86,79 @@ public class StatementHookTest extends AbstractDataSourceTest {
         assertEquals("dd", executionOrder.get(2));
         assertEquals("bb", executionOrder.get(3));
     }
+
+    @Test
+    public void testSqlStatistics() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setSqlStatisticsMaxSize(2); // recorded via the statement execution hooks
+        ds.start();
+
+        try (Connection connection = ds.getConnection();
+             Statement statement = connection.createStatement()) {
+            for (int i = 1; i <= 3; i++) {
+                try (ResultSet resultSet = statement.executeQuery("select * from actor where actor_id = " + i)) {
+                    while (resultSet.next()) { }
+                }
+            }
+            statement.executeQuery("select * from actor where first_name = 'CHRISTIAN'").close();
+            try {
+                statement.executeQuery("select * from no_such_table");
+                fail("SQLException expected");
+            } catch (SQLException ignored) {
+            }
+        }
+
+        SqlStatistics sqlStatistics = ds.getSqlStatistics();
+        assertEquals(2, sqlStatistics.size());
+        assertEquals(1, sqlStatistics.getEvictions()); // the least frequent query was evicted
+        List<SqlStatistics.Entry> top = sqlStatistics.getTop(10);
+        assertEquals(2, top.size());
+
+        SqlStatistics.Entry frequent = null;
+        for (SqlStatistics.Entry entry : top) {
+            if (entry.getSqlQuery().equals("select * from actor where actor_id = ?")) {
+                frequent = entry;
+            }
+            else {
+                assertEquals("select * from no_such_table", entry.getSqlQuery());
+                assertEquals(1, entry.getErrors());
+            }
+        }
+        assertNotNull(frequent);
+        assertEquals(3, frequent.getCalls());
+        assertEquals(3, frequent.getRows());
+        assertEquals(0, frequent.getErrors());
+        assertTrue(frequent.getTotalNanos() >= frequent.getMaxNanos());
+        assertEquals(3, frequent.getHistogram().getCount());
+        assertTrue(sqlStatistics.formatTop(1).contains("calls="));
+
+        sqlStatistics.reset();
+        assertEquals(0, sqlStatistics.size());
+        assertEquals(0, sqlStatistics.getEvictions());
+    }
+
+    @Test
+    public void testSqlStatisticsEvictionAging() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setSqlStatisticsMaxSize(2);
+        ds.start();
+
+        try (Connection connection = ds.getConnection();
+             Statement statement = connection.createStatement()) {
+            for (int i = 0; i < 4; i++) { // frequent in the past
+                statement.executeQuery("select * from actor where actor_id = 1").close();
+            }
+            for (String column : new String[] {"first_name", "last_name", "last_update"}) {
+                for (int i = 0; i < 3; i++) {
+                    statement.executeQuery("select " + column + " from actor").close();
+                }
+            }
+        }
+
+        SqlStatistics sqlStatistics = ds.getSqlStatistics();
+        assertEquals(2, sqlStatistics.getEvictions());
+        for (SqlStatistics.Entry entry : sqlStatistics.getTop(10)) { // aged out by the later evictions
+            assertTrue(entry.getSqlQuery(), entry.getSqlQuery().startsWith("select last_"));
+        }
+    }
 }
@@ -24,23 +24,50 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.InOrder;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.vibur.dbcp.pool.AcquireRetryPolicy;
+import org.vibur.dbcp.pool.AdaptivePoolSizer;
+import org.vibur.dbcp.pool.ConnHolder;
+import org.vibur.dbcp.pool.Hook;
+import org.vibur.dbcp.pool.PoolFlightRecorder;
 import org.vibur.dbcp.pool.TakenConnection;
 import org.vibur.dbcp.stcache.StatementHolder;
 import org.vibur.dbcp.stcache.StatementMethod;
 
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Proxy;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.vibur.dbcp.ViburConfig.SQLSTATE_CIRCUIT_OPEN_ERROR;
 import static org.vibur.dbcp.ViburConfig.SQLSTATE_INTERRUPTED_ERROR;
+import static org.vibur.dbcp.ViburConfig.SQLSTATE_TIMEOUT_ERROR;
+import static org.vibur.dbcp.ViburDataSource.NORM_PRIORITY;
 import static org.vibur.dbcp.stcache.StatementHolder.State.AVAILABLE;
 import static org.vibur.dbcp.stcache.StatementHolder.State.EVICTED;
 
@@ -291,6 +318,53 @@ public class ViburDBCPDataSourceTest extends AbstractDataSourceTest {
         connection.close();
     }
 
+    @Test
+    public void testSampledConnectionTracking() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolEnableConnectionTracking(true);
+        ds.setPoolConnectionTrackingSampleRate(Integer.MAX_VALUE); // effectively, never samples the stack trace
+        ds.start();
+
+        try (Connection connection = ds.getConnection()) {
+            TakenConnection[] takenConnections = ds.getTakenConnections();
+            assertEquals(1, takenConnections.length);
+            assertSame(connection, takenConnections[0].getProxyConnection());
+            assertTrue(takenConnections[0].getTakenNanoTime() > 0);
+            assertSame(Thread.currentThread(), takenConnections[0].getThread());
+            assertEquals(Thread.currentThread().getName(), takenConnections[0].getThreadName());
+            assertNull(takenConnections[0].getLocation());
+            assertNotEquals(0, takenConnections[0].getCallSiteFingerprint()); // computed also when not sampled
+
+            String stackTraces = ds.getTakenConnectionsStackTraces();
+            assertTrue(stackTraces.contains("taken by thread " + Thread.currentThread().getName()));
+            assertTrue(stackTraces.contains("was not sampled"));
+        }
+
+        ds.setPoolConnectionTrackingSampleRate(1);
+        try (Connection connection = ds.getConnection()) {
+            assertNotNull(ds.getTakenConnections()[0].getLocation());
+        }
+
+        Connection[] connections = new Connection[2];
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = ds.getConnection(); // the same call site
+        }
+        try (Connection connection = new CallSite().getConnection(ds)) { // a different call site
+            Map<Connection, Integer> fingerprints = new HashMap<>();
+            for (TakenConnection takenConnection : ds.getTakenConnections()) {
+                fingerprints.put(takenConnection.getProxyConnection(), takenConnection.getCallSiteFingerprint());
+            }
+            assertNotEquals(0, (int) fingerprints.get(connections[0]));
+            assertEquals(fingerprints.get(connections[0]), fingerprints.get(connections[1]));
+            assertNotEquals(fingerprints.get(connections[0]), fingerprints.get(connection));
+            assertTrue(ds.getTakenConnectionsStackTraces().contains(
+                    "call site " + Integer.toHexString(fingerprints.get(connections[0])) + " (2 taken connections)"));
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
     @Test
     public void testLogTakenConnectionsOnTimeout() throws SQLException {
         ViburDBCPDataSource ds = createDataSourceNotStarted();
@@ -325,6 +399,1080 @@ public class ViburDBCPDataSourceTest extends AbstractDataSourceTest {
         }
     }
 
+    @Test
+    public void testThreadAffinity() throws SQLException, InterruptedException {
+        final ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolThreadAffinity(true);
+        ds.start();
+
+        Connection connection = ds.getConnection();
+        Connection internal1 = connection.unwrap(Connection.class);
+
+        // another thread takes the second connection and restores it after we restore ours, i.e.,
+        // its connection is the one at the head of the pool's shared collection
+        final CountDownLatch restored = new CountDownLatch(1);
+        final AtomicReference<Connection> internal2 = new AtomicReference<>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (Connection connection = ds.getConnection()) {
+                    internal2.set(connection.unwrap(Connection.class));
+                    restored.await();
+                } catch (SQLException | InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        thread.start();
+        while (internal2.get() == null && thread.isAlive()) {
+            Thread.sleep(1);
+        }
+        connection.close();
+        restored.countDown();
+        thread.join();
+
+        assertNotNull(internal2.get());
+        assertNotSame(internal1, internal2.get());
+        assertEquals(POOL_INITIAL_SIZE, ds.getPool().remainingCreated());
+
+        connection = ds.getConnection();
+        try {
+            assertSame(internal1, connection.unwrap(Connection.class)); // reclaimed via the thread-affine fast path
+            executeAndVerifySelectStatement(connection);
+        } finally {
+            connection.close();
+        }
+
+        connection = ds.getConnection(); // the stale shared collection entry must not be handed out twice
+        try (Connection other = ds.getConnection()) {
+            assertNotSame(connection.unwrap(Connection.class), other.unwrap(Connection.class));
+        } finally {
+            connection.close();
+        }
+        assertEquals(POOL_INITIAL_SIZE, ds.getPool().remainingCreated());
+    }
+
+    @Test
+    public void testShardedPool() throws SQLException, InterruptedException {
+        final ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolShards(3); // will be rounded up to 4
+        ds.start();
+        assertEquals(POOL_INITIAL_SIZE, ds.getPool().remainingCreated());
+
+        final int threadsCount = 2 * POOL_MAX_SIZE;
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] threads = new Thread[threadsCount];
+        for (int i = 0; i < threadsCount; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 100; j++) {
+                            try (Connection connection = ds.getConnection()) {
+                                executeAndVerifySelectStatement(connection);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(error.get());
+        assertEquals(0, ds.getPool().taken());
+        assertTrue(ds.getPool().createdTotal() <= POOL_MAX_SIZE);
+        assertEquals(ds.getPool().createdTotal(), ds.getPool().remainingCreated());
+    }
+
+    private static final class CallSite {
+        private Connection getConnection(DataSource ds) throws SQLException {
+            return ds.getConnection();
+        }
+    }
+
+    @Test
+    public void testGetConnectionAsync() throws Exception {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(1);
+        ds.setPoolMaxSize(1);
+        ds.setConnectionTimeoutInMs(100);
+        ds.start();
+
+        Future<Connection> future1 = ds.getConnectionAsync(null);
+        assertTrue(future1.isDone()); // a connection was available
+        Connection connection1 = future1.get();
+        executeAndVerifySelectStatement(connection1);
+
+        final AtomicReference<Connection> callbackConnection = new AtomicReference<>();
+        Future<Connection> future2 = ds.getConnectionAsync(new ViburDataSource.ConnectionCallback() {
+            @Override
+            public void onConnection(Connection connection) {
+                callbackConnection.set(connection);
+            }
+
+            @Override
+            public void onFailure(SQLException exception) { }
+        });
+        assertFalse(future2.isDone()); // the pool is exhausted
+
+        connection1.close(); // the restored connection is handed to the waiter
+        Connection connection2 = future2.get(1, SECONDS);
+        assertSame(connection2, callbackConnection.get());
+        assertEquals(1, ds.getPool().taken());
+        executeAndVerifySelectStatement(connection2);
+
+        Future<Connection> future3 = ds.getConnectionAsync(null);
+        try {
+            future3.get(5, SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SQLTimeoutException);
+            assertEquals(SQLSTATE_TIMEOUT_ERROR, ((SQLException) e.getCause()).getSQLState());
+        }
+
+        Future<Connection> future4 = ds.getConnectionAsync(null);
+        assertEquals(1, ds.getPoolOperations().getWaiting());
+        assertTrue(future4.cancel(false)); // the cancelled waiter is removed from the queue
+        assertTrue(future4.isCancelled());
+        assertEquals(0, ds.getPoolOperations().getWaiting());
+
+        connection2.close();
+        assertEquals(0, ds.getPool().taken());
+        assertEquals(1, ds.getPool().remainingCreated());
+    }
+
+    @Test
+    public void testPoolHandoff() throws SQLException, InterruptedException {
+        final ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(1);
+        ds.setPoolMaxSize(1);
+        ds.setPoolHandoff(true);
+        ds.setConnectionIdleLimitInSeconds(0); // validates the connections on every take
+        final AtomicLong maxWaitedNanos = new AtomicLong();
+        ds.getConnHooks().addOnGet(new Hook.GetConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                maxWaitedNanos.set(Math.max(maxWaitedNanos.get(), takenNanos));
+            }
+        });
+        final AtomicReference<Thread> validatingThread = new AtomicReference<>();
+        ds.getConnHooks().addOnValidate(new Hook.ValidateConnection() {
+            @Override
+            public void on(Connection rawConnection, boolean valid, long takenNanos) {
+                validatingThread.set(Thread.currentThread());
+            }
+        });
+        ds.start();
+
+        Connection connection = ds.getConnection();
+        final Connection rawConnection = connection.unwrap(Connection.class);
+
+        final AtomicReference<Connection> waiterRawConnection = new AtomicReference<>();
+        final CountDownLatch waiterDone = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (Connection c = ds.getConnection()) {
+                    waiterRawConnection.set(c.unwrap(Connection.class));
+                    waiterDone.await();
+                } catch (SQLException | InterruptedException ignored) {
+                }
+            }
+        });
+        waiter.start();
+        while (waiter.getState() != Thread.State.TIMED_WAITING) { // waits until the waiter is parked
+            Thread.sleep(1);
+        }
+        Thread.sleep(50);
+
+        connection.close(); // hands off the connection to the waiter, it is not returned to the pool
+        assertEquals(1, ds.getPool().taken());
+        assertEquals(0, ds.getPool().remainingCreated());
+
+        waiterDone.countDown();
+        waiter.join();
+        assertSame(rawConnection, waiterRawConnection.get());
+        assertSame(waiter, validatingThread.get()); // the handed off connection is validated by the waiter itself
+        assertTrue(maxWaitedNanos.get() >= MILLISECONDS.toNanos(50));
+        assertEquals(0, ds.getPool().taken());
+        assertEquals(1, ds.getPool().remainingCreated());
+    }
+
+    @Test
+    public void testPriorityConnectionAcquisition() throws SQLException, InterruptedException {
+        final ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(1);
+        ds.setPoolMaxSize(1);
+        ds.setPoolHandoff(true);
+        ds.setPoolPriorityStarvationBoundInMs(0); // strict priority order
+        ds.start();
+
+        List<String> served = Collections.synchronizedList(new ArrayList<String>());
+        Connection connection = ds.getConnection();
+        Thread low = startPriorityWaiter(ds, "low", -1, served);
+        Thread normal = startPriorityWaiter(ds, "normal", NORM_PRIORITY, served);
+        Thread high = startPriorityWaiter(ds, "high", 10, served);
+        connection.close();
+        low.join();
+        normal.join();
+        high.join();
+        assertEquals(Arrays.asList("high", "normal", "low"), served);
+
+        ds.setPoolPriorityStarvationBoundInMs(100);
+        served.clear();
+        connection = ds.getConnection();
+        low = startPriorityWaiter(ds, "low", -1, served);
+        Thread.sleep(150); // the low priority waiter exceeds the starvation bound
+        high = startPriorityWaiter(ds, "high", 10, served);
+        connection.close();
+        low.join();
+        high.join();
+        assertEquals(Arrays.asList("low", "high"), served);
+    }
+
+    private static Thread startPriorityWaiter(final ViburDataSource ds, final String name, final int priority,
+                                              final List<String> served) throws InterruptedException {
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (Connection ignored = ds.getConnection(priority)) {
+                    served.add(name);
+                } catch (SQLException ignored) {
+                }
+            }
+        });
+        waiter.start();
+        while (waiter.getState() != Thread.State.TIMED_WAITING) { // waits until the waiter is parked
+            Thread.sleep(1);
+        }
+        return waiter;
+    }
+
+    @Test
+    public void testPoolPartitions() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(1);
+        ds.setPoolMaxSize(4);
+        ds.setPoolPartitions("oltp:2:3, batch:0:2");
+        ds.setConnectionTimeoutInMs(100);
+        ds.start();
+
+        try (Connection b1 = ds.getConnection("batch");
+             Connection b2 = ds.getConnection("batch")) {
+            executeAndVerifySelectStatement(b1);
+            assertPartitionTimeout(ds, "batch"); // the batch maximum is reached
+            assertPartitionTimeout(ds, null); // the remaining capacity is reserved for oltp
+
+            try (Connection o1 = ds.getConnection("oltp");
+                 Connection o2 = ds.getConnection("oltp")) {
+                executeAndVerifySelectStatement(o2);
+                assertEquals("oltp=2/2..3, batch=2/0..2, (default)=0/0..4",
+                        ds.getPoolOperations().getPartitions().usage());
+                assertPartitionTimeout(ds, "oltp"); // above its minimum and the pool is full
+
+                b1.close();
+                try (Connection o3 = ds.getConnection("oltp")) { // borrows the capacity released by batch
+                    executeAndVerifySelectStatement(o3);
+                    assertPartitionTimeout(ds, "batch");
+                }
+            }
+        }
+        assertEquals("oltp=0/2..3, batch=0/0..2, (default)=0/0..4", ds.getPoolOperations().getPartitions().usage());
+
+        try {
+            ds.getConnection("unknown");
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException ignored) {
+        }
+        try {
+            ds.getConnectionAsync(null); // would not be accounted to any partition
+            fail("SQLFeatureNotSupportedException expected");
+        } catch (SQLFeatureNotSupportedException ignored) {
+        }
+    }
+
+    private static void assertPartitionTimeout(ViburDataSource ds, String partition) throws SQLException {
+        try {
+            Connection connection = partition != null ? ds.getConnection(partition) : ds.getConnection();
+            connection.close();
+            fail("SQLTimeoutException expected");
+        } catch (SQLTimeoutException e) {
+            assertEquals(SQLSTATE_TIMEOUT_ERROR, e.getSQLState());
+        }
+    }
+
+    @Test
+    public void testPoolHandoffUnderContention() throws SQLException, InterruptedException {
+        doTestPoolHandoffUnderContention(true);
+        doTestPoolHandoffUnderContention(false);
+    }
+
+    private void doTestPoolHandoffUnderContention(boolean fair) throws SQLException, InterruptedException {
+        final ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolMaxSize(3);
+        ds.setPoolFair(fair);
+        ds.setPoolHandoff(true);
+        ds.start();
+
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] threads = new Thread[10];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 50; j++) {
+                            try (Connection connection = ds.getConnection()) {
+                                executeAndVerifySelectStatement(connection);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(error.get());
+        assertEquals(0, ds.getPool().taken());
+        assertTrue(ds.getPool().createdTotal() <= 3);
+        assertEquals(ds.getPool().createdTotal(), ds.getPool().remainingCreated());
+        ds.close();
+    }
+
+    @Test
+    public void testPoolProvisioning() throws SQLException, InterruptedException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(1);
+        ds.setPoolProvisioningHeadroom(2);
+        ds.setPoolProvisioningThreads(2);
+        final AtomicInteger createdInBackground = new AtomicInteger();
+        final AtomicInteger createdInline = new AtomicInteger();
+        ds.getConnHooks().addOnInit(new Hook.InitConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                if (Thread.currentThread().getName().startsWith("ConnectionProvisioner")) {
+                    createdInBackground.incrementAndGet();
+                } else {
+                    createdInline.incrementAndGet();
+                }
+            }
+        });
+        ds.start();
+        assertEquals(1, createdInline.get()); // the initial connection
+
+        try (Connection c1 = ds.getConnection()) { // no idle connections left, triggers the provisioning
+            for (int i = 0; i < 500 && ds.getConnectionProvisioner().spares() < 2; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, createdInBackground.get());
+            assertEquals(1, ds.getPool().createdTotal()); // the spare connections are not handed out to the pool yet
+
+            try (Connection c2 = ds.getConnection();
+                 Connection c3 = ds.getConnection()) {
+                executeAndVerifySelectStatement(c2);
+                executeAndVerifySelectStatement(c3);
+            }
+        }
+
+        assertEquals(1, createdInline.get()); // the pool has grown using the spare connections
+        assertEquals(3, ds.getPool().createdTotal());
+        assertEquals(0, ds.getPool().taken());
+    }
+
+    @Test
+    public void testPoolProvisioningValidatesIdleSpares() throws SQLException, InterruptedException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(1);
+        ds.setPoolProvisioningHeadroom(1);
+        ds.setConnectionIdleLimitInSeconds(0); // validates the connections on every take
+        final AtomicInteger validated = new AtomicInteger();
+        ds.getConnHooks().addOnValidate(new Hook.ValidateConnection() {
+            @Override
+            public void on(Connection rawConnection, boolean valid, long takenNanos) {
+                validated.incrementAndGet();
+            }
+        });
+        ds.start();
+
+        try (Connection c1 = ds.getConnection()) { // triggers the provisioning of one spare connection
+            for (int i = 0; i < 500 && ds.getConnectionProvisioner().spares() < 1; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, ds.getConnectionProvisioner().spares());
+            int validatedBefore = validated.get();
+
+            try (Connection c2 = ds.getConnection()) { // hands out the spare connection
+                executeAndVerifySelectStatement(c2);
+            }
+            assertEquals(validatedBefore + 1, validated.get());
+        }
+        assertEquals(2, ds.getPool().createdTotal());
+        ds.close();
+    }
+
+    @Test
+    public void testAdaptivePoolSizer() throws SQLException, InterruptedException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(1);
+        ds.setPoolReducerClass(AdaptivePoolSizer.class.getName());
+        ds.setReducerTimeIntervalInSeconds(1);
+        ds.setReducerSamples(10);
+        ds.start();
+        AdaptivePoolSizer sizer = (AdaptivePoolSizer) ds.getPoolReducer();
+
+        Connection[] connections = new Connection[5];
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = ds.getConnection();
+        }
+        // the first interval may have sampled the pool before all connections were taken
+        for (int i = 0; i < 300 && (sizer.getLastDecision() == null || !sizer.getLastDecision().startsWith("GROW")); i++) {
+            Thread.sleep(10);
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+
+        assertTrue(sizer.getLastDecision(), sizer.getLastDecision().startsWith("GROW"));
+        assertTrue(sizer.getTarget() >= 6); // at least the demand of 5 plus headroom
+        for (int i = 0; i < 300 && ds.getPool().createdTotal() + ds.getConnectionProvisioner().spares() < 6; i++) {
+            Thread.sleep(10); // the pool grows ahead of demand
+        }
+        assertTrue(ds.getPool().createdTotal() + ds.getConnectionProvisioner().spares() >= 6);
+    }
+
+    @Test
+    public void testConnectionMaxLifetime() throws SQLException, InterruptedException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(2);
+        ds.setConnectionMaxLifetimeInSeconds(1);
+        final Set<Connection> destroyed = Collections.synchronizedSet(new HashSet<Connection>());
+        ds.getConnHooks().addOnDestroy(new Hook.DestroyConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                destroyed.add(rawConnection);
+            }
+        });
+        ds.start();
+
+        Connection rawConnection;
+        try (Connection connection = ds.getConnection()) {
+            rawConnection = connection.unwrap(Connection.class);
+            Thread.sleep(1100); // the connection expires while taken
+        }
+        assertTrue(destroyed.contains(rawConnection)); // retired on restore
+
+        for (int i = 0; i < 300 && ds.getPool().createdTotal() > 0; i++) {
+            Thread.sleep(10); // the idle connection, which was never taken, is retired by the sweeper
+        }
+        assertEquals(0, ds.getPool().createdTotal());
+        for (int i = 0; i < 300 && ds.getConnectionProvisioner().spares() == 0; i++) {
+            Thread.sleep(10); // and replaced in the background
+        }
+
+        try (Connection connection = ds.getConnection()) {
+            executeAndVerifySelectStatement(connection);
+            assertFalse(destroyed.contains(connection.unwrap(Connection.class)));
+        }
+        assertEquals(2, destroyed.size());
+    }
+
+    @Test
+    public void testConnectionKeepAliveBulkValidation() throws SQLException, InterruptedException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(4);
+        ds.setConnectionKeepAliveIntervalInSeconds(1);
+        ds.setConnectionKeepAliveThreads(4);
+        ds.start();
+
+        List<Connection> connections = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            connections.add(ds.getConnection());
+        }
+        List<Connection> rawConnections = new ArrayList<>();
+        for (Connection connection : connections) {
+            rawConnections.add(connection.unwrap(Connection.class));
+            connection.close();
+        }
+        for (Connection rawConnection : rawConnections) {
+            rawConnection.close(); // all idle connections are broken
+        }
+
+        for (int i = 0; i < 300 && ds.getKeepAlive().getEvictions() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(4, ds.getKeepAlive().getEvictions()); // evicted together in one pass
+        assertEquals(4, ds.getKeepAlive().getValidations());
+        assertEquals(0, ds.getPool().createdTotal());
+
+        try (Connection connection = ds.getConnection()) {
+            executeAndVerifySelectStatement(connection);
+            assertFalse(rawConnections.contains(connection.unwrap(Connection.class)));
+        }
+    }
+
+    @Test
+    public void testConnectionKeepAliveRespectsPoolMaxSize() throws SQLException, InterruptedException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(2);
+        ds.setPoolMaxSize(2);
+        ds.setConnectionTimeoutInMs(100);
+        ds.setConnectionKeepAliveIntervalInSeconds(1);
+        ds.setConnectionKeepAliveThreads(2);
+        final CountDownLatch validating = new CountDownLatch(2);
+        final CountDownLatch validationGate = new CountDownLatch(1);
+        ds.getConnHooks().addOnValidate(new Hook.ValidateConnection() {
+            @Override
+            public void on(Connection rawConnection, boolean valid, long takenNanos) {
+                if (Thread.currentThread().getName().startsWith("ConnectionKeepAlive")) {
+                    validating.countDown();
+                    try {
+                        validationGate.await(5, SECONDS); // holds the validation of the idle connections
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            }
+        });
+        ds.start();
+
+        assertTrue(validating.await(5, SECONDS));
+        try {
+            ds.getConnection(); // both connections are out for validation and count towards the pool max size
+            fail("SQLTimeoutException expected");
+        } catch (SQLTimeoutException e) {
+            assertEquals(SQLSTATE_TIMEOUT_ERROR, e.getSQLState());
+        }
+        assertEquals(2, ds.getPool().createdTotal());
+
+        validationGate.countDown();
+        ds.setConnectionTimeoutInMs(CONNECTION_TIMEOUT_MS);
+        doTestSelectStatement(ds);
+        assertEquals(2, ds.getPool().createdTotal());
+        assertEquals(0, ds.getKeepAlive().getEvictions());
+        ds.close();
+    }
+
+    @Test
+    public void testConnectionValidationTrustWindow() throws SQLException, InterruptedException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(1);
+        ds.setConnectionIdleLimitInSeconds(0); // validates always
+        ds.setTestConnectionQuery("SELECT bogus FROM nowhere"); // the validation always fails
+        ds.setConnectionValidationTrustWindowInMs(60000);
+        ds.start();
+
+        Connection rawConnection;
+        try (Connection connection = ds.getConnection()) { // a new connection is not validated
+            rawConnection = connection.unwrap(Connection.class);
+            executeAndVerifySelectStatement(connection);
+        }
+        try (Connection connection = ds.getConnection()) { // the validation is skipped after the successful execution
+            assertSame(rawConnection, connection.unwrap(Connection.class));
+            connection.setAutoCommit(false);
+            connection.commit();
+            connection.setAutoCommit(true);
+        }
+        try (Connection connection = ds.getConnection()) { // and after the successful commit
+            assertSame(rawConnection, connection.unwrap(Connection.class));
+        }
+
+        ds.setConnectionValidationTrustWindowInMs(1);
+        Thread.sleep(10);
+        try (Connection connection = ds.getConnection()) { // the last round trip is now out of the trust window
+            assertNotSame(rawConnection, connection.unwrap(Connection.class));
+        }
+    }
+
+    @Test
+    public void testConnectionKeepAlive() throws SQLException, InterruptedException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(2);
+        ds.setConnectionIdleLimitInSeconds(2);
+        ds.setConnectionKeepAliveIntervalInSeconds(1);
+        ds.start();
+
+        Connection rawConnection;
+        try (Connection connection = ds.getConnection()) {
+            rawConnection = connection.unwrap(Connection.class);
+        }
+        rawConnection.close(); // the idle connection is broken
+
+        for (int i = 0; i < 300 && ds.getKeepAlive().getEvictions() == 0; i++) {
+            Thread.sleep(10); // the broken connection is evicted by the keep-alive
+        }
+        assertEquals(1, ds.getKeepAlive().getEvictions());
+        assertTrue(ds.getKeepAlive().getValidations() >= 2);
+        assertEquals(1, ds.getPool().createdTotal());
+        for (int i = 0; i < 300 && ds.getConnectionProvisioner().spares() == 0; i++) {
+            Thread.sleep(10); // and replaced in the background
+        }
+
+        for (int i = 0; i < 2; i++) {
+            try (Connection connection = ds.getConnection()) {
+                executeAndVerifySelectStatement(connection);
+                assertNotSame(rawConnection, connection.unwrap(Connection.class));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelInitialFill() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(POOL_MAX_SIZE);
+        ds.setPoolInitialFillThreads(4);
+        final Set<String> initThreads = Collections.synchronizedSet(new HashSet<String>());
+        ds.getConnHooks().addOnInit(new Hook.InitConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                initThreads.add(Thread.currentThread().getName());
+            }
+        });
+        ds.start();
+
+        assertEquals(POOL_MAX_SIZE, ds.getPool().createdTotal());
+        assertEquals(POOL_MAX_SIZE, ds.getPool().remainingCreated());
+        for (String initThread : initThreads) {
+            assertTrue(initThread.startsWith("Initial fill for pool"));
+        }
+        doTestSelectStatement(ds);
+    }
+
+    @Test
+    public void testParallelInitialFillFailure() throws InterruptedException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(POOL_MAX_SIZE);
+        ds.setPoolInitialFillThreads(4);
+        final AtomicInteger initialized = new AtomicInteger();
+        final AtomicInteger destroyed = new AtomicInteger();
+        ds.getConnHooks().addOnInit(new Hook.InitConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) throws SQLException {
+                if (initialized.incrementAndGet() == 3) {
+                    throw new SQLException("init failure");
+                }
+            }
+        });
+        ds.getConnHooks().addOnDestroy(new Hook.DestroyConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                destroyed.incrementAndGet();
+            }
+        });
+
+        try {
+            ds.start();
+            fail("ViburDBCPException expected");
+        } catch (ViburDBCPException e) {
+            assertEquals("init failure", e.unwrapSQLException().getMessage());
+        }
+        assertEquals(ViburDataSource.State.TERMINATED, ds.getState());
+        // the in-progress creations may still be finishing, each of them destroys its own connection
+        for (int i = 0; i < 500 && destroyed.get() < initialized.get() - 1; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(initialized.get() - 1, destroyed.get());
+    }
+
+    @Test
+    public void testPoolWarmUpInBackground() throws SQLException, InterruptedException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(POOL_MAX_SIZE);
+        ds.setPoolWarmUpInBackground(true);
+        final AtomicInteger initialized = new AtomicInteger();
+        final CountDownLatch warmUpGate = new CountDownLatch(1);
+        ds.getConnHooks().addOnInit(new Hook.InitConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                if (initialized.incrementAndGet() > 1) { // holds the creation of all but the first connection
+                    try {
+                        warmUpGate.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            }
+        });
+
+        ds.start(); // returns after the first connection is created
+        assertEquals(ViburDataSource.State.WORKING, ds.getState());
+        assertEquals(1, ds.getPool().createdTotal());
+
+        doTestSelectStatement(ds); // does not wait for the warm-up to complete
+        assertEquals(0, ds.getConnectionProvisioner().spares());
+
+        warmUpGate.countDown();
+        for (int i = 0; i < 500 && ds.getConnectionProvisioner().spares() < POOL_MAX_SIZE - 1; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(POOL_MAX_SIZE - 1, ds.getConnectionProvisioner().spares());
+        assertEquals(POOL_MAX_SIZE, initialized.get());
+
+        Connection[] connections = new Connection[POOL_MAX_SIZE];
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = ds.getConnection(); // the pool grows using the spare connections
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        assertEquals(POOL_MAX_SIZE, ds.getPool().createdTotal());
+        assertEquals(POOL_MAX_SIZE, initialized.get());
+        ds.close();
+    }
+
+    @Test
+    public void testAcquireRetryWithBackoff() throws Exception {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(1);
+        ds.setPoolMaxSize(4);
+        ds.setAcquireRetryDelayInMs(10);
+        ds.setAcquireRetryMaxDelayInMs(100);
+        final AtomicInteger failures = new AtomicInteger();
+        ds.getConnHooks().addOnInit(new Hook.InitConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) throws SQLException {
+                if (failures.getAndDecrement() > 0) {
+                    throw new SQLException("init failure");
+                }
+            }
+        });
+        ds.start();
+
+        failures.set(2); // the next two connection creations will fail
+        try (Connection c1 = ds.getConnection(); // the initial connection
+             Connection c2 = ds.getConnection();
+             Connection c3 = getConnectionAsyncWithFailures(ds, failures)) { // retried via the timer
+            executeAndVerifySelectStatement(c2);
+            executeAndVerifySelectStatement(c3);
+
+            failures.set(10); // more than the acquireRetryAttempts
+            try {
+                ds.getConnectionAsync(null).get(5, SECONDS);
+                fail("ExecutionException expected");
+            } catch (ExecutionException e) {
+                SQLException sqlException = (SQLException) e.getCause();
+                assertEquals("init failure", sqlException.getMessage());
+                assertNotNull(sqlException.getNextException()); // the failures of the previous attempts
+            }
+        }
+    }
+
+    @Test
+    public void testPrometheusMetrics() throws SQLException, IOException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setStatementCacheMaxSize(10);
+        ds.setStatementCacheEnableMetrics(true);
+        ds.setPoolEnableLatencyHistograms(true);
+        ds.setConnectionIdleLimitInSeconds(0);
+        ds.start();
+
+        for (int i = 0; i < 2; i++) {
+            try (Connection connection = ds.getConnection()) {
+                executeAndVerifyPreparedSelectStatement(connection);
+            }
+        }
+
+        try (PrometheusMetrics metrics = new PrometheusMetrics(ds)) {
+            String scrape = metrics.scrape();
+            assertTrue(scrape.contains("# TYPE vibur_dbcp_connections_taken gauge\n"));
+            assertTrue(scrape.contains("vibur_dbcp_connections_max{pool=\"" + ds.getName() + "\"} " + POOL_MAX_SIZE + "\n"));
+            assertTrue(scrape.contains("vibur_dbcp_connection_creations_total{pool=\"" + ds.getName() + "\"} " + POOL_INITIAL_SIZE + "\n"));
+            assertTrue(scrape.contains("vibur_dbcp_connection_validations_total{pool=\"" + ds.getName() + "\"} 2\n"));
+            assertTrue(scrape.contains("vibur_dbcp_statement_cache_hits_total{pool=\"" + ds.getName() + "\"} 1\n"));
+            assertTrue(scrape.contains("vibur_dbcp_statement_cache_misses_total{pool=\"" + ds.getName() + "\"} 1\n"));
+            assertTrue(scrape.contains("vibur_dbcp_acquire_seconds_count{pool=\"" + ds.getName() + "\"} 2\n"));
+            assertTrue(scrape.contains("vibur_dbcp_acquire_seconds_sum{pool=\"" + ds.getName() + "\"} "));
+
+            metrics.startServer(new InetSocketAddress("127.0.0.1", 0));
+            HttpURLConnection http = (HttpURLConnection) new URL("http://127.0.0.1:" + metrics.getPort() + "/metrics").openConnection();
+            try (InputStream in = http.getInputStream()) {
+                assertEquals(200, http.getResponseCode());
+                assertEquals(PrometheusMetrics.CONTENT_TYPE, http.getContentType());
+                assertTrue(new Scanner(in, "UTF-8").useDelimiter("\\A").next().contains("vibur_dbcp_connections_idle{pool="));
+            }
+        }
+    }
+
+    @Test
+    public void testPoolFlightRecorder() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(1);
+        ds.setPoolMaxSize(1);
+        ds.setConnectionTimeoutInMs(10);
+        ds.setPoolFlightRecorderSize(5); // rounded up to 8
+        ds.start();
+
+        PoolFlightRecorder flightRecorder = ds.getFlightRecorder();
+        assertEquals(8, flightRecorder.getCapacity());
+        assertEquals(1, flightRecorder.getRecorded()); // the initial connection creation
+
+        try (Connection connection = ds.getConnection()) {
+            try {
+                ds.getConnection();
+                fail("SQLTimeoutException expected");
+            } catch (SQLTimeoutException ignored) {
+            }
+        }
+        String dump = flightRecorder.dump();
+        String[] lines = dump.split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].contains(" CREATE thread=" + Thread.currentThread().getId() + " connection="));
+        assertTrue(lines[1].contains(" TAKE "));
+        assertTrue(lines[2].contains(" TIMEOUT ") && lines[2].contains(" connection=- took="));
+        assertTrue(lines[3].contains(" RESTORE "));
+        String connectionId = lines[0].substring(lines[0].indexOf(" connection="), lines[0].indexOf(" took="));
+        assertTrue(lines[1].contains(connectionId) && lines[3].contains(connectionId));
+
+        for (int i = 0; i < 10; i++) { // wraps around the ring buffer
+            ds.getConnection().close();
+        }
+        assertEquals(24, flightRecorder.getRecorded());
+        lines = flightRecorder.dump().split("\n");
+        assertEquals(8, lines.length);
+        assertTrue(lines[7].contains(" RESTORE "));
+    }
+
+    @Test
+    public void testAsyncConnectionDestruction() throws SQLException, InterruptedException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolCloserThreads(1);
+        final CountDownLatch destroyed = new CountDownLatch(1);
+        final AtomicInteger destroyedTotal = new AtomicInteger();
+        final AtomicReference<String> destroyThread = new AtomicReference<>();
+        final AtomicLong destroyNanos = new AtomicLong(-1);
+        ds.getConnHooks().addOnDestroy(new Hook.DestroyConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                destroyThread.set(Thread.currentThread().getName());
+                destroyNanos.set(takenNanos);
+                destroyedTotal.incrementAndGet();
+                destroyed.countDown();
+                try {
+                    Thread.sleep(20); // slows down the closer thread
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        ds.start();
+
+        Connection connection = ds.getConnection();
+        ds.severConnection(connection);
+        assertTrue(destroyed.await(5, SECONDS));
+        assertEquals("Connection closer for pool " + ds.getName(), destroyThread.get());
+        assertTrue(destroyNanos.get() >= 0);
+        assertEquals(POOL_INITIAL_SIZE - 1, ds.getPool().createdTotal());
+
+        ds.terminate(); // waits for the closer thread to close the idle connections
+        assertEquals(POOL_INITIAL_SIZE, destroyedTotal.get());
+    }
+
+    @Test
+    public void testCriticalSQLStates() throws SQLException {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(3);
+        ds.setTestConnectionQuery("SELECT bogus FROM nowhere"); // the revalidation always fails
+        final List<Connection> destroyed = Collections.synchronizedList(new ArrayList<Connection>());
+        ds.getConnHooks().addOnDestroy(new Hook.DestroyConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                destroyed.add(rawConnection);
+            }
+        });
+        ds.start();
+        int version = ds.getConnectionFactory().version();
+
+        ConnHolder connHolder = ds.getPool().take();
+        ds.getPoolOperations().restore(connHolder, true, new SQLException[] {
+                new SQLException("Communication link failure", "08S01")}); // connection-local
+        assertEquals(Collections.singletonList(connHolder.rawConnection()), destroyed);
+        assertEquals(2, ds.getPool().createdTotal()); // the other connections are intact
+        assertEquals(version, ds.getConnectionFactory().version());
+
+        connHolder = ds.getPool().take();
+        ds.getPoolOperations().restore(connHolder, true, new SQLException[] {
+                new SQLException("Syntax error", "42000"),
+                new SQLException("Crash shutdown", "57P02")}); // server-wide
+        assertEquals(2, destroyed.size());
+        assertEquals(1, ds.getPool().createdTotal()); // the other connection is not destroyed yet, but
+        assertEquals(version + 1, ds.getConnectionFactory().version());
+
+        Connection rawConnection;
+        try (Connection connection = ds.getConnection()) { // is revalidated when taken
+            rawConnection = connection.unwrap(Connection.class);
+            assertEquals(3, destroyed.size());
+            assertFalse(destroyed.contains(rawConnection));
+        }
+        try (Connection connection = ds.getConnection()) { // the new connection is not revalidated
+            assertSame(rawConnection, connection.unwrap(Connection.class));
+        }
+    }
+
+    @Test
+    public void testLoadBalancingDataSource() throws SQLException, InterruptedException {
+        ViburDBCPDataSource a = createDataSourceNotStarted();
+        ViburDBCPDataSource b = createDataSourceNotStarted();
+        b.setAcquireRetryAttempts(0);
+        final AtomicBoolean failing = new AtomicBoolean(false);
+        b.getConnHooks().addOnInit(new Hook.InitConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) throws SQLException {
+                if (failing.get()) {
+                    throw new SQLException("init failure");
+                }
+            }
+        });
+
+        try (LoadBalancingDataSource ds = new LoadBalancingDataSource(new LoadBalancingPolicy.WeightedRoundRobin())) {
+            LoadBalancingDataSource.Member memberA = ds.addMember(a);
+            LoadBalancingDataSource.Member memberB = ds.addMember(b);
+            ds.setEjectionThreshold(1);
+            ds.setEjectionTimeInMs(200);
+            ds.start();
+
+            List<Connection> connections = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                connections.add(ds.getConnection());
+            }
+            assertEquals(2, memberA.getOutstanding());
+            assertEquals(2, memberB.getOutstanding());
+            closeAll(connections);
+
+            b.getPool().drainCreated();
+            failing.set(true); // member b cannot create new connections
+            for (int i = 0; i < 4; i++) {
+                connections.add(ds.getConnection()); // fails over to member a
+            }
+            assertEquals(4, memberA.getOutstanding());
+            assertTrue(memberB.isEjected());
+            closeAll(connections);
+
+            Thread.sleep(250); // the ejection time elapses
+            failing.set(false);
+            assertFalse(memberB.isEjected());
+            for (int i = 0; i < 2; i++) {
+                connections.add(ds.getConnection());
+            }
+            assertEquals(1, memberA.getOutstanding());
+            assertEquals(1, memberB.getOutstanding()); // reinstated
+            assertEquals(0, memberB.getConsecutiveFailures());
+            for (Connection connection : connections) {
+                executeAndVerifySelectStatement(connection);
+            }
+            closeAll(connections);
+        }
+    }
+
+    @Test
+    public void testLoadBalancingPolicies() {
+        LoadBalancingDataSource ds = new LoadBalancingDataSource(new LoadBalancingPolicy.LeastOutstanding());
+        List<LoadBalancingDataSource.Member> members = Arrays.asList(
+                ds.addMember(new ViburDBCPDataSource(), 3), ds.addMember(new ViburDBCPDataSource(), 1));
+
+        LoadBalancingPolicy roundRobin = new LoadBalancingPolicy.WeightedRoundRobin();
+        int first = 0;
+        for (int i = 0; i < 400; i++) {
+            if (roundRobin.select(members) == members.get(0)) {
+                first++;
+            }
+        }
+        assertEquals(300, first);
+
+        LoadBalancingPolicy twoChoices = new LoadBalancingPolicy.PowerOfTwoChoices();
+        assertTrue(members.contains(twoChoices.select(members))); // equal loads, any of them
+        assertSame(members.get(0), new LoadBalancingPolicy.LeastOutstanding().select(members));
+    }
+
+    private static void closeAll(List<Connection> connections) throws SQLException {
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        connections.clear();
+    }
+
+    private static Connection getConnectionAsyncWithFailures(ViburDataSource ds, AtomicInteger failures) throws Exception {
+        failures.set(2);
+        return ds.getConnectionAsync(null).get(5, SECONDS);
+    }
+
+    @Test
+    public void testAcquireRetryPolicyDelays() {
+        ViburConfig config = new ViburDBCPDataSource();
+        config.setAcquireRetryDelayInMs(10);
+        AcquireRetryPolicy policy = new AcquireRetryPolicy.Default(config);
+        assertEquals(MILLISECONDS.toNanos(10), policy.nextDelayNanos(1, 0)); // fixed delays by default
+
+        config.setAcquireRetryMaxDelayInMs(1000);
+        long delayNanos = 0;
+        for (int retry = 1; retry <= 100; retry++) {
+            long nextDelayNanos = policy.nextDelayNanos(retry, delayNanos);
+            assertTrue(nextDelayNanos >= MILLISECONDS.toNanos(10));
+            assertTrue(nextDelayNanos <= Math.min(MILLISECONDS.toNanos(1000), Math.max(MILLISECONDS.toNanos(10), delayNanos) * 3));
+            delayNanos = nextDelayNanos;
+        }
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        ViburDBCPDataSource ds = createDataSourceNotStarted();
+        ds.setPoolInitialSize(1);
+        ds.setAcquireRetryDelayInMs(10);
+        ds.setCircuitBreakerThreshold(2);
+        ds.setCircuitBreakerProbeIntervalInMs(50);
+        final AtomicBoolean databaseDown = new AtomicBoolean(false);
+        ds.getConnHooks().addOnInit(new Hook.InitConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) throws SQLException {
+                if (databaseDown.get()) {
+                    throw new SQLException("database down");
+                }
+            }
+        });
+        ds.start();
+
+        try (Connection c1 = ds.getConnection()) { // the initial connection
+            executeAndVerifySelectStatement(c1);
+            databaseDown.set(true);
+
+            try {
+                ds.getConnection(); // opens the breaker on the second failed attempt
+                fail("SQLException expected");
+            } catch (SQLException e) {
+                assertEquals(SQLSTATE_CIRCUIT_OPEN_ERROR, e.getSQLState());
+            }
+            assertTrue(ds.getCircuitBreaker().isOpen());
+            assertEquals(1, ds.getCircuitBreaker().getTrips());
+
+            long startNanoTime = System.nanoTime();
+            try {
+                ds.getConnection(); // fails fast without retries
+                fail("SQLException expected");
+            } catch (SQLException e) {
+                assertEquals(SQLSTATE_CIRCUIT_OPEN_ERROR, e.getSQLState());
+                assertNull(e.getNextException());
+            }
+            assertTrue(System.nanoTime() - startNanoTime < MILLISECONDS.toNanos(ds.getAcquireRetryDelayInMs()));
+            assertEquals(2, ds.getCircuitBreaker().getRejections());
+
+            databaseDown.set(false);
+            for (int i = 0; i < 100 && ds.getCircuitBreaker().isOpen(); i++) {
+                Thread.sleep(50); // the probe closes the breaker
+            }
+            assertFalse(ds.getCircuitBreaker().isOpen());
+            assertEquals(0, ds.getCircuitBreaker().getConsecutiveFailures());
+
+            try (Connection c2 = ds.getConnection()) {
+                executeAndVerifySelectStatement(c2);
+            }
+        }
+    }
+
     private static void doTestSelectStatement(DataSource ds) throws SQLException {
         try (Connection connection = ds.getConnection()) {
             executeAndVerifySelectStatement(connection);
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.jfr;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+import org.vibur.dbcp.AbstractDataSourceTest;
+import org.vibur.dbcp.ViburDBCPDataSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Simeon Malchev
+ */
+public class JfrEventsTest extends AbstractDataSourceTest {
+
+    @Test
+    public void testJfrEvents() throws SQLException, IOException {
+        File file = File.createTempFile("vibur-dbcp", ".jfr");
+        List<RecordedEvent> events;
+        String poolName;
+        try (Recording recording = new Recording()) {
+            for (String name : new String[] {"ConnectionAcquire", "ConnectionRestore", "ConnectionCreate",
+                    "ConnectionDestroy", "ConnectionValidate", "StatementExecute", "ResultSetClose"}) {
+                recording.enable("org.vibur.dbcp." + name).withoutThreshold();
+            }
+            recording.start();
+
+            ViburDBCPDataSource ds = createDataSourceNotStarted();
+            ds.setPoolEnableJfrEvents(true);
+            ds.setConnectionIdleLimitInSeconds(0); // validates the connections on every take
+            ds.start();
+            poolName = ds.getName();
+
+            for (int i = 0; i < 3; i++) {
+                try (Connection connection = ds.getConnection();
+                     Statement statement = connection.createStatement();
+                     ResultSet resultSet = statement.executeQuery("select * from actor where first_name = 'CHRISTIAN'")) {
+                    while (resultSet.next()) { }
+                }
+            }
+            Connection[] connections = new Connection[POOL_INITIAL_SIZE + 1]; // the last one will be created
+            for (int i = 0; i < connections.length; i++) {
+                connections[i] = ds.getConnection();
+            }
+            for (Connection connection : connections) {
+                connection.close();
+            }
+            ds.terminate();
+
+            recording.stop();
+            recording.dump(file.toPath());
+            events = RecordingFile.readAllEvents(file.toPath());
+        } finally {
+            assertTrue(file.delete());
+        }
+
+        int created = 0;
+        Map<String, Integer> counts = new HashMap<>();
+        for (RecordedEvent event : events) {
+            String name = event.getEventType().getName();
+            Integer count = counts.get(name);
+            counts.put(name, count == null ? 1 : count + 1);
+            assertEquals(poolName, event.getString("pool"));
+
+            if (name.equals("org.vibur.dbcp.StatementExecute")) {
+                assertEquals("executeQuery", event.getString("method"));
+                assertTrue(event.getBoolean("success"));
+                assertFalse(event.getDuration().isNegative());
+            }
+            if (name.equals("org.vibur.dbcp.ResultSetClose")) {
+                assertEquals(3, event.getLong("rows"));
+            }
+            if (name.equals("org.vibur.dbcp.ConnectionAcquire")) {
+                assertTrue(event.getBoolean("success"));
+                if (event.getBoolean("created")) {
+                    created++;
+                }
+            }
+        }
+
+        assertEquals(1, created); // the initial connections created by ds.start() are not attributed to any acquire
+        assertEquals(POOL_INITIAL_SIZE + 1, (int) counts.get("org.vibur.dbcp.ConnectionCreate"));
+        assertEquals(3 + POOL_INITIAL_SIZE + 1, (int) counts.get("org.vibur.dbcp.ConnectionAcquire"));
+        assertEquals(3 + POOL_INITIAL_SIZE + 1, (int) counts.get("org.vibur.dbcp.ConnectionRestore"));
+        assertTrue(counts.get("org.vibur.dbcp.ConnectionValidate") >= 3);
+        assertEquals(3, (int) counts.get("org.vibur.dbcp.StatementExecute"));
+        assertEquals(3, (int) counts.get("org.vibur.dbcp.ResultSetClose"));
+        assertEquals(POOL_INITIAL_SIZE + 1, (int) counts.get("org.vibur.dbcp.ConnectionDestroy"));
+    }
+}
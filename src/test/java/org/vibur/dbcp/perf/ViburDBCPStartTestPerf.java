@@ -0,0 +1,88 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.perf;
+
+import org.vibur.dbcp.ViburDBCPDataSource;
+import org.vibur.dbcp.ViburDBCPException;
+import org.vibur.dbcp.pool.Hook;
+
+import java.sql.Connection;
+
+/**
+ * @author Simeon Malchev
+ */
+public class ViburDBCPStartTestPerf {
+
+    // pool metrics:
+    private static final int INITIAL_SIZE = 100;
+    private static final int MAX_SIZE = 100;
+    private static final int[] FILL_THREADS = {1, 4, 16};
+
+    // simulated network cost of establishing a connection to a remote database:
+    private static final long CONNECT_LATENCY_MS = 20;
+
+    private static final int ITERATIONS = 3;
+
+    public static void main(String[] args) throws ViburDBCPException {
+
+        // Creates and starts a DataSource with an INITIAL_SIZE, for each of the FILL_THREADS values, where
+        // each connection creation is slowed down by CONNECT_LATENCY_MS via an InitConnection hook in order
+        // to simulate a remote database. Measures and reports the best start time out of ITERATIONS in ms.
+
+        for (int fillThreads : FILL_THREADS) {
+            long bestNanos = Long.MAX_VALUE;
+            for (int i = 0; i < ITERATIONS; i++) {
+                ViburDBCPDataSource ds = createDataSource(fillThreads);
+                long startNanoTime = System.nanoTime();
+                ds.start();
+                bestNanos = Math.min(bestNanos, System.nanoTime() - startNanoTime);
+                ds.close();
+            }
+
+            System.out.println(String.format("poolInitialFillThreads %d, start time %f ms.",
+                fillThreads, bestNanos * 0.000_001));
+        }
+    }
+
+    private static ViburDBCPDataSource createDataSource(int fillThreads) {
+        ViburDBCPDataSource ds = new ViburDBCPDataSource();
+        ds.setJdbcUrl("jdbc:hsqldb:mem:sakila;shutdown=false");
+        ds.setUsername("sa");
+        ds.setPassword("");
+
+        ds.setPoolInitialSize(INITIAL_SIZE);
+        ds.setPoolMaxSize(MAX_SIZE);
+        ds.setPoolInitialFillThreads(fillThreads);
+        ds.getConnHooks().addOnInit(new Hook.InitConnection() {
+            @Override
+            public void on(Connection rawConnection, long takenNanos) {
+                doWork(CONNECT_LATENCY_MS);
+            }
+        });
+        return ds;
+    }
+
+    private static void doWork(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ignored) { }
+    }
+}
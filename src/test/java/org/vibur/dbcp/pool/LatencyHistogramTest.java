@@ -0,0 +1,63 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Simeon Malchev
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testRecordAndPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_500_000, histogram.getTotal());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_000, histogram.getValueAtPercentile(50), 500_000 / 16);
+        assertEquals(990_000, histogram.getValueAtPercentile(99), 990_000 / 16);
+        assertEquals(1_000_000, histogram.getValueAtPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getTotal());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testBucketsRelativeError() {
+        LatencyHistogram coarse = new LatencyHistogram(1, 3); // 8 sub-buckets per power of two
+        for (long micros = 1; micros <= 1000; micros++) {
+            coarse.record(micros * 1000);
+        }
+        assertEquals(1000, coarse.getCount());
+        assertEquals(500_000, coarse.getValueAtPercentile(50), 500_000 / 8);
+        assertEquals(990_000, coarse.getValueAtPercentile(99), 990_000 / 8);
+
+        for (long value : new long[] {1, 7, 8, 9, 1000, 123_456_789}) {
+            LatencyHistogram single = new LatencyHistogram(1, 3);
+            single.record(value);
+            assertEquals(value, single.getValueAtPercentile(50), value / 8);
+        }
+    }
+}
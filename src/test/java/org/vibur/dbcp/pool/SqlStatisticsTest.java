@@ -0,0 +1,38 @@
+/**
+ * Copyright 2018 Simeon Malchev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vibur.dbcp.pool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Simeon Malchev
+ */
+public class SqlStatisticsTest {
+
+    @Test
+    public void testNormalize() {
+        assertEquals("select * from actor where actor_id = ? and last_name = ? and \"t 1\" = t1",
+                SqlStatistics.normalize("select *  from actor\n where actor_id = 42 /* the id */ and last_name = 'O''Brian' " +
+                        "and \"t 1\" = t1 -- a comment"));
+        assertEquals("select * from actor where actor_id in (?, ?)",
+                SqlStatistics.normalize("select * from actor where actor_id in (1, 2.5)"));
+        assertEquals("select * from actor where actor_id = ?",
+                SqlStatistics.normalize("select * from actor where actor_id = 7"));
+    }
+}